@@ -0,0 +1,71 @@
+package Test;
+
+import main.BytecodeCompiler;
+import main.Core;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static main.REPLErrors.SyntaxError;
+import static org.junit.Assert.*;
+
+public class BytecodeCompilerTest {
+    private boolean enabled;
+
+    @Before
+    public void compile() {
+        enabled = BytecodeCompiler.enabled;
+        BytecodeCompiler.enabled = true;
+    }
+
+    @After
+    public void restore() {
+        BytecodeCompiler.enabled = enabled;
+    }
+
+    @Test
+    public void disassembleTest() throws REPLErrors, ReaderErrors {
+        REPL.rep("(defun vm-fib (n) (cond ((eq n 0) 0) ((eq n 1) 1) ('t (+ (vm-fib (- n 1)) (vm-fib (- n 2))))))");
+        assertEquals("6765", REPL.rep("(vm-fib 20)"));
+        String code = REPL.rep("(disassemble vm-fib)");
+        assertTrue(code, code.contains("code of vm-fib"));
+        for (String op : new String[]{"load-function", "load-local", "const", "jump-if-false", "call", "tail-call", "return"})
+            assertTrue(op + " missing in " + code, code.contains(op));
+        assertTrue(code, code.contains("; vm-fib"));
+        assertTrue(code, code.contains("constants:"));
+        assertThrows(SyntaxError.class, () -> REPL.rep("(disassemble car)"));
+    }
+
+    @Test
+    public void compiledFormsTest() throws REPLErrors, ReaderErrors {
+        //closures over compiled frames, let*, set! and def! in compiled code
+        REPL.rep("(defun vm-adder (n) (lambda (x) (+ x n)))");
+        assertEquals("7", REPL.rep("((vm-adder 5) 2)"));
+        REPL.rep("(defun vm-let (x) (let* ((y (+ x 1)) (z (* y 2))) (begin (set! y z) (def! vm-global y) (list x y z))))");
+        assertEquals("(1 4 4)", REPL.rep("(vm-let 1)"));
+        assertEquals("4", REPL.rep("vm-global"));
+        REPL.rep("(defun vm-unbound () (set! vm-nothing 1))");
+        assertThrows(SyntaxError.class, () -> REPL.rep("(vm-unbound)"));
+        assertThrows(SyntaxError.class, () -> REPL.rep("((lambda (x) x) 1 2)"));
+
+        //macro calls are expanded when reached, also if the macro is defined after the function
+        Core.initMacros();
+        REPL.rep("(defun vm-sign (n) (if (eq n 0) 'zero 'other))");
+        assertEquals("zero", REPL.rep("(vm-sign 0)"));
+        REPL.rep("(defun vm-late (x) (vm-twice x))");
+        REPL.rep("(defmacro vm-twice (x) `(list ,x ,x))");
+        assertEquals("(1 1)", REPL.rep("(vm-late 1)"));
+        REPL.rep("(defmacro vm-twice (x) `(+ ,x ,x))");
+        assertEquals("2", REPL.rep("(vm-late 1)"));
+    }
+
+    @Test
+    public void tailCallTest() throws Throwable {
+        Core.initMacros();
+        REPL.rep("(defun vm-count (n acc) (if (eq n 0) acc (vm-count (- n 1) (+ acc 1))))");
+        assertEquals("100000", TailCallTest.repSmallStack("(vm-count 100000 0)"));
+    }
+}
@@ -0,0 +1,41 @@
+package Test;
+
+import main.BytecodeCompiler;
+import main.REPL;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+import java.util.List;
+
+/**
+ * Runs the interpreter suites again with every function they define compiled to bytecode, they must give the same
+ * results as with the tree walker.
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({CoreTest.class, REPLTest.class, GrahamTests.class})
+public class CompiledModeTest {
+    private static boolean enabled;
+
+    @BeforeClass
+    public static void compile() {
+        enabled = BytecodeCompiler.enabled;
+        BytecodeCompiler.enabled = true;
+        unbind();
+    }
+
+    @AfterClass
+    public static void restore() {
+        BytecodeCompiler.enabled = enabled;
+        unbind();
+    }
+
+    /**
+     * The suites run more than once in the same JVM, REPLTest.setTest expects these to be unbound.
+     */
+    private static void unbind() {
+        for (String name : List.of("a", "b", "c"))
+            REPL.globalEnv.put(name, null);
+    }
+}
@@ -40,7 +40,35 @@ public class CoreTest {
     }
 
     @Test
-    public void mathTests() throws REPLErrors, ReaderErrors {
+    public void sharingTest() throws REPLErrors, ReaderErrors {
+        //cons, cdr and concat share the list they were given instead of copying it
+        ListType list = new ListType(new IntegerType(1), new IntegerType(2), new IntegerType(3));
+        ListType consed = (ListType) ((MyFunction) env.get("cons")).apply2(new IntegerType(0), list);
+        assertSame(list, consed.rest());
+        assertEquals("(0 1 2 3)", consed.toString());
+        assertEquals(4, consed.size());
+        assertEquals("2", consed.get(2).toString());
+        assertNull(consed.get(4));
+        assertNull(consed.get(-1));
+        //a view of the array the list was made from doesn't reach before its first element
+        assertNull(list.rest().get(-1));
+        assertEquals("(2 3)", consed.rest().rest().toString());
+        assertArrayEquals(new Object[]{consed.get(0), consed.get(1), consed.get(2), consed.get(3)},
+                consed.getValue().toArray());
+        assertThrows(UnsupportedOperationException.class, () -> consed.getValue().add(new IntegerType(4)));
+        MyDataType appended = ((MyFunction) env.get("concat")).apply2(new ListType(new IntegerType(-1)), consed);
+        assertSame(consed, ((ListType) appended).rest());
+
+        REPL.rep("(def! shared '(a b c))");
+        assertEquals("(x a b c)", REPL.rep("(cons 'x shared)"));
+        assertEquals("(y b c)", REPL.rep("(cons 'y (cdr shared))"));
+        assertEquals("(a b c)", REPL.rep("shared"));
+        assertEquals("(c)", REPL.rep("(cdr (cdr (cons 'x (cdr shared))))"));
+        assertEquals("(a b c a b c)", REPL.rep("(concat shared shared)"));
+    }
+
+    @Test
+    public void mathTests()throws REPLErrors, ReaderErrors {
         ListType args1, args2, args3, args4, args5, args6;
 
         MyFunction plus, minus, times, divide;
@@ -66,13 +94,13 @@ public class CoreTest {
         ArrayList<Integer> actualResults = new ArrayList<>();
         for (MyFunction function : funList) {
             for (ListType arg : argsList) {
-                actualResults.add((Integer) function.apply(arg).getValue());
+                actualResults.add(((Long) function.apply(arg).getValue()).intValue());
             }
         }
-        actualResults.add((Integer) divide.apply(args1).getValue());
-        actualResults.add((Integer) divide.apply(args4).getValue());
-        actualResults.add((Integer) divide.apply(args5).getValue());
-        actualResults.add((Integer) divide.apply(args6).getValue());
+        actualResults.add(((Long) divide.apply(args1).getValue()).intValue());
+        actualResults.add(((Long) divide.apply(args4).getValue()).intValue());
+        actualResults.add(((Long) divide.apply(args5).getValue()).intValue());
+        actualResults.add(((Long) divide.apply(args6).getValue()).intValue());
         assertArrayEquals(expectedResults, actualResults.toArray(new Integer[0]));
 
         assertThrows(REPLErrors.SyntaxError.class, () -> divide.apply(args2));
@@ -80,6 +108,66 @@ public class CoreTest {
 
     }
 
+    @Test
+    public void integerCacheTest() throws REPLErrors, ReaderErrors {
+        //small values read or computed are the canonical instances
+        assertSame(IntegerType.valueOf(5), REPL.read("5"));
+        assertSame(IntegerType.valueOf(-128), REPL.eval(REPL.read("(- 0 128)"), REPL.globalEnv));
+        assertSame(IntegerType.valueOf(1023), REPL.eval(REPL.read("(+ 1000 23)"), REPL.globalEnv));
+        assertNotSame(IntegerType.valueOf(1024), IntegerType.valueOf(1024));
+        assertTrue(IntegerType.valueOf(1024).equals(REPL.read("1024")));
+        assertFalse(IntegerType.valueOf(3).equals(SymbolType.intern("a")));
+        assertEquals("#true", REPL.rep("(eq (* 1000 1000) 1000000)"));
+    }
+
+    @Test
+    public void variadicTest() throws REPLErrors, ReaderErrors {
+        assertEquals("10", REPL.rep("(+ 1 2 3 4)"));
+        assertEquals("0", REPL.rep("(+)"));
+        assertEquals("1", REPL.rep("(*)"));
+        assertEquals("-5", REPL.rep("(- 5)"));
+        assertEquals("4", REPL.rep("(- 10 3 2 1)"));
+        assertEquals("120", REPL.rep("(* 1 2 3 4 5)"));
+        assertEquals("5", REPL.rep("(/ 100 5 4)"));
+        assertEquals("0", REPL.rep("(/ 2)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(-)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(/ 1 2 0)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(+ 1 2 'a)"));
+
+        assertEquals("#true", REPL.rep("(< 1 2 3 4)"));
+        assertEquals("#false", REPL.rep("(< 1 3 2 4)"));
+        assertEquals("#true", REPL.rep("(<= 1 1 2)"));
+        assertEquals("#true", REPL.rep("(> 3 2 1)"));
+        assertEquals("#false", REPL.rep("(>= 3 4)"));
+        assertEquals("#true", REPL.rep("(= 2 2 2)"));
+        assertEquals("#true", REPL.rep("(< 5)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(<)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(< 1 2 'a)"));
+    }
+
+    @Test
+    public void numericTowerTest() throws REPLErrors, ReaderErrors {
+        //results that don't fit into an int or a long are promoted, results that fit again are longs
+        assertEquals("4294967296", REPL.rep("(* 65536 65536)"));
+        assertEquals("9223372036854775807", REPL.rep("(- 0 -9223372036854775807)"));
+        assertEquals("9223372036854775808", REPL.rep("(+ 9223372036854775807 1)"));
+        assertEquals("9223372036854775808", REPL.rep("(- -9223372036854775808)"));
+        assertEquals("9223372036854775808", REPL.rep("(/ -9223372036854775808 -1)"));
+        assertEquals("85070591730234615847396907784232501249", REPL.rep("(* 9223372036854775807 9223372036854775807)"));
+        MyDataType back = REPL.eval(REPL.read("(- 9223372036854775808 1)"), REPL.globalEnv);
+        assertTrue(back instanceof IntegerType);
+        assertEquals("9223372036854775807", back.toString());
+
+        //literals
+        assertTrue(REPL.read("9223372036854775807") instanceof IntegerType);
+        assertTrue(REPL.read("-9223372036854775808") instanceof IntegerType);
+        assertTrue(REPL.read("9223372036854775808") instanceof BigIntegerType);
+        assertEquals("123456789012345678901234567890", REPL.rep("123456789012345678901234567890"));
+        assertEquals("#true", REPL.rep("(eq 123456789012345678901234567890 123456789012345678901234567890)"));
+        assertEquals("#true", REPL.rep("(< 9223372036854775807 9223372036854775808 (* 9223372036854775808 2))"));
+        assertEquals("#false", REPL.rep("(= 9223372036854775807 9223372036854775808)"));
+    }
+
     @Test
     public void coreTest() throws REPLErrors, ReaderErrors {
         assertTrue(Core.coreNames.contains("+"));
@@ -101,6 +189,34 @@ public class CoreTest {
 
     }
 
+    @Test
+    public void entryPointsTest() throws REPLErrors, ReaderErrors {
+        //the fixed arity entry points do what apply does with a list of the arguments
+        MyFunction plus = (MyFunction) env.get("+");
+        assertEquals("5", plus.apply2(new IntegerType(2), new IntegerType(3)).toString());
+        assertEquals("2", plus.apply1(new IntegerType(2)).toString());
+        assertThrows(REPLErrors.SyntaxError.class, () -> plus.apply(new ListType(new IntegerType(2), new ListType())));
+        MyFunction list = (MyFunction) env.get("list");
+        assertEquals("()", list.apply0().toString());
+        assertEquals("(1 2 3 4)", list.applyN(new IntegerType(1), new IntegerType(2), new IntegerType(3),
+                new IntegerType(4)).toString());
+        assertEquals("(1 2 3 4)", REPL.rep("(list 1 2 3 4)"));
+        MyFunction car = (MyFunction) env.get("car");
+        assertEquals("a", car.apply1(new ListType(SymbolType.intern("a"))).toString());
+        assertThrows(REPLErrors.SyntaxError.class, () -> car.apply1(new ListType()));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(car '(a) '(b))"));
+
+        //functions made by lambda and defun
+        REPL.rep("(defun entry-sum (a b c d) (list a b c d))");
+        MyFunction sum = (MyFunction) REPL.eval(REPL.read("entry-sum"), REPL.globalEnv);
+        assertEquals("(1 2 3 4)", sum.applyN(new IntegerType(1), new IntegerType(2), new IntegerType(3),
+                new IntegerType(4)).toString());
+        MyFunction pair = (MyFunction) REPL.eval(REPL.read("(lambda (x y) (cons x y))"), REPL.globalEnv);
+        assertEquals("(1 2)", pair.apply2(new IntegerType(1), new ListType(new IntegerType(2))).toString());
+        assertEquals("(1 2)", pair.apply(new ListType(new IntegerType(1), new ListType(new IntegerType(2))))
+                .toString());
+    }
+
     @Test
     public void concatTest() throws REPLErrors, ReaderErrors {
         String in = "(concat)";
@@ -116,4 +232,33 @@ public class CoreTest {
         in = "(concat '(a b c) '(x y z) '(1 2))";
         assertEquals("(a b c x y z 1 2)", REPL.rep(in));
     }
+
+    @Test
+    public void parseCacheTest() throws REPLErrors, ReaderErrors {
+        ParseCache cache = new ParseCache(2);
+        Reader.commentFreeInput = "(unchanged)";
+        MyDataType first = cache.read("(a b) ; comment");
+        assertSame(first, cache.read("(a b) ; comment"));
+        assertEquals("(unchanged)", Reader.commentFreeInput);
+        cache.read("(c)");
+        cache.read("(a b) ; comment");//most recently used, (c) is dropped next
+        cache.read("d");
+        assertEquals(2, cache.size());
+        assertSame(first, cache.read("(a b) ; comment"));
+        assertEquals(3, cache.hits());
+        assertEquals(3, cache.misses());
+        assertThrows(REPLErrors.SyntaxError.class, () -> cache.read("(\"unclosed)"));
+        assertEquals(4, cache.misses());
+        assertEquals(2, cache.size());
+
+        //disabled cache reads every time
+        ParseCache disabled = new ParseCache(0);
+        assertNotSame(disabled.read("(x)"), disabled.read("(x)"));
+        assertEquals(0, disabled.size());
+
+        Core.parseCache.clear();
+        assertEquals("(+ 1 2)", REPL.rep("(parse \"(+ 1 2)\")"));
+        assertEquals("3", REPL.rep("(eval (parse \"(+ 1 2)\"))"));
+        assertEquals("((hits 1) (misses 1) (size 1) (capacity 256))", REPL.rep("(parse-stats)"));
+    }
 }
@@ -0,0 +1,74 @@
+package Test;
+
+import main.FormCache;
+import main.FormStream;
+import main.REPLErrors;
+import main.ReaderErrors;
+import main.SourceMap;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static main.Types.*;
+import static org.junit.Assert.*;
+
+public class FormCacheTest {
+
+    @Test
+    public void roundTripTest() throws IOException, REPLErrors, ReaderErrors {
+        String source = """
+                (defun f (x) ; comment
+                  (cons 'a `(x ,@x)))
+                (print "some \\"string\\" with \u00fcnicode")
+                -12 nil true false () 9000000000 -123456789012345678901234567890 [a (b c) []]
+                (f (f 3))
+                """;
+        int file = SourceMap.fileId("cached.lisp");
+        List<MyDataType> forms = new ArrayList<>();
+        FormStream stream = new FormStream(CharBuffer.wrap(source), file, 1);
+        for (MyDataType form; (form = stream.nextForm()) != null; )
+            forms.add(form);
+        SourceMap.addAll(stream.positions());
+
+        Path dir = Files.createTempDirectory("formcache");
+        Path cache = FormCache.cacheFile(dir.resolve("cached.lisp"));
+        assertEquals("cached.lisp.malc", cache.getFileName().toString());
+        byte[] hash = FormCache.hash(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+        assertNull(FormCache.load(cache, hash, file));
+        assertTrue(FormCache.store(cache, hash, forms));
+
+        List<MyDataType> loaded = FormCache.load(cache, hash, file);
+        assertNotNull(loaded);
+        assertEquals(forms.toString(), loaded.toString());
+        //symbols are shared with the reader, lists carry their positions
+        ListType defun = (ListType) loaded.get(0);
+        assertSame(SymbolType.intern("defun"), defun.get(0));
+        assertSame(((ListType) forms.get(0)).get(1), defun.get(1));
+        assertEquals("cached.lisp:1:1", SourceMap.describe(defun));
+        assertEquals("cached.lisp:2:3", SourceMap.describe(defun.get(3)));
+        assertEquals("cached.lisp:5:4", SourceMap.describe(((ListType) loaded.get(loaded.size() - 1)).get(1)));
+        assertSame(Nil, loaded.get(3));
+        assertSame(True, loaded.get(4));
+        assertEquals(-12, ((IntegerType) loaded.get(2)).getValue().intValue());
+        assertEquals(9000000000L, ((IntegerType) loaded.get(7)).longValue());
+        assertEquals("-123456789012345678901234567890", ((BigIntegerType) loaded.get(8)).getValue().toString());
+        assertSame(SymbolType.intern("a"), ((VectorType) loaded.get(9)).get(0));
+
+        //a different source hash or a corrupt file mean there is no cache
+        byte[] changed = FormCache.hash(ByteBuffer.wrap((source + " ").getBytes(StandardCharsets.UTF_8)));
+        assertNull(FormCache.load(cache, changed, file));
+        byte[] bytes = Files.readAllBytes(cache);
+        Files.write(cache, Arrays.copyOf(bytes, bytes.length - 3));
+        assertNull(FormCache.load(cache, hash, file));
+        Files.delete(cache);
+        Files.delete(dir);
+    }
+}
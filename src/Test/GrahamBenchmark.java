@@ -0,0 +1,61 @@
+package Test;
+
+import main.FormStream;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static main.Types.MyDataType;
+
+/**
+ * Times the workloads of GrahamTests on top of Graham's interpreter (interpreter.txt). Every workload is run a number
+ * of times per round, the average time per round after warming up is printed. Run from the src directory or with the
+ * path to the interpreter source as argument.
+ */
+public class GrahamBenchmark {
+    static final int WARMUP_ROUNDS = 10, ROUNDS = 20;
+
+    static final String[][] WORKLOADS = {
+            {"eval. subst", "200", """
+                    (eval. '((label subst (lambda (x y z)
+                                            (cond ((atom z) (cond ((eq z y) x) ('t z)))
+                                                  ('t (cons (subst x y (car z)) (subst x y (cdr z)))))))
+                             'm 'b '(a b (a b c) d))
+                           '())"""},
+            {"eval. lambda", "2000", "(eval. '((lambda (x y) (cons x (cdr y))) 'a '(b c d)) '())"},
+            {"eval. cond", "2000", "(eval. '(cond ((atom x) 'atom) ('default. 'list)) '((x '(a b))))"},
+            {"pair./append.", "2000", "(append. (pair. '(a b c d e f) '(1 2 3 4 5 6)) '(x y z))"},
+            {"assoc.", "2000", "(assoc. 'j '((a 1) (b 2) (c 3) (d 4) (e 5) (f 6) (g 7) (h 8) (i 9) (j 10)))"},
+    };
+
+    public static void main(String[] args) throws IOException, REPLErrors, ReaderErrors {
+        String source = Files.readString(Path.of(args.length > 0 ? args[0] : "interpreter.txt"));
+        FormStream forms = new FormStream(CharBuffer.wrap(source));
+        for (MyDataType form; (form = forms.nextForm()) != null; )
+            REPL.eval(form, REPL.globalEnv);
+
+        for (String[] workload : WORKLOADS) {
+            MyDataType form = REPL.read(workload[2]);
+            int repetitions = Integer.parseInt(workload[1]);
+            String result = REPL.print(REPL.eval(form, REPL.globalEnv));
+            for (int i = 0; i < WARMUP_ROUNDS; i++)
+                round(form, repetitions);
+            long total = 0;
+            for (int i = 0; i < ROUNDS; i++)
+                total += round(form, repetitions);
+            System.out.printf("%-14s %5d x: %8.2f ms  -> %s%n", workload[0], repetitions, total / 1e6 / ROUNDS, result);
+        }
+    }
+
+    static long round(MyDataType form, int repetitions) throws REPLErrors, ReaderErrors {
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++)
+            REPL.eval(form, REPL.globalEnv);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,59 @@
+package Test;
+
+import main.FormStream;
+import main.Inliner;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static main.Types.MyDataType;
+
+/**
+ * Measures the bytes the workloads of {@link GrahamBenchmark} allocate without and with the {@link Inliner}, from the
+ * allocation counter the JVM keeps for the running thread. Graham's interpreter is loaded again for every run since
+ * calls are inlined when a defun is analyzed. Run from the src directory or with the path to the interpreter source as
+ * argument.
+ */
+public class InlineBenchmark {
+    private static final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException, REPLErrors, ReaderErrors {
+        String source = Files.readString(Path.of(args.length > 0 ? args[0] : "interpreter.txt"));
+        System.out.printf("%-14s %5s %14s %14s%n", "", "", "bytes", "inlined");
+        for (String[] workload : GrahamBenchmark.WORKLOADS) {
+            long plain = allocated(source, workload, false);
+            long inlined = allocated(source, workload, true);
+            System.out.printf("%-14s %5s x: %14d %14d%n", workload[0], workload[1], plain, inlined);
+        }
+    }
+
+    /**
+     * @return bytes allocated by running the workload once more after loading the interpreter and warming it up
+     */
+    static long allocated(String source, String[] workload, boolean inline) throws REPLErrors, ReaderErrors {
+        boolean enabled = Inliner.enabled;
+        Inliner.enabled = inline;
+        try {
+            FormStream forms = new FormStream(CharBuffer.wrap(source));
+            for (MyDataType form; (form = forms.nextForm()) != null; )
+                REPL.eval(form, REPL.globalEnv);
+        } finally {
+            Inliner.enabled = enabled;
+        }
+        MyDataType form = REPL.read(workload[2]);
+        int repetitions = Integer.parseInt(workload[1]);
+        for (int i = 0; i < GrahamBenchmark.WARMUP_ROUNDS; i++)
+            GrahamBenchmark.round(form, repetitions);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        GrahamBenchmark.round(form, repetitions);
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+}
@@ -0,0 +1,93 @@
+package Test;
+
+import main.Core;
+import main.Inliner;
+import main.Optimizer;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InlinerTest {
+    private boolean enabled, optimize;
+
+    @Before
+    public void inline() {
+        enabled = Inliner.enabled;
+        optimize = Optimizer.enabled;
+        Inliner.enabled = true;
+        Optimizer.enabled = true;
+    }
+
+    @After
+    public void restore() {
+        Inliner.enabled = enabled;
+        Optimizer.enabled = optimize;
+    }
+
+    @Test
+    public void inlineTest() throws REPLErrors, ReaderErrors {
+        REPL.rep("(defun inl-null (x) (eq x '()))");
+        REPL.rep("(defun inl-second (x) (car (cdr x)))");
+        assertEquals("(lambda (y) (let* ((x y)) (eq x ())))", REPL.rep("(optimize '(lambda (y) (inl-null y)))"));
+        assertEquals("(lambda (y) (let* ((x (let* ((x y)) (car (cdr x))))) (eq x ())))",
+                REPL.rep("(optimize '(lambda (y) (inl-null (inl-second y))))"));
+        //top level calls run once and are left alone
+        assertEquals("(inl-null y)", REPL.rep("(optimize '(inl-null y))"));
+        REPL.rep("(defun inl-use (y) (list (inl-null y) (inl-second y)))");
+        assertEquals("(#false b)", REPL.rep("(inl-use '(a b))"));
+        assertEquals("#true", REPL.rep("((lambda (y) (inl-null y)) '())"));
+
+        //recursive functions, calls with the wrong number of arguments and closures are not inlined
+        REPL.rep("(defun inl-last (x) (cond ((eq (cdr x) '()) (car x)) ('t (inl-last (cdr x)))))");
+        assertEquals("(lambda (y) (inl-last y))", REPL.rep("(optimize '(lambda (y) (inl-last y)))"));
+        assertEquals("(lambda (y) (inl-null y 1))", REPL.rep("(optimize '(lambda (y) (inl-null y 1)))"));
+        assertEquals("#false", REPL.rep("((lambda (y) (inl-null y 1)) 2)"));
+        REPL.rep("(def! inl-adder ((lambda (n) (lambda (x) (+ x n))) 1))");
+        assertEquals("(lambda (y) (inl-adder y))", REPL.rep("(optimize '(lambda (y) (inl-adder y)))"));
+        assertEquals("c", REPL.rep("((lambda (y) (inl-last y)) '(a b c))"));
+    }
+
+    @Test
+    public void scopeTest() throws REPLErrors, ReaderErrors {
+        //the body sees the global, not the local variable of the caller with the same name
+        REPL.rep("(def! inl-free 'global)");
+        REPL.rep("(defun inl-get (x) (list x inl-free))");
+        REPL.rep("(defun inl-caller (inl-free) (inl-get inl-free))");
+        assertEquals("(local global)", REPL.rep("(inl-caller 'local)"));
+        //arguments named like the parameters are evaluated in the caller's scope
+        REPL.rep("(defun inl-swap (x y) (list y x))");
+        REPL.rep("(defun inl-swapper (y x) (inl-swap x y))");
+        assertEquals("(1 2)", REPL.rep("(inl-swapper 1 2)"));
+        assertEquals("(a (b a))", REPL.rep("(let* ((x 'a) (y 'b)) (list x (inl-swap x y)))"));
+        //closures made by the inlined body keep its parameters
+        REPL.rep("(defun inl-const (x) (lambda () x))");
+        REPL.rep("(defun inl-consts (a b) (list ((inl-const a)) ((inl-const b))))");
+        assertEquals("(1 2)", REPL.rep("(inl-consts 1 2)"));
+    }
+
+    @Test
+    public void redefinedTest() throws REPLErrors, ReaderErrors {
+        REPL.rep("(defun inl-value (x) (list x 'old))");
+        REPL.rep("(defun inl-uses (x) (inl-value x))");
+        assertEquals("(1 old)", REPL.rep("(inl-uses 1)"));
+        //the call is made again once the function is redefined
+        REPL.rep("(defun inl-value (x) (list x 'new))");
+        assertEquals("(1 new)", REPL.rep("(inl-uses 1)"));
+        REPL.rep("(def! inl-value car)");
+        assertEquals("a", REPL.rep("(inl-uses '(a b))"));
+    }
+
+    @Test
+    public void mutualRecursionTest() throws Throwable {
+        Core.initMacros();
+        REPL.rep("(defun inl-even (n) (if (eq n 0) 't (inl-odd (- n 1))))");
+        REPL.rep("(defun inl-odd (n) (if (eq n 0) false (inl-even (- n 1))))");
+        assertEquals("t", TailCallTest.repSmallStack("(inl-even 10000)"));
+        assertEquals("#false", TailCallTest.repSmallStack("(inl-even 10001)"));
+    }
+}
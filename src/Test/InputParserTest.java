@@ -0,0 +1,78 @@
+package Test;
+
+import main.InputParser;
+import org.junit.Test;
+
+import static main.InputParser.Status.*;
+import static org.junit.Assert.*;
+
+public class InputParserTest {
+
+    @Test
+    public void statusTest() {
+        InputParser parser = new InputParser();
+        assertEquals(EMPTY, parser.feed(""));
+        assertEquals(EMPTY, parser.feed("   \t"));
+        assertEquals(COMMENT, parser.feed("  ; just a comment"));
+        assertFalse(parser.isIncomplete());
+
+        //multi line input with comments at the end of lines and in between
+        assertEquals(NEED_MORE, parser.feed("(defun f (x) ; comment"));
+        assertTrue(parser.isIncomplete());
+        assertEquals(NEED_MORE, parser.feed("; comment inside of a form"));
+        assertEquals(NEED_MORE, parser.feed(""));
+        assertEquals(COMPLETE, parser.feed("  (cons 'a x))"));
+        assertFalse(parser.isIncomplete());
+        assertEquals("(defun f (x) (cons 'a x))", parser.nextForm().toString());
+        assertNull(parser.nextForm());
+
+        //several forms on one line, the last one unfinished
+        assertEquals(COMPLETE, parser.feed("1 'b (c) `(d"));
+        assertTrue(parser.isIncomplete());
+        assertEquals("1", parser.nextForm().toString());
+        assertEquals("'b", parser.nextForm().toString());
+        assertEquals("(c)", parser.nextForm().toString());
+        assertNull(parser.nextForm());
+        assertEquals(COMPLETE, parser.feed(",@e)"));
+        assertEquals("`(d ,@e)", parser.nextForm().toString());
+
+        //a quote can be followed by its form on the next line
+        assertEquals(NEED_MORE, parser.feed("'"));
+        assertEquals(COMPLETE, parser.feed("a"));
+        assertEquals("'a", parser.nextForm().toString());
+
+        //vectors can span lines like lists
+        assertEquals(NEED_MORE, parser.feed("[1 (a"));
+        assertEquals(COMPLETE, parser.feed("b) []]"));
+        assertEquals("[1 (a b) []]", parser.nextForm().toString());
+    }
+
+    @Test
+    public void errorTest() {
+        InputParser parser = new InputParser();
+        assertEquals(ERROR, parser.feed("(print \"unclosed)"));
+        assertEquals("missing closing quote or empty quotes/string", parser.getError());
+        assertFalse(parser.isIncomplete());
+
+        assertEquals(ERROR, parser.feed(")"));
+        assertEquals(NEED_MORE, parser.feed("(a '"));
+        assertEquals(ERROR, parser.feed(")"));
+        assertEquals("wrong syntax, nothing to quote", parser.getError());
+        assertEquals(NEED_MORE, parser.feed("[a (b"));
+        assertEquals(ERROR, parser.feed("]"));
+        assertEquals("unexpected ']' in a list", parser.getError());
+        assertEquals(ERROR, parser.feed("]"));
+        assertEquals("unexpected ']' without matching '['", parser.getError());
+
+        //forms before the error can still be taken, the broken form is discarded
+        assertEquals(NEED_MORE, parser.feed("(a"));
+        assertEquals(ERROR, parser.feed("b) c (d 0.9)"));
+        assertEquals("unrecognized '0.9'", parser.getError());
+        assertEquals("(a b)", parser.nextForm().toString());
+        assertEquals("c", parser.nextForm().toString());
+        assertNull(parser.nextForm());
+        assertFalse(parser.isIncomplete());
+        assertEquals(EMPTY, parser.feed(""));
+        assertNull(parser.getError());
+    }
+}
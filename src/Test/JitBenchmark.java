@@ -0,0 +1,81 @@
+package Test;
+
+import main.FormStream;
+import main.JvmCompiler;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static main.Types.MyDataType;
+
+/**
+ * Compares interpreted functions with functions compiled to JVM classes by the {@link JvmCompiler}: fib, Gabriel's
+ * tak and eval. of Graham's interpreter (interpreter.txt). The functions are defined once with the compiler turned off
+ * and once with it turned on, so they are compiled while warming up. Run from the src directory or with the path to
+ * the interpreter source as argument.
+ */
+public class JitBenchmark {
+    static final int WARMUP_ROUNDS = 10, ROUNDS = 20;
+
+    static final String FUNCTIONS = """
+            (defun fib (n) (cond ((eq n 0) 0) ((eq n 1) 1) ('t (+ (fib (- n 1)) (fib (- n 2))))))
+            (defun tak (x y z)
+              (cond ((< y x) (tak (tak (- x 1) y z) (tak (- y 1) z x) (tak (- z 1) x y)))
+                    ('t z)))
+            """;
+
+    static final String[][] WORKLOADS = {
+            {"fib", "1", "(fib 20)"},
+            {"tak", "1", "(tak 18 12 6)"},
+            {"eval. subst", "200", """
+                    (eval. '((label subst (lambda (x y z)
+                                            (cond ((atom z) (cond ((eq z y) x) ('t z)))
+                                                  ('t (cons (subst x y (car z)) (subst x y (cdr z)))))))
+                             'm 'b '(a b (a b c) d))
+                           '())"""},
+    };
+
+    public static void main(String[] args) throws IOException, REPLErrors, ReaderErrors {
+        String interpreter = Files.readString(Path.of(args.length > 0 ? args[0] : "interpreter.txt"));
+        double[][] times = new double[2][];
+        for (int mode = 0; mode < 2; mode++) {
+            JvmCompiler.enabled = mode == 1;
+            load(interpreter);
+            load(FUNCTIONS);
+            times[mode] = run();
+        }
+        System.out.printf("%-12s %12s %12s%n", "", "interpreted", "compiled");
+        for (int i = 0; i < WORKLOADS.length; i++)
+            System.out.printf("%-12s %9.2f ms %9.2f ms  %5.1fx%n", WORKLOADS[i][0], times[0][i], times[1][i],
+                    times[0][i] / times[1][i]);
+    }
+
+    static void load(String source) throws REPLErrors, ReaderErrors {
+        FormStream forms = new FormStream(CharBuffer.wrap(source));
+        for (MyDataType form; (form = forms.nextForm()) != null; )
+            REPL.eval(form, REPL.globalEnv);
+    }
+
+    /**
+     * @return average time of a round per workload in ms
+     */
+    static double[] run() throws REPLErrors, ReaderErrors {
+        double[] times = new double[WORKLOADS.length];
+        for (int w = 0; w < WORKLOADS.length; w++) {
+            MyDataType form = REPL.read(WORKLOADS[w][2]);
+            int repetitions = Integer.parseInt(WORKLOADS[w][1]);
+            for (int i = 0; i < WARMUP_ROUNDS; i++)
+                GrahamBenchmark.round(form, repetitions);
+            long total = 0;
+            for (int i = 0; i < ROUNDS; i++)
+                total += GrahamBenchmark.round(form, repetitions);
+            times[w] = total / 1e6 / ROUNDS;
+        }
+        return times;
+    }
+}
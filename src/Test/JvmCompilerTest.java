@@ -0,0 +1,141 @@
+package Test;
+
+import main.Core;
+import main.JvmCompiler;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+import main.Tiers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static main.REPLErrors.ApplyError;
+import static main.REPLErrors.SyntaxError;
+import static main.Types.MyFunction;
+import static org.junit.Assert.*;
+
+public class JvmCompilerTest {
+    private boolean enabled, background;
+    private int threshold;
+
+    @Before
+    public void compile() {
+        enabled = JvmCompiler.enabled;
+        background = Tiers.background;
+        threshold = Tiers.jitThreshold;
+        JvmCompiler.enabled = true;
+        Tiers.background = false;
+    }
+
+    @After
+    public void restore() {
+        JvmCompiler.enabled = enabled;
+        Tiers.background = background;
+        Tiers.jitThreshold = threshold;
+    }
+
+    static MyFunction function(String name) throws REPLErrors, ReaderErrors {
+        return (MyFunction) REPL.eval(REPL.read(name), REPL.globalEnv);
+    }
+
+    static void compile(String name) throws REPLErrors, ReaderErrors {
+        assertTrue(name + " not compiled", JvmCompiler.compile(function(name)));
+    }
+
+    @Test
+    public void promotionTest() throws REPLErrors, ReaderErrors {
+        Tiers.jitThreshold = 3;
+        REPL.rep("(defun jit-hot (x) (cons x '(b)))");
+        assertEquals("(a b)", REPL.rep("(jit-hot 'a)"));
+        assertEquals("(a b)", REPL.rep("(jit-hot 'a)"));
+        assertFalse(JvmCompiler.isCompiled(function("jit-hot")));
+        assertEquals("(a b)", REPL.rep("(jit-hot 'a)"));
+        assertTrue(JvmCompiler.isCompiled(function("jit-hot")));
+        assertEquals("(c b)", REPL.rep("(jit-hot 'c)"));
+
+        //a redefined function starts interpreted again
+        REPL.rep("(defun jit-hot (x) (list x))");
+        assertFalse(JvmCompiler.isCompiled(function("jit-hot")));
+        assertEquals("(a)", REPL.rep("(jit-hot 'a)"));
+
+        //anonymous functions are never promoted
+        REPL.rep("(def! jit-anonymous (lambda (x) x))");
+        for (int i = 0; i < 5; i++)
+            REPL.rep("(jit-anonymous 1)");
+        assertFalse(JvmCompiler.isCompiled(function("jit-anonymous")));
+        assertFalse(JvmCompiler.compile(function("car")));
+    }
+
+    @Test
+    public void compiledFormsTest() throws REPLErrors, ReaderErrors {
+        REPL.rep("(defun jit-fib (n) (cond ((eq n 0) 0) ((eq n 1) 1) ('t (+ (jit-fib (- n 1)) (jit-fib (- n 2))))))");
+        compile("jit-fib");
+        assertEquals("6765", REPL.rep("(jit-fib 20)"));
+
+        //closures, let*, set! and def!
+        REPL.rep("(defun jit-adder (n) (lambda (x) (+ x n)))");
+        compile("jit-adder");
+        assertEquals("7", REPL.rep("((jit-adder 5) 2)"));
+        REPL.rep("(defun jit-let (x) (let* ((y (+ x 1)) (z (* y 2))) (begin (set! y z) (def! jit-global y) (list x y z))))");
+        compile("jit-let");
+        assertEquals("(1 4 4)", REPL.rep("(jit-let 1)"));
+        assertEquals("4", REPL.rep("jit-global"));
+        REPL.rep("(defun jit-many (a b c d e) (list e d c b a))");
+        compile("jit-many");
+        assertEquals("(5 4 3 2 1)", REPL.rep("(jit-many 1 2 3 4 5)"));
+
+        //the same errors as the interpreter
+        REPL.rep("(defun jit-unbound () (set! jit-nothing 1))");
+        compile("jit-unbound");
+        assertThrows(SyntaxError.class, () -> REPL.rep("(jit-unbound)"));
+        REPL.rep("(defun jit-missing (x) (jit-undefined x))");
+        compile("jit-missing");
+        SyntaxError missing = assertThrows(SyntaxError.class, () -> REPL.rep("(jit-missing 1)"));
+        assertEquals("Symbol jit-undefined not found in env", missing.getMessage());
+        REPL.rep("(defun jit-apply-atom (x) (x 1))");
+        compile("jit-apply-atom");
+        assertThrows(ApplyError.class, () -> REPL.rep("(jit-apply-atom 'a)"));
+        REPL.rep("(defun jit-arity () ((lambda (x) x) 1 2))");
+        compile("jit-arity");
+        assertThrows(SyntaxError.class, () -> REPL.rep("(jit-arity)"));
+
+        //bodies too large for a JIT compiled JVM method are compiled with fewer instructions per call
+        StringBuilder big = new StringBuilder("(defun jit-big (x) (cond");
+        for (int i = 0; i < 30; i++)
+            big.append(" ((eq x ").append(i).append(") (list x (+ x ").append(i).append(")))");
+        REPL.rep(big.append("))").toString());
+        compile("jit-big");
+        assertEquals("(29 58)", REPL.rep("(jit-big 29)"));
+    }
+
+    @Test
+    public void macroTest() throws REPLErrors, ReaderErrors {
+        Core.initMacros();
+        REPL.rep("(defmacro jit-twice (x) `(list ,x ,x))");
+        REPL.rep("(defun jit-macro (x) (if (eq x 0) 'zero (jit-twice x)))");
+        assertEquals("(1 1)", REPL.rep("(jit-macro 1)"));
+        compile("jit-macro");
+        assertEquals("zero", REPL.rep("(jit-macro 0)"));
+        assertEquals("(1 1)", REPL.rep("(jit-macro 1)"));
+
+        //the expansion compiled into the function isn't used after the macro is redefined
+        REPL.rep("(defmacro jit-twice (x) `(+ ,x ,x))");
+        assertEquals("2", REPL.rep("(jit-macro 1)"));
+    }
+
+    @Test
+    public void tailCallTest() throws Throwable {
+        Core.initMacros();
+        REPL.rep("(defun jit-count (n acc) (if (eq n 0) acc (jit-count (- n 1) (+ acc 1))))");
+        compile("jit-count");
+        assertEquals("100000", TailCallTest.repSmallStack("(jit-count 100000 0)"));
+
+        REPL.rep("(defun jit-even (n) (if (eq n 0) 't (jit-odd (- n 1))))");
+        REPL.rep("(defun jit-odd (n) (if (eq n 0) false (jit-even (- n 1))))");
+        compile("jit-even");
+        assertEquals("t", TailCallTest.repSmallStack("(jit-even 100000)"));
+        compile("jit-odd");
+        assertEquals("#false", TailCallTest.repSmallStack("(jit-even 100001)"));
+    }
+}
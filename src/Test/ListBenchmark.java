@@ -0,0 +1,49 @@
+package Test;
+
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+
+import static main.Types.MyDataType;
+
+/**
+ * Times recursive walks over lists of growing length: building a list with cons, counting it with cdr and appending
+ * it to another one. The time per element stays about the same when car, cdr and cons take constant time. Needs a
+ * large stack (-Xss16m) for the non tail recursive append.
+ */
+public class ListBenchmark {
+    static final int WARMUP_ROUNDS = 10, ROUNDS = 20;
+    static final int[] LENGTHS = {100, 1000, 5000};
+
+    static final String[] DEFINITIONS = {
+            "(defun lb-iota (n acc) (cond ((eq n 0) acc) ('t (lb-iota (- n 1) (cons n acc)))))",
+            "(defun lb-length (x n) (cond ((eq x '()) n) ('t (lb-length (cdr x) (+ n 1)))))",
+            "(defun lb-append (x y) (cond ((eq x '()) y) ('t (cons (car x) (lb-append (cdr x) y)))))",
+    };
+
+    public static void main(String[] args) throws REPLErrors, ReaderErrors {
+        for (String definition : DEFINITIONS)
+            REPL.rep(definition);
+        System.out.printf("%-8s %10s %10s %10s%n", "length", "cons", "cdr", "append");
+        for (int length : LENGTHS) {
+            REPL.rep("(def! lb-list (lb-iota " + length + " '()))");
+            System.out.printf("%-8d %10.2f %10.2f %10.2f  us%n", length,
+                    time("(lb-iota " + length + " '())"),
+                    time("(lb-length lb-list 0)"),
+                    time("(lb-append lb-list '(x y z))"));
+        }
+    }
+
+    /**
+     * @return average time of an evaluation of the expression after warming up, in microseconds
+     */
+    static double time(String expression) throws REPLErrors, ReaderErrors {
+        MyDataType form = REPL.read(expression);
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            REPL.eval(form, REPL.globalEnv);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            REPL.eval(form, REPL.globalEnv);
+        return (System.nanoTime() - start) / 1e3 / ROUNDS;
+    }
+}
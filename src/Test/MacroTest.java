@@ -1,12 +1,76 @@
 package Test;
 
 
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 public class MacroTest {
 
 
     @Test
     public void ExpandTests() {
     }
+
+    @Test
+    public void hygieneTest() throws REPLErrors, ReaderErrors {
+        REPL.rep("(defmacro swap! (a b) `(let* (tmp ,a) (begin (set! ,a ,b) (set! ,b tmp))))");
+        String body = REPL.rep("(debug swap!)");
+
+        //an argument named like the macro's own variable isn't captured by it
+        REPL.rep("(def! tmp 1)");
+        REPL.rep("(def! other 2)");
+        REPL.rep("(swap! tmp other)");
+        assertEquals("2", REPL.rep("tmp"));
+        assertEquals("1", REPL.rep("other"));
+        String expansion = REPL.rep("(macroexpand '(swap! tmp other))");
+        assertTrue(expansion, expansion.matches("\\(let\\* \\(tmp_\\d+ tmp\\) .*\\(set! other tmp_\\d+\\)\\)\\)"));
+        assertEquals("(let* (tmp x) (begin (set! x y) (set! y tmp)))", REPL.rep("(macroexpand '(swap! x y))"));
+
+        //names that would be regex metacharacters are just symbols
+        REPL.rep("(defmacro twice+ (x) `(let* (a+ ,x) (+ a+ a+)))");
+        REPL.rep("(def! a+ 5)");
+        assertEquals("10", REPL.rep("(twice+ a+)"));
+        assertEquals("6", REPL.rep("(twice+ (- a+ 2))"));
+
+        //expanding never changes the macro
+        assertEquals(body, REPL.rep("(debug swap!)"));
+    }
+
+    @Test
+    public void freeSymbolTest() throws REPLErrors, ReaderErrors {
+        //globals the expansion only refers to aren't renamed when an argument uses them too
+        REPL.rep("(defun helper (x) (+ x 2))");
+        REPL.rep("(defmacro call-helper (e) `(helper ,e))");
+        assertEquals("5", REPL.rep("(call-helper (helper 1))"));
+        assertEquals("(helper (helper 1))", REPL.rep("(macroexpand '(call-helper (helper 1)))"));
+        //names the expansion binds still are
+        REPL.rep("(defmacro helper-let (e) `(let* (helper (lambda (x) x)) (list (helper 1) ,e)))");
+        assertEquals("(1 3)", REPL.rep("(helper-let (helper 1))"));
+    }
+
+    @Test
+    public void dependencyTest() throws REPLErrors, ReaderErrors {
+        //a kept expansion is dropped when any macro used to make it is redefined, not only the macro of the call
+        REPL.rep("(defmacro dep-k () 1)");
+        REPL.rep("(defmacro dep-m () (list '+ (dep-k) 0))");
+        REPL.rep("(defun dep-f () (dep-m))");
+        assertEquals("1", REPL.rep("(dep-f)"));
+        REPL.rep("(defmacro dep-k () 2)");
+        assertEquals("2", REPL.rep("(dep-f)"));
+        assertEquals("(+ 2 0)", REPL.rep("(macroexpand '(dep-m))"));
+
+        //also through macros the macro body reuses the expansion of, and for macros defined after the call
+        REPL.rep("(defun dep-late () (dep-n))");
+        REPL.rep("(defmacro dep-j () (list 'dep-k))");
+        REPL.rep("(defmacro dep-n () (list '* (dep-j) 10))");
+        assertEquals("20", REPL.rep("(dep-late)"));
+        REPL.rep("(defmacro dep-k () 3)");
+        assertEquals("30", REPL.rep("(dep-late)"));
+        REPL.rep("(defmacro dep-j () 4)");
+        assertEquals("40", REPL.rep("(dep-late)"));
+    }
 }
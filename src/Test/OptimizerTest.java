@@ -0,0 +1,100 @@
+package Test;
+
+import main.Core;
+import main.Optimizer;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static main.REPLErrors.SyntaxError;
+import static main.Types.MyDataType;
+import static main.Types.SymbolType;
+import static org.junit.Assert.*;
+
+public class OptimizerTest {
+    private boolean enabled;
+
+    @Before
+    public void optimize() {
+        enabled = Optimizer.enabled;
+        Optimizer.enabled = true;
+    }
+
+    @After
+    public void restore() {
+        Optimizer.enabled = enabled;
+    }
+
+    @Test
+    public void foldingTest() throws REPLErrors, ReaderErrors {
+        assertEquals("5", REPL.rep("(optimize '(+ 2 3))"));
+        assertEquals("'(1 2)", REPL.rep("(optimize '(list 1 (+ 1 1)))"));
+        assertEquals("'a", REPL.rep("(optimize '(car (cdr '(b a))))"));
+        assertEquals("(+ x 5)", REPL.rep("(optimize '(+ x (* 1 5)))"));
+        //calls that fail and calls of other functions are left alone
+        assertEquals("(car 1)", REPL.rep("(optimize '(car 1))"));
+        assertEquals("(/ 1 0)", REPL.rep("(optimize '(/ 1 0))"));
+        assertEquals("(print 1)", REPL.rep("(optimize '(print 1))"));
+        assertThrows(SyntaxError.class, () -> REPL.rep("(car 1)"));
+        //local variables named like core functions
+        assertEquals("(lambda (car) (car 1))", REPL.rep("(optimize '(lambda (car) (car 1)))"));
+        assertEquals("2", REPL.rep("((lambda (car) (car 1)) (lambda (x) (+ x 1)))"));
+    }
+
+    @Test
+    public void vectorTest() throws REPLErrors, ReaderErrors {
+        //every call makes a new vector, also with constant arguments, so the calls aren't folded
+        REPL.rep("(defun opt-vector () (vector 1 2))");
+        assertEquals("#false", REPL.rep("(eq (opt-vector) (opt-vector))"));
+        REPL.rep("(defun opt-conj () (conj [1] 2))");
+        assertEquals("#false", REPL.rep("(eq (opt-conj) (opt-conj))"));
+        REPL.rep("(defun opt-assoc-nth () (assoc-nth [1] 0 2))");
+        assertEquals("#false", REPL.rep("(eq (opt-assoc-nth) (opt-assoc-nth))"));
+        assertEquals("(lambda () (vector 1 2))", REPL.rep("(optimize '(lambda () (vector 1 2)))"));
+        //reading from constant vectors is
+        assertEquals("(lambda () 2)", REPL.rep("(optimize '(lambda () (nth [1 2] 1)))"));
+        assertEquals("(lambda () 2)", REPL.rep("(optimize '(lambda () (count [1 2])))"));
+    }
+
+    @Test
+    public void condTest() throws REPLErrors, ReaderErrors {
+        Core.initMacros();
+        assertEquals("x", REPL.rep("(optimize '(cond ((eq 1 2) a) ('default x)))"));
+        assertEquals("(cond ((atom x) 3) ('default 'a))", REPL.rep("(optimize '(if (atom x) (+ 1 2) (car '(a b))))"));
+        assertEquals("(cond ((atom x) 1) ('t 2))", REPL.rep("(optimize '(cond ((atom x) 1) ('t 2) ((atom y) 3)))"));
+        assertEquals("'yes", REPL.rep("(optimize '(if (eq 1 1) 'yes 'no))"));
+        assertEquals("#nil", REPL.rep("(optimize '(cond (false 1) ((eq 1 2) 2)))"));
+        assertEquals("#nil", REPL.rep("(cond (false 1) ((eq 1 2) 2))"));
+        assertEquals("no", REPL.rep("(if (eq 1 2) 'yes 'no)"));
+    }
+
+    @Test
+    public void quasiquoteTest() throws REPLErrors, ReaderErrors {
+        assertEquals("'(a b (c))", REPL.rep("(optimize '`(a b (c)))"));
+        assertEquals("'a", REPL.rep("(optimize '`a)"));
+        assertEquals("(cons 'a (cons x '((c d))))", REPL.rep("(optimize '`(a ,x (c d)))"));
+        assertEquals("(a b (c))", REPL.rep("`(a b (c))"));
+        REPL.rep("(def! opt-x 1)");
+        assertEquals("(a 1 (c d))", REPL.rep("`(a ,opt-x (c d))"));
+    }
+
+    @Test
+    public void redefinedTest() throws REPLErrors, ReaderErrors {
+        SymbolType concat = SymbolType.intern("concat");
+        MyDataType core = REPL.globalEnv.get(concat);
+        try {
+            REPL.rep("(defun opt-joined () (concat '(1) '(2)))");
+            assertEquals("(1 2)", REPL.rep("(opt-joined)"));
+            //the folded call runs again once the core function is redefined
+            REPL.rep("(defun concat (a b) 'redefined)");
+            assertEquals("redefined", REPL.rep("(opt-joined)"));
+            assertEquals("(concat '(1) '(2))", REPL.rep("(optimize '(concat '(1) '(2)))"));
+        } finally {
+            REPL.globalEnv.put(concat, core);
+        }
+        assertEquals("(1 2)", REPL.rep("(opt-joined)"));
+    }
+}
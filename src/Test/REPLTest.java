@@ -1,6 +1,7 @@
 package Test;
 
 
+import main.Analyzer;
 import main.REPL;
 import main.REPLErrors;
 import main.ReaderErrors;
@@ -243,5 +244,96 @@ public class REPLTest {
 
     }
 
+    @Test
+    public void analysisTest() throws REPLErrors, ReaderErrors {
+        //malformed special forms are reported when the form is analyzed, even if they would never be evaluated
+        assertThrows(SyntaxError.class, () -> REPL.rep("(defun broken (x) (cond (x 1) ('default (let* (1 2) x))))"));
+        assertThrows(SyntaxError.class, () -> REPL.rep("broken"));
+        assertThrows(SyntaxError.class, () -> REPL.rep("(lambda (x 1) x)"));
+
+        //macros defined after the function using them
+        REPL.rep("(defun late-user (x) (twice x))");
+        REPL.rep("(defmacro twice (e) `(+ ,e ,e))");
+        assertEquals("6", REPL.rep("(late-user 3)"));
+        //and local variables shadowing a macro
+        assertEquals("(1)", REPL.rep("((lambda (twice) (twice 1)) list)"));
+        assertEquals("8", REPL.rep("(twice 4)"));
+    }
+
+    @Test
+    public void frameTest() throws REPLErrors, ReaderErrors {
+        //closures keep their frame, let* bindings inside functions share the frame of the call
+        REPL.rep("(defun adder (n) (let* ((m (+ n 1))) (lambda (x) (+ x (+ n m)))))");
+        REPL.rep("(def! add5 (adder 2))");
+        assertEquals("15", REPL.rep("(add5 10)"));
+        assertEquals("3", REPL.rep("((adder 0) 2)"));
+        assertEquals("15", REPL.rep("(add5 10)"));
+
+        //bindings refer to the previous ones, a binding's own name refers to the variable further out
+        REPL.rep("(def! y 10)");
+        assertEquals("12", REPL.rep("(let* ((y (+ y 1)) (y (+ y 1))) y)"));
+        assertEquals("(1 10)", REPL.rep("((lambda (y) (list y (let* ((z y)) (let* ((y 10)) y)))) 1)"));
+        assertEquals("10", REPL.rep("y"));
+
+        //a missing argument of a defun falls back to the global variable like before
+        REPL.rep("(defun get-y (y) y)");
+        assertEquals("10", REPL.rep("(get-y)"));
+        assertEquals("3", REPL.rep("(get-y 3)"));
+
+        //set! on parameters, let* variables and globals
+        REPL.rep("(defun counter (c) (let* ((step 2)) (lambda () (begin (set! step (+ step 1)) (set! c (+ c step))))))");
+        REPL.rep("(def! count-up (counter 0))");
+        assertEquals("3", REPL.rep("(count-up)"));
+        assertEquals("7", REPL.rep("(count-up)"));
+        assertEquals("11", REPL.rep("((lambda (x) (set! y (+ x 1))) 10)"));
+        assertEquals("11", REPL.rep("y"));
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void redefinitionTest() throws REPLErrors, ReaderErrors {
+        //call sites see functions and macros rebound after they were called
+        REPL.rep("(defun callee (x) (+ x 1))");
+        REPL.rep("(defun caller (x) (callee x))");
+        assertEquals("2", REPL.rep("(caller 1)"));
+        REPL.rep("(defun callee (x) (+ x 10))");
+        assertEquals("11", REPL.rep("(caller 1)"));
+        REPL.rep("(set! callee (lambda (x) (list x)))");
+        assertEquals("(1)", REPL.rep("(caller 1)"));
+        REPL.rep("(def! callee car)");
+        assertEquals("a", REPL.rep("(caller '(a b))"));
+        REPL.rep("(defmacro callee (x) `(quote ,x))");
+        assertEquals("x", REPL.rep("(caller 1)"));
+
+        REPL.rep("(defmacro m (x) `(+ ,x 1))");
+        REPL.rep("(defun use-m (x) (m x))");
+        assertEquals("2", REPL.rep("(use-m 1)"));
+        REPL.rep("(defmacro m (x) `(+ ,x 100))");
+        assertEquals("101", REPL.rep("(use-m 1)"));
+        REPL.rep("(defun m (x) (list x))");
+        assertEquals("(1)", REPL.rep("(use-m 1)"));
+    }
+
+    @Test
+    public void expansionCacheTest() throws REPLErrors, ReaderErrors {
+        //every call site expands a macro once and keeps the expansion until the macro is redefined
+        REPL.rep("(defmacro twice (x) `(+ ,x ,x))");
+        REPL.rep("(defun use-twice (x) (twice x))");
+        Analyzer.resetExpansionStats();
+        assertEquals("2", REPL.rep("(use-twice 1)"));
+        assertEquals("4", REPL.rep("(use-twice 2)"));
+        assertEquals("6", REPL.rep("(use-twice 3)"));
+        assertEquals("((hits 2) (misses 1) (invalidations 0))", REPL.rep("(macroexpand-stats)"));
+
+        REPL.rep("(defmacro twice (x) `(list ,x ,x))");
+        assertEquals("(1 1)", REPL.rep("(use-twice 1)"));
+        assertEquals("(2 2)", REPL.rep("(use-twice 2)"));
+        long[] stats = Analyzer.expansionStats();
+        assertEquals(1, stats[2]);
+        assertEquals(2, stats[1]);
+
+        //defining an unrelated macro keeps the expansion
+        REPL.rep("(defmacro unrelated (x) x)");
+        assertEquals("(3 3)", REPL.rep("(use-twice 3)"));
+        assertEquals(1, Analyzer.expansionStats()[2]);
+    }
+}
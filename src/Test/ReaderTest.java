@@ -1,11 +1,18 @@
 package Test;
 
+import main.FormStream;
 import main.REPLErrors;
 import main.Reader;
 import main.ReaderErrors;
+import main.SourceMap;
 import org.junit.Test;
 
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 
 import static main.REPLErrors.SyntaxError;
 import static main.Types.*;
@@ -27,6 +34,19 @@ public class ReaderTest {
             out = Reader.tokenize("\"first\"\"second \\\"double quotes \\\"\\\"\\\"");
             assertArrayEquals(out.toArray(new String[0]), new String[]{"\"first\"", "\"second \\\"double quotes \\\"\\\"\\\""});
 
+            //comments end the input, unless they are the first token
+            out = Reader.tokenize("(a ,b;c d)\n e");
+            assertArrayEquals(new String[]{"(", "a", ",", "b"}, out.toArray(new String[0]));
+            assertThrows(ReaderErrors.CommentError.class, () -> Reader.tokenize("  ; (a b)"));
+
+            //commas and @ only have special meaning at the start of a token
+            out = Reader.tokenize("a,b @c ,@`d");
+            assertArrayEquals(new String[]{"a,b", "@c", ",@", "`", "d"}, out.toArray(new String[0]));
+
+            //escaped quotes and whitespace inside strings
+            out = Reader.tokenize("(print \"a \\\" ( b\")");
+            assertArrayEquals(new String[]{"(", "print", "\"a \\\" ( b\"", ")"}, out.toArray(new String[0]));
+
             //expect syntax error to bw thrown since no closing quotes
             assertThrows("missing closing quote or empty quotes/string", SyntaxError.class, () -> Reader.tokenize("\"first\"\"second \\\"double quotes \\\"\\\"\\\" ,,, \"\"open"));
 
@@ -146,8 +166,15 @@ public class ReaderTest {
             result = Reader.read_str(" asd  ");
             assertTrue(new SymbolType("asd").equals(result));
 
-            result = Reader.read_str("[");
-            assertTrue(new SymbolType("[").equals(result));
+            //square brackets are vector literals
+            assertThrows(REPLErrors.class, () -> Reader.read_str("["));
+            assertThrows(SyntaxError.class, () -> Reader.read_str("(a]"));
+            assertThrows(SyntaxError.class, () -> Reader.read_str("[a)"));
+            result = Reader.read_str("[1 (a b) [] [c]]");
+            assertTrue(result instanceof VectorType);
+            assertEquals("[1 (a b) [] [c]]", result.toString());
+            assertEquals("'[a b]", Reader.read_str("'[a b]").toString());
+            assertEquals("[1 [c]]", Reader.read_str("[1[c]]").toString());
 
             result = Reader.read_str("{");
             assertTrue(new SymbolType("{").equals(result));
@@ -193,4 +220,100 @@ public class ReaderTest {
             syntaxError.printStackTrace();
         }
     }
+
+    @Test
+    public void formStreamTest() throws REPLErrors, ReaderErrors {
+        //multiple forms on one line, forms spanning lines and comments at any position
+        FormStream forms = new FormStream(new StringReader("""
+                ; header comment
+                (def! a 1) (def! b ; trailing comment
+                  "str;ing") 'c
+                42
+                """));
+        assertEquals("(def! a 1)", forms.nextForm().toString());
+        assertEquals("(def! b \"str;ing\")", forms.nextForm().toString());
+        assertEquals("'c", forms.nextForm().toString());
+        assertTrue(new IntegerType(42).equals(forms.nextForm()));
+        assertNull(forms.nextForm());
+
+        //reading continues with the next form after an error
+        forms = new FormStream(CharBuffer.wrap("(a 0.9 (b) c) ) d (e"));
+        assertThrows(ReaderErrors.ParseError.class, forms::nextForm);
+        forms.skipForm();
+        assertThrows(SyntaxError.class, forms::nextForm);
+        assertEquals("d", forms.nextForm().toString());
+        assertThrows(ReaderErrors.ParenMismatchError.class, forms::nextForm);
+        forms.skipForm();
+        assertNull(forms.nextForm());
+    }
+
+    @Test
+    public void splitTest() throws REPLErrors, ReaderErrors {
+        //chunks only end between top level forms, outside of strings, comments and quotes
+        String source = """
+                (def! a
+                  "multi
+                line ; string")
+                ; comment (
+                '
+                (b c)
+                `(d ,@e) f
+                (g "\\"
+                ")
+                """;
+        ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+        List<FormStream.Chunk> chunks = FormStream.split(bytes, 1);
+        assertEquals(5, chunks.size());
+        assertArrayEquals(new int[]{1, 4, 5, 7, 8}, chunks.stream().mapToInt(FormStream.Chunk::line).toArray());
+        StringBuilder whole = new StringBuilder(), chunked = new StringBuilder();
+        FormStream forms = new FormStream(CharBuffer.wrap(source));
+        for (MyDataType form; (form = forms.nextForm()) != null; )
+            whole.append(form).append(' ');
+        for (FormStream.Chunk chunk : chunks) {
+            forms = new FormStream(StandardCharsets.UTF_8.decode(chunk.bytes()));
+            for (MyDataType form; (form = forms.nextForm()) != null; )
+                chunked.append(form).append(' ');
+        }
+        assertEquals(whole.toString(), chunked.toString());
+        assertEquals(1, FormStream.split(bytes, source.length()).size());
+    }
+
+    @Test
+    public void positionsTest() throws REPLErrors, ReaderErrors {
+        String source = """
+                (a "(
+                ;(" (b)
+                   (c ; )
+                   ()))
+                '(d)""";
+        int file = SourceMap.fileId("positions.lisp");
+        FormStream forms = new FormStream(CharBuffer.wrap(source), file, 10);
+        ListType a = (ListType) forms.nextForm();
+        ListType quoted = (ListType) forms.nextForm();
+        assertNull(forms.nextForm());
+        ListType b = (ListType) a.get(2), c = (ListType) a.get(3);
+        SourceMap.addAll(forms.positions());
+        assertEquals("positions.lisp:10:1", SourceMap.describe(a));
+        assertEquals("positions.lisp:11:5", SourceMap.describe(b));
+        assertEquals("positions.lisp:12:4", SourceMap.describe(c));
+        assertEquals("positions.lisp:13:4", SourceMap.describe(c.get(1)));
+        assertEquals("positions.lisp:14:2", SourceMap.describe(quoted.get(1)));
+        assertNull(SourceMap.describe(quoted));//the quote list is added by the reader
+        assertEquals(file, SourceMap.file(SourceMap.get(a)));
+        assertEquals(-1, SourceMap.get(new ListType()));
+    }
+
+    @Test
+    public void internTest() throws REPLErrors, ReaderErrors {
+        //the reader returns the canonical symbol for every occurrence of a name
+        ListType list = (ListType) Reader.read_str("(car car 'car)");
+        assertSame(list.get(0), list.get(1));
+        assertSame(list.get(0), ((ListType) list.get(2)).get(1));
+        assertSame(SymbolType.intern("car"), list.get(0));
+        //symbols created directly still compare by name
+        assertTrue(new SymbolType("car").equals(list.get(0)));
+        assertTrue(list.get(0).equals(new SymbolType("car")));
+        assertSame(list.get(0), new SymbolType("car").canonical());
+        assertFalse(SymbolType.intern("cdr").equals(list.get(0)));
+    }
 }
@@ -0,0 +1,92 @@
+package Test;
+
+import main.FormStream;
+import main.REPLErrors;
+import main.ReaderErrors;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static main.Types.*;
+
+/**
+ * Compares the heap used by the ASTs of Graham's interpreter (the functions tested in GrahamTests) when symbols are
+ * interned against one symbol object per occurrence, which is what the reader allocated before. The source is read
+ * many times over to get measurable numbers, run with the path to the interpreter source as optional argument.
+ */
+public class SymbolMemoryBenchmark {
+    static final int COPIES = 5000;
+
+    public static void main(String[] args) throws IOException, REPLErrors, ReaderErrors {
+        String source = Files.readString(Path.of(args.length > 0 ? args[0] : "interpreter.txt"));
+
+        long before = usedHeap();
+        List<MyDataType> interned = new ArrayList<>();
+        for (int i = 0; i < COPIES; i++) {
+            FormStream forms = new FormStream(CharBuffer.wrap(source));
+            for (MyDataType form; (form = forms.nextForm()) != null; )
+                interned.add(form);
+        }
+        long internedBytes = usedHeap() - before;
+
+        Set<MyDataType> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        int occurrences = 0;
+        for (MyDataType form : interned)
+            occurrences += countSymbols(form, distinct);
+
+        before = usedHeap();
+        List<MyDataType> copied = new ArrayList<>();
+        for (MyDataType form : interned)
+            copied.add(copyWithFreshSymbols(form));
+        long perOccurrenceBytes = usedHeap() - before;
+
+        System.out.printf("%d copies of %s: %d symbol occurrences, %d distinct symbol objects%n",
+                COPIES, args.length > 0 ? args[0] : "interpreter.txt", occurrences, distinct.size());
+        System.out.printf("symbol per occurrence: %.1f MB%n", perOccurrenceBytes / 1e6);
+        System.out.printf("interned symbols:      %.1f MB (%.0f%% less)%n",
+                internedBytes / 1e6, 100.0 * (perOccurrenceBytes - internedBytes) / perOccurrenceBytes);
+        System.out.println("(" + copied.size() + " forms kept alive in both versions)");
+    }
+
+    static int countSymbols(MyDataType ast, Set<MyDataType> distinct) {
+        if (ast instanceof SymbolType) {
+            distinct.add(ast);
+            return 1;
+        }
+        int count = 0;
+        if (ast instanceof ListType list)
+            for (MyDataType element : list.getValue())
+                count += countSymbols(element, distinct);
+        return count;
+    }
+
+    /**
+     * Copies the lists and gives every symbol occurrence its own symbol object and name, like the reader did before
+     * symbols were interned. Other atoms are shared with the original.
+     */
+    static MyDataType copyWithFreshSymbols(MyDataType ast) {
+        if (ast instanceof SymbolType symbol)
+            return new SymbolType(new String(symbol.getValue().toCharArray()));
+        if (ast instanceof ListType list) {
+            ArrayList<MyDataType> elements = new ArrayList<>();
+            for (MyDataType element : list.getValue())
+                elements.add(copyWithFreshSymbols(element));
+            return new ListType(elements);
+        }
+        return ast;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
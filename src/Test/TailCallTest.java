@@ -0,0 +1,79 @@
+package Test;
+
+import main.Core;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tail calls run in constant stack. The loops run a million times on a thread with a small stack, which would overflow
+ * after a few thousand nested calls.
+ */
+public class TailCallTest {
+    static final long STACK_SIZE = 256 * 1024;
+
+    /**
+     * Evaluates the input on a thread with a small stack.
+     */
+    static String repSmallStack(String input) throws Throwable {
+        String[] result = new String[1];
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = REPL.rep(input);
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        }, "small stack", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (error[0] != null)
+            throw error[0];
+        return result[0];
+    }
+
+    @Test
+    public void selfRecursionTest() throws Throwable {
+        REPL.rep("(defun count-down (n acc) (cond ((eq n 0) acc) ('t (count-down (- n 1) (+ acc 1)))))");
+        assertEquals("1000000", repSmallStack("(count-down 1000000 0)"));
+
+        //tail positions inside of begin and let*
+        REPL.rep("""
+                (defun count-let (n acc)
+                    (let* ((m (- n 1)))
+                        (cond ((eq n 0) acc)
+                              ('t (begin (+ 1 1) (count-let m (+ acc 2)))))))
+                """);
+        assertEquals("2000000", repSmallStack("(count-let 1000000 0)"));
+
+        //lambdas calling themselves through a global
+        REPL.rep("(def! count-lambda (lambda (n) (cond ((eq n 0) 'done) ('t (count-lambda (- n 1))))))");
+        assertEquals("done", repSmallStack("(count-lambda 1000000)"));
+    }
+
+    @Test
+    public void mutualRecursionTest() throws Throwable {
+        REPL.rep("(defun even? (n) (cond ((eq n 0) true) ('t (odd? (- n 1)))))");
+        REPL.rep("(defun odd? (n) (cond ((eq n 0) false) ('t (even? (- n 1)))))");
+        assertEquals("#true", repSmallStack("(even? 1000000)"));
+        assertEquals("#true", repSmallStack("(odd? 999999)"));
+    }
+
+    @Test
+    public void macroTailTest() throws Throwable {
+        Core.initMacros();
+        REPL.rep("(defun count-if (n) (if (eq n 0) 'done (count-if (- n 1))))");
+        assertEquals("done", repSmallStack("(count-if 1000000)"));
+    }
+
+    @Test
+    public void nonTailTest() throws REPLErrors, ReaderErrors {
+        //calls that aren't in tail position still return to their caller
+        REPL.rep("(defun sum-to (n) (cond ((eq n 0) 0) ('t (+ n (sum-to (- n 1))))))");
+        assertEquals("5050", REPL.rep("(sum-to 100)"));
+        assertThrows(StackOverflowError.class, () -> repSmallStack("(sum-to 1000000)"));
+    }
+}
@@ -0,0 +1,86 @@
+package Test;
+
+import main.BytecodeCompiler;
+import main.Core;
+import main.JvmCompiler;
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+import main.Tiers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static main.REPLErrors.SyntaxError;
+import static org.junit.Assert.*;
+
+public class TiersTest {
+    private boolean enabled, compile;
+    private int vmThreshold, jitThreshold, backEdgeThreshold;
+
+    @Before
+    public void thresholds() {
+        enabled = JvmCompiler.enabled;
+        compile = BytecodeCompiler.enabled;
+        vmThreshold = Tiers.vmThreshold;
+        jitThreshold = Tiers.jitThreshold;
+        backEdgeThreshold = Tiers.backEdgeThreshold;
+        JvmCompiler.enabled = true;
+        BytecodeCompiler.enabled = false;//functions start in the tree walker
+    }
+
+    @After
+    public void restore() {
+        JvmCompiler.enabled = enabled;
+        BytecodeCompiler.enabled = compile;
+        Tiers.vmThreshold = vmThreshold;
+        Tiers.jitThreshold = jitThreshold;
+        Tiers.backEdgeThreshold = backEdgeThreshold;
+    }
+
+    @Test
+    public void promotionTest() throws REPLErrors, ReaderErrors, InterruptedException {
+        Tiers.vmThreshold = 2;
+        Tiers.jitThreshold = 4;
+        Tiers.backEdgeThreshold = 1000;
+        REPL.rep("(defun tier-pair (x) (cons x '(b)))");
+        assertEquals("((tier tree) (calls 0) (back-edges 0) (compiling #false))", REPL.rep("(tier-info tier-pair)"));
+        for (int i = 0; i < 2; i++)
+            assertEquals("(a b)", REPL.rep("(tier-pair 'a)"));
+        Tiers.awaitCompilations();
+        assertEquals("((tier bytecode) (calls 2) (back-edges 0) (compiling #false))", REPL.rep("(tier-info tier-pair)"));
+        for (int i = 0; i < 2; i++)
+            assertEquals("(a b)", REPL.rep("(tier-pair 'a)"));
+        Tiers.awaitCompilations();
+        assertEquals("((tier jvm) (calls 4) (back-edges 0) (compiling #false))", REPL.rep("(tier-info tier-pair)"));
+        assertEquals("(c b)", REPL.rep("(tier-pair 'c)"));
+
+        //without the JVM tier the function stays in the VM
+        JvmCompiler.enabled = false;
+        REPL.rep("(defun tier-pair (x) (cons x '(b)))");
+        for (int i = 0; i < 10; i++)
+            REPL.rep("(tier-pair 'a)");
+        Tiers.awaitCompilations();
+        assertTrue(REPL.rep("(tier-info tier-pair)").startsWith("((tier bytecode) (calls 10)"));
+
+        assertThrows(SyntaxError.class, () -> REPL.rep("(tier-info car)"));
+        assertThrows(SyntaxError.class, () -> REPL.rep("(tier-info)"));
+    }
+
+    @Test
+    public void backEdgeTest() throws REPLErrors, ReaderErrors, InterruptedException {
+        Core.initMacros();
+        Tiers.vmThreshold = 1000;
+        Tiers.jitThreshold = 1000;
+        Tiers.backEdgeThreshold = 100;
+        REPL.rep("(defun tier-loop (n acc) (if (eq n 0) acc (tier-loop (- n 1) (+ acc 1))))");
+        assertEquals("50", REPL.rep("(tier-loop 50 0)"));
+        assertEquals("((tier tree) (calls 1) (back-edges 50) (compiling #false))", REPL.rep("(tier-info tier-loop)"));
+
+        //a long loop is compiled while it runs, the rest of the iterations run in the compiled code
+        assertEquals("100000", REPL.rep("(tier-loop 100000 0)"));
+        Tiers.awaitCompilations();
+        String info = REPL.rep("(tier-info tier-loop)");
+        assertTrue(info, info.startsWith("((tier jvm) (calls 2) (back-edges "));
+    }
+}
@@ -0,0 +1,87 @@
+package Test;
+
+import main.REPLErrors;
+import main.REPLErrors.SyntaxError;
+import main.Reader;
+import main.ReaderErrors.CommentError;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput benchmark comparing the hand-written tokenizer in {@link Reader#tokenize(String)} with the regex based
+ * tokenizer it replaced. Run with the path of a lisp file as optional argument, defaults to the source of Graham's
+ * eval. (comment lines are stripped since the tokenizer stops at the first comment).
+ */
+public class TokenizerBenchmark {
+
+    /**
+     * The regex tokenizer as it was before, kept here for comparison.
+     */
+    static ArrayList<String> legacyTokenize(String input) throws REPLErrors {
+        Pattern pattern = Pattern.compile("[\\s]*(,@|[()'`,]|\"(?:[\\\\].|[^\\\\\"])*\"?|;.*|[^\\s ()'`\";]*)");
+        Matcher m = pattern.matcher(input);
+        String token;
+        ArrayList<String> tokens = new ArrayList<>();
+        while (m.find()) {
+            token = m.group(1);
+            if (token != null && !token.isEmpty() && !token.isBlank()) {
+                if (token.startsWith(";"))
+                    if (tokens.size() == 0)
+                        throw new CommentError("comment at start of line");
+                    else
+                        break;
+                if (token.startsWith("\"") && (!token.endsWith("\"") || token.length() < 3))
+                    throw new SyntaxError("missing closing quote or empty quotes/string");
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    public static void main(String[] args) throws REPLErrors, IOException {
+        String path = args.length > 0 ? args[0] : "interpreter.txt";
+        StringBuilder source = new StringBuilder();
+        for (String line : Files.readAllLines(Path.of(path))) {
+            int comment = line.indexOf(';');
+            source.append(comment < 0 ? line : line.substring(0, comment)).append('\n');
+        }
+        //blow the source up to roughly 4MB, the size of the generated files we load
+        StringBuilder big = new StringBuilder();
+        while (big.length() < 4_000_000)
+            big.append(source);
+        String input = big.toString();
+
+        ArrayList<String> expected = legacyTokenize(input);
+        ArrayList<String> actual = Reader.tokenize(input);
+        if (!expected.equals(actual))
+            throw new AssertionError("tokenizers disagree");
+        System.out.println(input.length() + " chars, " + actual.size() + " tokens");
+
+        for (int round = 0; round < 5; round++) {
+            long regex = time(() -> legacyTokenize(input));
+            long single = time(() -> Reader.tokenize(input));
+            System.out.printf("round %d: regex %6.1f ms (%6.1f MB/s)   single pass %6.1f ms (%6.1f MB/s)   speedup %.1fx%n",
+                    round, regex / 1e6, mbPerSecond(input, regex), single / 1e6, mbPerSecond(input, single),
+                    (double) regex / single);
+        }
+    }
+
+    interface Tokenizer {
+        ArrayList<String> run() throws REPLErrors;
+    }
+
+    static long time(Tokenizer tokenizer) throws REPLErrors {
+        long start = System.nanoTime();
+        tokenizer.run();
+        return System.nanoTime() - start;
+    }
+
+    static double mbPerSecond(String input, long nanos) {
+        return input.length() / (nanos / 1e9) / 1e6;
+    }
+}
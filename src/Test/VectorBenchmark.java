@@ -0,0 +1,37 @@
+package Test;
+
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+
+/**
+ * Times building lookup tables of growing size and summing every entry read by index: a list read by walking it with
+ * cdr, a vector built with conj and one built with conj! on a transient, both read with nth.
+ */
+public class VectorBenchmark {
+    static final int[] SIZES = {100, 1000, 10000};
+
+    static final String[] DEFINITIONS = {
+            "(defun vb-walk (x i) (cond ((eq i 0) (car x)) ('t (vb-walk (cdr x) (- i 1)))))",
+            "(defun vb-iota (n acc) (cond ((eq n 0) acc) ('t (vb-iota (- n 1) (cons (- n 1) acc)))))",
+            "(defun vb-conj (v n i) (cond ((eq i n) v) ('t (vb-conj (conj v i) n (+ i 1)))))",
+            "(defun vb-conj! (t n i) (cond ((eq i n) (persistent! t)) ('t (vb-conj! (conj! t i) n (+ i 1)))))",
+            "(defun vb-sum-list (x n i s) (cond ((eq i n) s) ('t (vb-sum-list x n (+ i 1) (+ s (vb-walk x i))))))",
+            "(defun vb-sum (v n i s) (cond ((eq i n) s) ('t (vb-sum v n (+ i 1) (+ s (nth v i))))))",
+    };
+
+    public static void main(String[] args) throws REPLErrors, ReaderErrors {
+        for (String definition : DEFINITIONS)
+            REPL.rep(definition);
+        System.out.printf("%-8s %12s %12s %12s %12s%n", "size", "conj", "conj!", "read list", "read vector");
+        for (int size : SIZES) {
+            REPL.rep("(def! vb-list (vb-iota " + size + " '()))");
+            REPL.rep("(def! vb-vector (vb-conj! (transient []) " + size + " 0))");
+            System.out.printf("%-8d %12.2f %12.2f %12.2f %12.2f  us%n", size,
+                    ListBenchmark.time("(vb-conj [] " + size + " 0)"),
+                    ListBenchmark.time("(vb-conj! (transient []) " + size + " 0)"),
+                    size <= 1000 ? ListBenchmark.time("(vb-sum-list vb-list " + size + " 0 0)") : Double.NaN,
+                    ListBenchmark.time("(vb-sum vb-vector " + size + " 0 0)"));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package Test;
+
+import main.REPL;
+import main.REPLErrors;
+import main.ReaderErrors;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static main.Types.*;
+import static org.junit.Assert.*;
+
+public class VectorTest {
+
+    @Test
+    public void persistentTest() {
+        //enough elements for a tree of three levels below the tail
+        int size = 40000;
+        VectorType vector = VectorType.EMPTY;
+        List<MyDataType> expected = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            vector = vector.conj(IntegerType.valueOf(i));
+            expected.add(IntegerType.valueOf(i));
+        }
+        assertEquals(size, vector.size());
+        assertEquals(expected.toString(), vector.getValue().toString());
+        assertNull(vector.get(size));
+        assertNull(vector.get(-1));
+
+        //updates leave the vector they were made from unchanged
+        Random random = new Random(7);
+        VectorType updated = vector;
+        for (int n = 0; n < 1000; n++) {
+            int i = random.nextInt(size);
+            updated = updated.assocN(i, IntegerType.valueOf(-i));
+            expected.set(i, IntegerType.valueOf(-i));
+        }
+        assertEquals(expected.toString(), updated.getValue().toString());
+        for (int i = 0; i < size; i++)
+            assertEquals(i, ((IntegerType) vector.get(i)).longValue());
+        assertEquals(size + 1, updated.assocN(size, Nil).size());
+        assertThrows(IndexOutOfBoundsException.class, () -> VectorType.EMPTY.assocN(1, Nil));
+
+        //the transient shares the nodes of the vector it was made from and copies them before changing them
+        VectorType.Transient builder = vector.asTransient();
+        for (int i = 0; i < 5000; i++)
+            builder.conj(Nil);
+        VectorType built = builder.persistent();
+        assertEquals(size + 5000, built.size());
+        assertEquals(size - 1, ((IntegerType) built.get(size - 1)).longValue());
+        assertSame(Nil, built.get(size + 4999));
+        assertEquals(size, vector.size());
+        assertFalse(builder.isEditable());
+        assertThrows(IllegalStateException.class, () -> builder.conj(Nil));
+        assertEquals(built.toString(), VectorType.of(built.getValue()).toString());
+    }
+
+    @Test
+    public void builtinsTest() throws REPLErrors, ReaderErrors {
+        assertEquals("[1 (+ 1 1) x []]", REPL.rep("[1 (+ 1 1) x []]"));
+        assertEquals("[1 2 x]", REPL.rep("(vector 1 (+ 1 1) 'x)"));
+        assertEquals("[]", REPL.rep("(vector)"));
+        REPL.rep("(def! vec-table (vector 'a 'b 'c))");
+        assertEquals("b", REPL.rep("(nth vec-table 1)"));
+        assertEquals("c", REPL.rep("(nth '(a b c) 2)"));
+        assertEquals("[a x c]", REPL.rep("(assoc-nth vec-table 1 'x)"));
+        assertEquals("[a b c d]", REPL.rep("(assoc-nth vec-table 3 'd)"));
+        assertEquals("[a b c d e]", REPL.rep("(conj vec-table 'd 'e)"));
+        assertEquals("(e d a b c)", REPL.rep("(conj '(a b c) 'd 'e)"));
+        assertEquals("[a b c]", REPL.rep("vec-table"));
+        assertEquals("3", REPL.rep("(count vec-table)"));
+        assertEquals("0", REPL.rep("(count '())"));
+        assertEquals("[1 2 3]", REPL.rep("(persistent! (conj! (transient []) 1 2 3))"));
+        assertEquals("#true", REPL.rep("(eq [] (vector))"));
+        assertEquals("#false", REPL.rep("(eq [1] [1])"));
+        assertEquals("#true", REPL.rep("(atom [1])"));
+
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(nth vec-table 3)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(nth vec-table -1)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(nth vec-table 'a)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(assoc-nth vec-table 4 'x)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(conj 1 2)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(count 1)"));
+        REPL.rep("(def! vec-done (transient [1]))");
+        REPL.rep("(persistent! vec-done)");
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(conj! vec-done 2)"));
+        assertThrows(REPLErrors.SyntaxError.class, () -> REPL.rep("(persistent! vec-done)"));
+
+        //the names aren't reserved
+        assertEquals("2", REPL.rep("(let* ((count 2)) count)"));
+    }
+
+    @Test
+    public void tableTest() throws REPLErrors, ReaderErrors {
+        //a lookup table built in bulk and read by index from a function
+        REPL.rep("(defun vec-fill (t n i) (cond ((eq i n) (persistent! t))"
+                + " ('t (vec-fill (conj! t (* i i)) n (+ i 1)))))");
+        REPL.rep("(def! vec-squares (vec-fill (transient []) 5000 0))");
+        REPL.rep("(defun vec-square (i) (nth vec-squares i))");
+        assertEquals("5000", REPL.rep("(count vec-squares)"));
+        assertEquals("24990001", REPL.rep("(vec-square 4999)"));
+        assertEquals("[0 1 4]", REPL.rep("(vector (vec-square 0) (vec-square 1) (vec-square 2))"));
+        assertEquals("49", REPL.rep("(nth (assoc-nth vec-squares 4000 49) 4000)"));
+        assertEquals("16000000", REPL.rep("(vec-square 4000)"));
+        //literals in compiled functions are constants
+        REPL.rep("(defun vec-name (i) (nth [zero one two] i))");
+        assertEquals("(one two)", REPL.rep("(list (vec-name 1) (vec-name 2))"));
+    }
+}
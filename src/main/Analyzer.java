@@ -0,0 +1,1407 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static main.REPLErrors.ApplyError;
+import static main.REPLErrors.SyntaxError;
+import static main.Types.*;
+
+/**
+ * Turns forms into trees of executable {@link Node}s. Special forms are recognized and their syntax is checked once
+ * during analysis, executing the tree then only does the work that depends on the values, e.g. a loop body that runs
+ * a million times is analyzed once instead of re-dispatching on its special forms on every iteration.
+ * <p>
+ * Macro calls are expanded when they are first executed, since the macro can be defined after the form using it was
+ * analyzed. Every call site keeps its analyzed expansion and reuses it until a macro used to make it is redefined.
+ */
+public class Analyzer {
+    //counters of the macro expansions kept by the call sites, see (macroexpand-stats)
+    private static long expansionHits = 0, expansionMisses = 0, expansionInvalidations = 0;
+    private static final AtomicInteger gensyms = new AtomicInteger();
+
+    /**
+     * @return how often call sites reused their expansion, expanded the macro and dropped their expansion because
+     * the macro was redefined, in that order
+     */
+    public static long[] expansionStats() {
+        return new long[]{expansionHits, expansionMisses, expansionInvalidations};
+    }
+
+    public static void resetExpansionStats() {
+        expansionHits = expansionMisses = expansionInvalidations = 0;
+    }
+
+    /**
+     * Counts a reuse of the expansion. If a macro is being applied, its expansion depends on the macros this one was
+     * made with too.
+     */
+    static void countExpansionHit(Expansion expansion) {
+        expansionHits++;
+        expansion.used();
+    }
+
+    /**
+     * Applies the macro to the arguments of the call and analyzes the result. Every expansion reused or made while
+     * the macro runs, e.g. by macro calls in its body, is recorded, the new expansion is only valid as long as all of
+     * their macros are still bound.
+     *
+     * @param cell cell of the global naming the macro
+     */
+    static Expansion expandMacro(Environment.Cell cell, MyFunction macro, ListType form, Scope scope)
+            throws REPLErrors, ReaderErrors {
+        expansionMisses++;
+        Dependencies outer = Dependencies.current.get();
+        Dependencies dependencies = new Dependencies();
+        dependencies.add(cell, macro);
+        Dependencies.current.set(dependencies);
+        MyDataType expanded;
+        try {
+            expanded = macro.apply(form.rest());
+        } finally {
+            Dependencies.current.set(outer);
+        }
+        Expansion expansion = new Expansion(analyze(expanded, scope),
+                dependencies.cells.toArray(new Environment.Cell[0]), dependencies.macros.toArray(new MyDataType[0]));
+        expansion.used();
+        return expansion;
+    }
+
+    /**
+     * Analyzes the form into a node tree.
+     *
+     * @param form unevaluated AST
+     * @return node that evaluates the form when executed
+     * @throws SyntaxError if a special form in the form is malformed
+     */
+    public static Node analyze(MyDataType form) throws REPLErrors, ReaderErrors {
+        return analyze(form, null);
+    }
+
+    /**
+     * Analyzes the form in the scope of the local variables visible at its position.
+     *
+     * @param scope innermost scope, null at the top level
+     */
+    static Node analyze(MyDataType form, Scope scope) throws REPLErrors, ReaderErrors {
+        if (form instanceof SymbolType symbol)
+            return Scope.resolve(symbol, scope);
+        if (!(form instanceof ListType list) || list.size() == 0)
+            return new Constant(form);//self evaluating
+        if (list.get(0) instanceof SymbolType a0) {
+            if (Scope.resolve(a0, scope) instanceof GlobalRef head
+                    && head.cell.get() instanceof MyFunction function && function.isMacro())
+                return new MacroCall(list, scope, head);
+            if (REPL.isSpecialForm(a0))
+                return analyzeSpecialForm(a0, list, scope);
+        }
+        Call call = analyzeCall(list, scope);
+        Node folded = Optimizer.call(call);
+        return folded != call ? folded : Inliner.call(call, scope);
+    }
+
+    private static Node[] analyzeAll(List<MyDataType> forms, Scope scope) throws REPLErrors, ReaderErrors {
+        Node[] nodes = new Node[forms.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = analyze(forms.get(i), scope);
+        return nodes;
+    }
+
+    private static Call analyzeCall(ListType list, Scope scope) throws REPLErrors, ReaderErrors {
+        return new Call(list, scope, analyze(list.get(0), scope), analyzeAll(list.getValue().subList(1, list.size()), scope));
+    }
+
+    private static Node analyzeSpecialForm(SymbolType a0, ListType ast, Scope scope) throws REPLErrors, ReaderErrors {
+        return switch (a0.getValue()) {
+            case "def!" -> {
+                //define a variable in the global environment
+                //required form: (def! var1 form1 var2 form2...) where var must be a symbol and form must be a (valid) expression
+                if (ast.size() % 2 == 0)
+                    throw new SyntaxError("Expected form: (def! var1 form1 var2 form2...) where var must be a symbol and" +
+                            " form must be a (valid) expression");
+                SymbolType[] names = new SymbolType[ast.size() / 2];
+                Node[] values = new Node[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = assignable(ast.get(2 * i + 1));
+                    values[i] = analyze(ast.get(2 * i + 2), scope);
+                }
+                yield new Def(ast, names, values);
+            }
+            case "set!" -> {
+                //change the value of an existing variable
+                //required form: (set! var1 exp1) where var1 must be a symbol and exp1 can be any (valid) expression
+                if (ast.size() % 2 == 0)
+                    throw new SyntaxError("Expected form: (set! var1 form1 var2 form2...) where var must be a symbol and" +
+                            " form can be any (valid) expression");
+                Ref[] targets = new Ref[ast.size() / 2];
+                Node[] values = new Node[targets.length];
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = Scope.resolve(assignable(ast.get(2 * i + 1)), scope);
+                    values[i] = analyze(ast.get(2 * i + 2), scope);
+                }
+                yield new Set(ast, targets, values);
+            }
+            case "begin" -> {
+                //eval all args and return the last value
+                if (ast.size() == 1)
+                    yield new Constant(Nil);
+                yield new Begin(ast, analyzeAll(ast.getValue().subList(1, ast.size()), scope));
+            }
+            case "let*" -> {
+                //required form: (let* ((k1 v1)...(kn vn)) exp) or (let* (k v) exp)
+                // where k must be a symbol and v and exp can be any (valid) expression, must have at least 1 pair
+                MyDataType exp = ast.get(2);
+                if (!(ast.get(1) instanceof ListType bindingList) || exp == null)
+                    throw new SyntaxError("missing list of assignments");
+                List<MyDataType> bindings;
+                if (bindingList.size() == 2 && !(bindingList.get(0) instanceof ListType)) {
+                    //only one binding
+                    if (!(bindingList.get(0) instanceof SymbolType))
+                        throw new SyntaxError(bindingList.get(0).toString() + " not a symbol");
+                    bindings = List.of(bindingList);
+                } else
+                    bindings = bindingList.getValue();
+                //the bindings get slots in the frame of the enclosing function if it is still being analyzed,
+                //otherwise (top level, macro expansions at run time) the let* gets a frame of its own
+                boolean ownFrame = scope == null || scope.layout.complete;
+                Scope letScope = new Scope(scope, ownFrame ? new Layout() : scope.layout);
+                int[] slots = new int[bindings.size()];
+                Node[] values = new Node[slots.length];
+                for (int i = 0; i < slots.length; i++) {
+                    //the argument for the bindings is a "list of pairs"
+                    if (!(bindings.get(i) instanceof ListType binding) || binding.size() != 2)
+                        throw new SyntaxError("bindings must be a list, required form: (let* ((k1 v1)...(kn vn)) exp) or (let* (k v) exp)");
+                    if (!(binding.get(0) instanceof SymbolType))
+                        throw new SyntaxError("keys must be symbols, required form: (let* ((k1 v1)...(kn vn)) exp) or (let* (k v) exp)");
+                    SymbolType name = assignable(binding.get(0));
+                    values[i] = analyze(binding.get(1), letScope);//sees the previous bindings but not its own
+                    slots[i] = letScope.declare(name);
+                }
+                Node body = analyze(exp, letScope);
+                if (!ownFrame)
+                    yield new Let(ast, slots, values, body);
+                letScope.layout.complete = true;
+                yield new LetFrame(ast, slots, values, body, letScope.layout.size);
+            }
+            case "quote" -> {
+                //form: (quote exp)
+                //returns exp unevaluated
+                if (ast.size() != 2)
+                    throw new SyntaxError("expected 1 argument but got: " + (ast.size() - 1));
+                yield new Constant(ast.get(1));
+            }
+            case "quasiquote" -> {
+                if (ast.size() != 2)
+                    throw new SyntaxError("quasiquote requires 1 arg");
+                if (Optimizer.enabled && Optimizer.isConstantTemplate(ast.get(1)))
+                    yield new Constant(ast.get(1));
+                yield analyze(REPL.quasiquote(ast.get(1)), scope);
+            }
+            case "quasiquoteexpand" -> {
+                if (ast.size() != 2)
+                    throw new SyntaxError("quasiquoteexpand requires 1 arg");
+                yield new Constant(REPL.quasiquote(ast.get(1)));
+            }
+            case "cond" -> {
+                //form: (cond (c1 e1)...(cn en))
+                Node[] tests = new Node[ast.size() - 1], branches = new Node[ast.size() - 1];
+                for (int i = 0; i < tests.length; i++) {
+                    if (!(ast.get(i + 1) instanceof ListType pair))
+                        throw new SyntaxError("cond expects a list of pairs like: (cond (c1 e1)...(cn en))");
+                    if (pair.size() != 2)
+                        throw new SyntaxError("cond didnt get a pair of size 2, expected form: (cond (c1 e1)...(cn en))");
+                    tests[i] = analyze(pair.get(0), scope);
+                    branches[i] = analyze(pair.get(1), scope);
+                }
+                yield Optimizer.cond(new Cond(ast, tests, branches));
+            }
+            case "lambda" -> {
+                //form: (lambda (p1...pn) body)
+                if (!(ast.get(1) instanceof ListType params) || ast.get(2) == null)
+                    throw new SyntaxError("required form: (lambda (p1...pn) body)");
+                yield analyzeLambda(ast, "<lambda>", params, ast.get(2), scope, true);
+            }
+            case "defun" -> {
+                //create a function/lambda and add it to the global environment under the given name
+                //behaves like def! name (lambda (args) body)
+                if (ast.size() < 4)//not enough args
+                    throw new SyntaxError("missing arguments for defun. Syntax for defun:\n" +
+                            "(defun name (parameters...) function-body)");
+                if (!(ast.get(1) instanceof SymbolType name) || !(ast.get(2) instanceof ListType params))
+                    throw new SyntaxError("Syntax for defun:\n(defun name (parameters...) function-body)");
+                yield new Defun(analyzeLambda(ast, name.getValue(), params, ast.get(3), scope, false), name);
+            }
+            case "defmacro" -> {
+                //define a macro in the global environment
+                //required form: (defmacro name (args) body)
+                if (!(ast.get(1) instanceof SymbolType name))
+                    throw new SyntaxError("Expected form: (defmacro name (args) body) where name must be a symbol.");
+                if (!(ast.get(2) instanceof ListType params))
+                    throw new SyntaxError("expected a list of args, required form: (defmacro name (args) body)");
+                parameters(params, "Only symbols are viable parameters for macros");
+                yield new Defmacro(ast, name, params, ast.get(3), scope);
+            }
+            default -> throw new Error("internal error with special form analysis");
+        };
+    }
+
+    /**
+     * @return the symbol if it can be assigned to
+     * @throws SyntaxError if it isn't a symbol or is reserved
+     */
+    private static SymbolType assignable(MyDataType name) throws SyntaxError {
+        if (!(name instanceof SymbolType symbol))
+            throw new SyntaxError("variable name is not a symbol");
+        if (REPL.isReserved(symbol))
+            throw new SyntaxError("cannot change constant variable " + symbol);
+        return symbol;
+    }
+
+    private static ListType parameters(ListType params, String error) throws SyntaxError {
+        for (MyDataType parameter : params.getValue())
+            if (!(parameter instanceof SymbolType))
+                throw new SyntaxError(error);
+        return params;
+    }
+
+    /**
+     * Analyzes the body in a new scope holding the parameters. The parameters take the first slots of the frame, the
+     * let* bindings in the body the slots after them.
+     */
+    private static Lambda analyzeLambda(ListType ast, String name, ListType params, MyDataType bodyForm, Scope scope,
+                                        boolean checkArity) throws REPLErrors, ReaderErrors {
+        parameters(params, "Only symbols are viable parameters");
+        Scope inner = Scope.parameters(params, scope);
+        Node body = analyze(bodyForm, inner);
+        inner.layout.complete = true;
+        Lambda lambda = new Lambda(ast, name, params, inner.slots(params), bodyForm, body, checkArity, inner.layout.size);
+        if (BytecodeCompiler.enabled) {
+            lambda.code = BytecodeCompiler.compile(lambda);
+            lambda.requested = Tiers.BYTECODE;
+        }
+        return lambda;
+    }
+
+    /**
+     * Local variables visible at a position in the code, with the slot each one is stored in. Scopes are only used
+     * during analysis, variable references are resolved to their frame depth and slot so executing them doesn't need
+     * to look up any names. Names that aren't local are globals and looked up in the global environment.
+     */
+    static final class Scope {
+        final Scope outer;
+        final Layout layout;//frame the variables of this scope are stored in
+        final List<Lambda> inlined;//functions whose inlined bodies contain the scope, see Inliner
+        private final HashMap<SymbolType, Integer> slots = new HashMap<>();
+
+        Scope(Scope outer, Layout layout) {
+            this(outer, layout, outer == null ? List.of() : outer.inlined);
+        }
+
+        Scope(Scope outer, Layout layout, List<Lambda> inlined) {
+            this.outer = outer;
+            this.layout = layout;
+            this.inlined = inlined;
+        }
+
+        /**
+         * @return scope of a new frame holding the parameters
+         */
+        static Scope parameters(ListType params, Scope outer) {
+            Scope scope = new Scope(outer, new Layout());
+            for (MyDataType parameter : params.getValue())
+                scope.declare((SymbolType) parameter);
+            return scope;
+        }
+
+        /**
+         * Adds the variable to this scope, a name that was already declared in it keeps its slot.
+         *
+         * @return the slot of the variable in the frame
+         */
+        int declare(SymbolType name) {
+            return slots.computeIfAbsent(name.canonical(), n -> layout.size++);
+        }
+
+        /**
+         * @return the slot of each parameter, see {@link #parameters(ListType, Scope)}
+         */
+        int[] slots(ListType params) {
+            int[] result = new int[params.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = slots.get(((SymbolType) params.get(i)).canonical());
+            return result;
+        }
+
+        /**
+         * Finds the innermost declaration of the variable visible from the scope.
+         *
+         * @return reference to the local variable or global if there is no local declaration
+         */
+        static Ref resolve(SymbolType name, Scope scope) {
+            return resolve(name.canonical(), scope, 0);
+        }
+
+        private static Ref resolve(SymbolType name, Scope scope, int depth) {
+            for (; scope != null; scope = scope.outer) {
+                Integer slot = scope.slots.get(name);
+                int outerDepth = scope.outer != null && scope.outer.layout != scope.layout ? depth + 1 : depth;
+                if (slot != null)
+                    //a variable that is declared but holds no value, e.g. a missing argument, falls back to the
+                    //declaration further out like it did with environments
+                    return new LocalRef(name, depth, slot, resolve(name, scope.outer, outerDepth));
+                depth = outerDepth;
+            }
+            return new GlobalRef(name);
+        }
+    }
+
+    /**
+     * Slots of a frame, counted while the code using the frame is analyzed.
+     */
+    static final class Layout {
+        int size = 0;
+        boolean complete = false;//no more slots can be added once frames of this size are created
+    }
+
+    /**
+     * Local variables of a function call or let*, the slots are assigned during analysis, see {@link Scope}.
+     */
+    public static final class Frame {
+        final MyDataType[] slots;
+        final Frame outer;
+
+        Frame(MyDataType[] slots, Frame outer) {
+            this.slots = slots;
+            this.outer = outer;
+        }
+    }
+
+    /**
+     * Executable node of an analyzed form.
+     */
+    public static abstract class Node {
+        final MyDataType form;//the form this node was analyzed from
+
+        Node(MyDataType form) {
+            this.form = form;
+        }
+
+        /**
+         * Evaluates the form.
+         *
+         * @param frame local variables of the innermost function or let*, null at the top level
+         * @return value of the form
+         */
+        public abstract MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors;
+
+        /**
+         * Evaluates the form in tail position of a function body. A call of a closure isn't made but returned as
+         * {@link TailCall}, which the closure running the body makes after returning, so tail calls don't grow the
+         * stack.
+         *
+         * @return value of the form or a TailCall
+         */
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            return execute(frame);
+        }
+    }
+
+    /**
+     * Call of a closure in tail position, see {@link Node#executeTail(Frame)}. Never escapes {@link Closure#run(Frame)}.
+     */
+    static final class TailCall extends MyDataType {
+        final Closure closure;
+        final Frame frame;//frame holding the arguments
+
+        TailCall(Closure closure, Frame frame) {
+            this.closure = closure;
+            this.frame = frame;
+        }
+
+        @Override
+        public Object getValue() {
+            return closure;
+        }
+
+        @Override
+        public boolean equals(MyDataType other) {
+            return false;
+        }
+    }
+
+    /**
+     * Self evaluating and quoted forms.
+     */
+    static final class Constant extends Node {
+        Constant(MyDataType value) {
+            super(value);
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) {
+            return form;
+        }
+    }
+
+    /**
+     * Variable reference, also the target of set!.
+     */
+    static abstract class Ref extends Node {
+        final SymbolType name;
+
+        Ref(SymbolType name) {
+            super(name);
+            this.name = name;
+        }
+
+        @Override
+        public abstract MyDataType execute(Frame frame) throws SyntaxError;
+
+        /**
+         * @return true if the variable holds a value
+         */
+        abstract boolean isBound(Frame frame);
+
+        abstract void assign(Frame frame, MyDataType value);
+
+        SyntaxError notFound() {
+            return new SyntaxError("Symbol " + name.getValue() + " not found in env");
+        }
+    }
+
+    /**
+     * Variable stored in a slot of the frame depth levels out from the current one.
+     */
+    static final class LocalRef extends Ref {
+        final int depth, slot;
+        final Ref fallback;//declaration further out, used while the slot is empty
+
+        LocalRef(SymbolType name, int depth, int slot, Ref fallback) {
+            super(name);
+            this.depth = depth;
+            this.slot = slot;
+            this.fallback = fallback;
+        }
+
+        private MyDataType[] slots(Frame frame) {
+            for (int i = depth; i > 0; i--)
+                frame = frame.outer;
+            return frame.slots;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws SyntaxError {
+            MyDataType value = slots(frame)[slot];
+            return value != null ? value : fallback.execute(frame);
+        }
+
+        @Override
+        boolean isBound(Frame frame) {
+            return slots(frame)[slot] != null || fallback.isBound(frame);
+        }
+
+        @Override
+        void assign(Frame frame, MyDataType value) {
+            MyDataType[] slots = slots(frame);
+            if (slots[slot] != null)
+                slots[slot] = value;
+            else
+                fallback.assign(frame, value);
+        }
+    }
+
+    /**
+     * Variable in the global environment. The cell of the name is looked up once, so reading the variable is a field
+     * access and sees every rebinding by def!, set!, defun or defmacro.
+     */
+    static final class GlobalRef extends Ref {
+        final Environment.Cell cell;
+
+        GlobalRef(SymbolType name) {
+            super(name);
+            this.cell = REPL.globalEnv.cell(name);
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws SyntaxError {
+            MyDataType value = cell.get();
+            if (value == null)
+                throw notFound();
+            return value;
+        }
+
+        @Override
+        boolean isBound(Frame frame) {
+            return cell.get() != null;
+        }
+
+        @Override
+        void assign(Frame frame, MyDataType value) {
+            REPL.globalEnv.put(name, value);
+        }
+    }
+
+    /**
+     * Function call, evaluates the operator and the operands in order and applies the function to the values.
+     * <p>
+     * Every call site caches the last function it called and what kind of function it is. As long as the operator
+     * evaluates to the same function, e.g. a global function that wasn't redefined, the call is made without checking
+     * the type of the function again.
+     */
+    static final class Call extends Node {
+        private static final int CLOSURE = 0, MACRO = 1, BUILTIN = 2, NOT_A_FUNCTION = 3;
+
+        final Scope scope;//to analyze the expansion if the operator turns out to be a macro
+        final Node operator;
+        final Node[] operands;
+        private MyDataType target = null;//inline cache
+        private int kind;
+        private Expansion expansion = null;//if target is a macro
+
+        Call(ListType form, Scope scope, Node operator, Node[] operands) {
+            super(form);
+            this.scope = scope;
+            this.operator = operator;
+            this.operands = operands;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            return call(frame, false);
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            return call(frame, true);
+        }
+
+        private MyDataType call(Frame frame, boolean tail) throws REPLErrors, ReaderErrors {
+            try {
+                MyDataType first = operator.execute(frame);
+                if (first != target) {
+                    if (expansion != null) {
+                        expansionInvalidations++;
+                        expansion = null;
+                    }
+                    kind = kindOf(first);
+                    target = first;
+                }
+                switch (kind) {
+                    case CLOSURE -> {
+                        Closure closure = (Closure) first;
+                        Frame arguments = closure.bind(operands, frame);
+                        return tail ? new TailCall(closure, arguments) : closure.run(arguments);
+                    }
+                    case MACRO -> {
+                        //macro that wasn't defined yet when this form was analyzed
+                        if (expansion != null && !expansion.valid()) {
+                            expansionInvalidations++;
+                            expansion = null;
+                        }
+                        if (expansion == null)
+                            expansion = expandMacro(((GlobalRef) operator).cell, (MyFunction) first, (ListType) form,
+                                    scope);
+                        else
+                            countExpansionHit(expansion);
+                        Node node = expansion.node();
+                        return tail ? node.executeTail(frame) : node.execute(frame);
+                    }
+                }
+                if (kind != BUILTIN)
+                    throw new ApplyError("Function call failed, could not find a function called " + first.toString() + " to apply");
+                //apply the function to the arguments, without a list of them for up to three
+                MyFunction function = (MyFunction) first;
+                return switch (operands.length) {
+                    case 0 -> function.apply0();
+                    case 1 -> function.apply1(operands[0].execute(frame));
+                    case 2 -> function.apply2(operands[0].execute(frame), operands[1].execute(frame));
+                    case 3 -> function.apply3(operands[0].execute(frame), operands[1].execute(frame),
+                            operands[2].execute(frame));
+                    default -> {
+                        MyDataType[] args = new MyDataType[operands.length];
+                        for (int i = 0; i < args.length; i++)
+                            args[i] = operands[i].execute(frame);
+                        yield function.applyN(args);
+                    }
+                };
+            } catch (REPLErrors | ReaderErrors e) {
+                SourceMap.blame(e, form);//no-op unless the form was read from a file
+                throw e;
+            }
+        }
+
+        private int kindOf(MyDataType function) {
+            if (function instanceof Closure)
+                return CLOSURE;
+            if (function instanceof MyFunction f)
+                //macros are only expanded if named by a global, otherwise they are applied like other functions
+                return f.isMacro() && operator instanceof GlobalRef ? MACRO : BUILTIN;
+            return NOT_A_FUNCTION;
+        }
+    }
+
+    /**
+     * Call of a global macro. The macro is expanded the first time the call is executed, the analyzed expansion is
+     * kept and executed from then on. It is dropped and the call expanded again if the name or the name of a macro
+     * used while expanding it is rebound, e.g. by defmacro. Macro calls in the expansion are call sites of their own,
+     * with their own expansions.
+     */
+    static final class MacroCall extends Node {
+        final Scope scope;
+        final GlobalRef head;
+        Expansion expansion = null;//also read by the compiler thread, see Tiers
+        private Call call = null;//if the symbol no longer names a macro
+        private Node compiledFrom = null;//node the code was compiled from, see executeCompiled
+        private BytecodeCompiler.Code code = null;
+        private boolean compiledTail;
+
+        MacroCall(ListType form, Scope scope, GlobalRef head) {
+            super(form);
+            this.scope = scope;
+            this.head = head;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            return expand().execute(frame);
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            return expand().executeTail(frame);
+        }
+
+        /**
+         * Executes the call from compiled code. The expansion is compiled the first time and compiled again if the
+         * call is expanded again.
+         *
+         * @param tail true if the call is in tail position
+         */
+        MyDataType executeCompiled(Frame frame, boolean tail) throws REPLErrors, ReaderErrors {
+            Node node = expand();
+            if (node != compiledFrom || tail != compiledTail) {
+                code = BytecodeCompiler.compile(head.name.getValue(), node, tail);
+                compiledFrom = node;
+                compiledTail = tail;
+            }
+            if (code == null)
+                return tail ? node.executeTail(frame) : node.execute(frame);
+            return VM.execute(code, frame);
+        }
+
+        Node expand() throws REPLErrors, ReaderErrors {
+            try {
+                Expansion expansion = this.expansion;
+                if (expansion != null) {
+                    if (expansion.valid()) {
+                        countExpansionHit(expansion);
+                        return expansion.node();
+                    }
+                    expansionInvalidations++;
+                    this.expansion = null;
+                }
+                if (head.cell.get() instanceof MyFunction macro && macro.isMacro()) {
+                    expansion = expandMacro(head.cell, macro, (ListType) form, scope);
+                    this.expansion = expansion;
+                    return expansion.node();
+                }
+                if (call == null)
+                    call = analyzeCall((ListType) form, scope);
+                return call;
+            } catch (REPLErrors | ReaderErrors e) {
+                SourceMap.blame(e, form);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Node rewritten by the {@link Optimizer}, valid as long as the cells hold the values they held during analysis.
+     * Runs the original node once one of them changed.
+     */
+    static final class Guarded extends Node {
+        final Node original, optimized;
+        final Environment.Cell[] cells;
+        final MyDataType[] values;
+
+        Guarded(Node original, Node optimized, Environment.Cell[] cells, MyDataType[] values) {
+            super(original.form);
+            this.original = original;
+            this.optimized = optimized;
+            this.cells = cells;
+            this.values = values;
+        }
+
+        private boolean valid() {
+            for (int i = 0; i < cells.length; i++)
+                if (cells[i].get() != values[i])
+                    return false;
+            return true;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            return valid() ? optimized.execute(frame) : original.execute(frame);
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            return valid() ? optimized.executeTail(frame) : original.executeTail(frame);
+        }
+    }
+
+    /**
+     * Body of a function substituted for a call by the {@link Inliner}. The arguments are evaluated in the frame of
+     * the call and stored in the slots of the parameters, which are in the caller's frame or, if frameSize isn't 0, in
+     * a frame of their own.
+     */
+    static final class Inline extends Node {
+        final ListType params;
+        final Node[] arguments;
+        final int[] slots;
+        final int frameSize;
+        final Node body;
+
+        Inline(ListType form, ListType params, Node[] arguments, int[] slots, int frameSize, Node body) {
+            super(form);
+            this.params = params;
+            this.arguments = arguments;
+            this.slots = slots;
+            this.frameSize = frameSize;
+            this.body = body;
+        }
+
+        private Frame bind(Frame frame) throws REPLErrors, ReaderErrors {
+            Frame target = frameSize == 0 ? frame : new Frame(new MyDataType[frameSize], frame);
+            for (int i = 0; i < slots.length; i++)
+                target.slots[slots[i]] = arguments[i].execute(frame);
+            return target;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            return body.execute(bind(frame));
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            return body.executeTail(bind(frame));
+        }
+    }
+
+    /**
+     * Expansion of a macro call and the macros it was made with, the macro of the call first, with the cells naming
+     * them. It is valid as long as the cells still hold the macros.
+     */
+    record Expansion(Node node, Environment.Cell[] cells, MyDataType[] macros) {
+        boolean valid() {
+            for (int i = 0; i < cells.length; i++)
+                if (cells[i].get() != macros[i])
+                    return false;
+            return true;
+        }
+
+        /**
+         * Adds the macros to the dependencies of the expansion being made, if any.
+         */
+        void used() {
+            Dependencies dependencies = Dependencies.current.get();
+            if (dependencies != null)
+                for (int i = 0; i < cells.length; i++)
+                    dependencies.add(cells[i], macros[i]);
+        }
+    }
+
+    /**
+     * Macros used while a macro is applied, see {@link #expandMacro}.
+     */
+    private static final class Dependencies {
+        //of the expansion the thread is making, null if it isn't applying a macro
+        static final ThreadLocal<Dependencies> current = new ThreadLocal<>();
+        final ArrayList<Environment.Cell> cells = new ArrayList<>();
+        final ArrayList<MyDataType> macros = new ArrayList<>();
+
+        void add(Environment.Cell cell, MyDataType macro) {
+            if (!cells.contains(cell)) {
+                cells.add(cell);
+                macros.add(macro);
+            }
+        }
+    }
+
+    static final class Def extends Node {
+        final SymbolType[] names;
+        final Node[] values;
+
+        Def(ListType form, SymbolType[] names, Node[] values) {
+            super(form);
+            this.names = names;
+            this.values = values;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            MyDataType lastResult = Nil;
+            for (int i = 0; i < names.length; i++) {
+                lastResult = values[i].execute(frame);
+                REPL.globalEnv.put(names[i], lastResult);//add the variable to the global environment
+            }
+            return lastResult;
+        }
+    }
+
+    static final class Set extends Node {
+        final Ref[] targets;
+        final Node[] values;
+
+        Set(ListType form, Ref[] targets, Node[] values) {
+            super(form);
+            this.targets = targets;
+            this.values = values;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            MyDataType lastResult = Nil;
+            for (int i = 0; i < targets.length; i++) {
+                if (!targets[i].isBound(frame)) {
+                    SyntaxError error = new SyntaxError("cannot use set! on unassigned variable: " + targets[i].name.getValue());
+                    SourceMap.blame(error, form);
+                    throw error;
+                }
+                lastResult = values[i].execute(frame);
+                targets[i].assign(frame, lastResult);//change value where var is assigned.
+            }
+            return lastResult;
+        }
+    }
+
+    static final class Begin extends Node {
+        final Node[] body;
+
+        Begin(ListType form, Node[] body) {
+            super(form);
+            this.body = body;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            int last = body.length - 1;
+            for (int i = 0; i < last; i++)
+                body[i].execute(frame);
+            return body[last].execute(frame);
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            int last = body.length - 1;
+            for (int i = 0; i < last; i++)
+                body[i].execute(frame);
+            return body[last].executeTail(frame);
+        }
+    }
+
+    /**
+     * let* whose bindings are stored in the frame of the enclosing function. Bindings are evaluated in order, each
+     * one can refer to the previous ones.
+     */
+    static final class Let extends Node {
+        final int[] slots;
+        final Node[] values;
+        final Node body;
+
+        Let(ListType form, int[] slots, Node[] values, Node body) {
+            super(form);
+            this.slots = slots;
+            this.values = values;
+            this.body = body;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            for (int i = 0; i < slots.length; i++)
+                frame.slots[slots[i]] = values[i].execute(frame);
+            return body.execute(frame);
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            for (int i = 0; i < slots.length; i++)
+                frame.slots[slots[i]] = values[i].execute(frame);
+            return body.executeTail(frame);
+        }
+    }
+
+    /**
+     * let* with a frame of its own, at the top level or in code analyzed after its function.
+     */
+    static final class LetFrame extends Node {
+        final int[] slots;
+        final Node[] values;
+        final Node body;
+        final int frameSize;
+
+        LetFrame(ListType form, int[] slots, Node[] values, Node body, int frameSize) {
+            super(form);
+            this.slots = slots;
+            this.values = values;
+            this.body = body;
+            this.frameSize = frameSize;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            return body.execute(bind(frame));
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            return body.executeTail(bind(frame));
+        }
+
+        private Frame bind(Frame frame) throws REPLErrors, ReaderErrors {
+            Frame inner = new Frame(new MyDataType[frameSize], frame);
+            for (int i = 0; i < slots.length; i++)
+                inner.slots[slots[i]] = values[i].execute(inner);
+            return inner;
+        }
+    }
+
+    /**
+     * Evaluates the tests in order and returns the value of the branch of the first test that isn't false or nil.
+     */
+    static final class Cond extends Node {
+        final Node[] tests, branches;
+
+        Cond(ListType form, Node[] tests, Node[] branches) {
+            super(form);
+            this.tests = tests;
+            this.branches = branches;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) throws REPLErrors, ReaderErrors {
+            for (int i = 0; i < tests.length; i++) {
+                MyDataType value = tests[i].execute(frame);
+                if (!value.equals(False) && !value.equals(Nil)) //anything other than false or nil counts as true
+                    return branches[i].execute(frame);
+            }
+            return Nil;//none of the clauses evaluated to true
+        }
+
+        @Override
+        MyDataType executeTail(Frame frame) throws REPLErrors, ReaderErrors {
+            for (int i = 0; i < tests.length; i++) {
+                MyDataType value = tests[i].execute(frame);
+                if (!value.equals(False) && !value.equals(Nil))
+                    return branches[i].executeTail(frame);
+            }
+            return Nil;
+        }
+    }
+
+    /**
+     * Creates a closure over the current frame.
+     */
+    static final class Lambda extends Node {
+        final String name;
+        final ListType params;
+        final int[] paramSlots;
+        final MyDataType bodyForm;
+        final Node body;
+        final boolean checkArity;//false for defun
+        final int frameSize;
+        volatile BytecodeCompiler.Code code = null;//set if the body was compiled, see BytecodeCompiler
+        volatile Entry entry = new Interpreted(this);
+        //counted while the function is interpreted, see Tiers
+        int calls = 0, backEdges = 0;
+        int requested = Tiers.TREE;//highest tier a compilation was requested for
+        volatile boolean compiling = false;
+
+        Lambda(ListType form, String name, ListType params, int[] paramSlots, MyDataType bodyForm, Node body,
+               boolean checkArity, int frameSize) {
+            super(form);
+            this.name = name;
+            this.params = params;
+            this.paramSlots = paramSlots;
+            this.bodyForm = bodyForm;
+            this.body = body;
+            this.checkArity = checkArity;
+            this.frameSize = frameSize;
+        }
+
+        @Override
+        public Closure execute(Frame frame) {
+            return new Closure(this, frame);
+        }
+
+        /**
+         * Runs the body in the frame holding the arguments.
+         *
+         * @return value of the body or a TailCall
+         */
+        MyDataType enter(Frame arguments) throws REPLErrors, ReaderErrors {
+            return entry.enter(arguments);
+        }
+    }
+
+    /**
+     * How the body of a function is run. A function starts out {@link Interpreted} and gets a new entry when it is
+     * compiled to a JVM class, see {@link JvmCompiler}.
+     */
+    static abstract class Entry {
+        /**
+         * @return value of the body or a TailCall
+         */
+        abstract MyDataType enter(Frame arguments) throws REPLErrors, ReaderErrors;
+
+        /**
+         * Runs a call returned in tail position, i.e. the next iteration of a loop.
+         *
+         * @return value of the body or a TailCall
+         */
+        MyDataType loop(Frame arguments) throws REPLErrors, ReaderErrors {
+            return enter(arguments);
+        }
+    }
+
+    /**
+     * Runs the body with the tree walker, or the VM if it was compiled to bytecode. Counts calls and loop iterations,
+     * the function is compiled to a higher tier once they reach the thresholds of {@link Tiers}.
+     */
+    static final class Interpreted extends Entry {
+        private final Lambda lambda;
+
+        Interpreted(Lambda lambda) {
+            this.lambda = lambda;
+        }
+
+        @Override
+        MyDataType enter(Frame arguments) throws REPLErrors, ReaderErrors {
+            Lambda lambda = this.lambda;
+            int calls = ++lambda.calls;
+            if (calls >= Tiers.vmThreshold || calls >= Tiers.jitThreshold)
+                Tiers.hot(lambda);
+            BytecodeCompiler.Code code = lambda.code;
+            return code != null ? VM.execute(code, arguments) : lambda.body.executeTail(arguments);
+        }
+
+        @Override
+        MyDataType loop(Frame arguments) throws REPLErrors, ReaderErrors {
+            Lambda lambda = this.lambda;
+            if (++lambda.backEdges >= Tiers.backEdgeThreshold)
+                Tiers.hot(lambda);
+            BytecodeCompiler.Code code = lambda.code;
+            return code != null ? VM.execute(code, arguments) : lambda.body.executeTail(arguments);
+        }
+    }
+
+    static final class Defun extends Node {
+        final Lambda lambda;
+        final SymbolType name;
+
+        Defun(Lambda lambda, SymbolType name) {
+            super(lambda.form);
+            this.lambda = lambda;
+            this.name = name;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) {
+            Closure fun = lambda.execute(frame);
+            REPL.globalEnv.put(name, fun);
+            return fun;
+        }
+    }
+
+    static final class Defmacro extends Node {
+        final SymbolType name;
+        final ListType params;
+        final MyDataType body;
+        final Scope scope;
+
+        Defmacro(ListType form, SymbolType name, ListType params, MyDataType body, Scope scope) {
+            super(form);
+            this.name = name;
+            this.params = params;
+            this.body = body;
+            this.scope = scope;
+        }
+
+        @Override
+        public MyDataType execute(Frame frame) {
+            Macro macro = new Macro(name.getValue(), body, params, scope, frame);
+            REPL.globalEnv.put(name, macro);//add the macro to the global environment
+            return macro;
+        }
+    }
+
+    /**
+     * Function created by lambda or defun, runs the analyzed body in a new frame holding the arguments. Calls in tail
+     * position of the body are made in a loop by {@link #run(Frame)} instead of recursively, so tail recursive
+     * functions, including mutually recursive ones, run in constant stack.
+     */
+    public static class Closure extends MyFunction {
+        final Lambda lambda;
+        final Frame frame;//frame the function was created in
+
+        Closure(Lambda lambda, Frame frame) {
+            super(lambda.name, lambda.bodyForm, lambda.params);
+            this.lambda = lambda;
+            this.frame = frame;
+        }
+
+        @Override
+        public MyDataType apply(ListType args) throws REPLErrors, ReaderErrors {
+            int[] paramSlots = lambda.paramSlots;
+            checkArity(args.size());
+            MyDataType[] slots = new MyDataType[lambda.frameSize];
+            //missing arguments leave their slot empty, extra arguments are ignored
+            for (int i = 0; i < paramSlots.length; i++)
+                slots[paramSlots[i]] = args.get(i);
+            return run(new Frame(slots, frame));
+        }
+
+        @Override
+        public MyDataType apply0() throws REPLErrors, ReaderErrors {
+            return run(JvmCompiler.bind(this));
+        }
+
+        @Override
+        public MyDataType apply1(MyDataType a0) throws REPLErrors, ReaderErrors {
+            return run(JvmCompiler.bind(this, a0));
+        }
+
+        @Override
+        public MyDataType apply2(MyDataType a0, MyDataType a1) throws REPLErrors, ReaderErrors {
+            return run(JvmCompiler.bind(this, a0, a1));
+        }
+
+        @Override
+        public MyDataType apply3(MyDataType a0, MyDataType a1, MyDataType a2) throws REPLErrors, ReaderErrors {
+            return run(JvmCompiler.bind(this, a0, a1, a2));
+        }
+
+        @Override
+        public MyDataType applyN(MyDataType... args) throws REPLErrors, ReaderErrors {
+            return run(bind(args, 0, args.length));
+        }
+
+        /**
+         * Evaluates the operands of a call into the slots of a new frame for this function.
+         *
+         * @param operands arguments of the call, evaluated in order
+         * @param caller   frame the operands are evaluated in
+         * @return frame to run the function in, see {@link #run(Frame)}
+         */
+        Frame bind(Node[] operands, Frame caller) throws REPLErrors, ReaderErrors {
+            int[] paramSlots = lambda.paramSlots;
+            MyDataType[] slots = new MyDataType[lambda.frameSize];
+            for (int i = 0; i < operands.length; i++) {
+                MyDataType value = operands[i].execute(caller);
+                if (i < paramSlots.length)
+                    slots[paramSlots[i]] = value;
+            }
+            checkArity(operands.length);
+            return new Frame(slots, frame);
+        }
+
+        /**
+         * Stores the arguments of a call made by compiled code in the slots of a new frame for this function.
+         *
+         * @param stack operand stack of the caller
+         * @param from  index of the first argument on the stack
+         * @param argc  number of arguments
+         * @return frame to run the function in, see {@link #run(Frame)}
+         */
+        Frame bind(MyDataType[] stack, int from, int argc) throws SyntaxError {
+            checkArity(argc);
+            int[] paramSlots = lambda.paramSlots;
+            MyDataType[] slots = new MyDataType[lambda.frameSize];
+            for (int i = 0; i < argc && i < paramSlots.length; i++)
+                slots[paramSlots[i]] = stack[from + i];
+            return new Frame(slots, frame);
+        }
+
+        /**
+         * Runs the body in the frame, then the calls the body returned in tail position until there is a value.
+         */
+        MyDataType run(Frame arguments) throws REPLErrors, ReaderErrors {
+            MyDataType result = lambda.enter(arguments);
+            while (result instanceof TailCall call)
+                result = call.closure.lambda.entry.loop(call.frame);
+            return result;
+        }
+
+        /**
+         * @return the bytecode of the function, compiled now if the function wasn't compiled, null if it is too large
+         * to be compiled
+         */
+        public BytecodeCompiler.Code code() {
+            BytecodeCompiler.Code code = lambda.code;
+            return code != null ? code : BytecodeCompiler.compile(lambda);
+        }
+
+        void checkArity(int arguments) throws SyntaxError {
+            if (lambda.checkArity && arguments != lambda.paramSlots.length)
+                throw new SyntaxError("Wrong number of arguments to call this function, expected " + lambda.paramSlots.length + " but got " + arguments);
+        }
+    }
+
+    /**
+     * Macro created by defmacro. Applying it binds the parameters to the unevaluated arguments and evaluates the body,
+     * the result is the expansion.
+     * <p>
+     * The expansion must not capture the arguments: a variable the body binds such as the tmp in {@code (swap tmp x)}
+     * would otherwise shadow the argument of the same name. The names the body binds with let*, lambda, defun or
+     * defmacro are collected once when the macro is defined, leaving out names that can't be bound. If an argument
+     * contains one of them, the expansion is made from a copy of the body in which those symbols are renamed to fresh
+     * ones, see {@link #gensym(SymbolType)}. Free symbols of the body, e.g. the globals it calls, are never renamed.
+     * The macro itself is never changed, the body without renaming is analyzed once and shared by all other
+     * expansions.
+     */
+    public static class Macro extends MyFunction {
+        private static final SymbolType LET = SymbolType.intern("let*"), LAMBDA = SymbolType.intern("lambda"),
+                DEFUN = SymbolType.intern("defun"), DEFMACRO = SymbolType.intern("defmacro");
+        private final Scope scope;//scope and frame defmacro was evaluated in
+        private final Frame frame;
+        private final HashSet<SymbolType> captures;//canonical names the body binds that aren't parameters
+        private Node expander = null;//body without renaming
+        private int frameSize;
+
+        Macro(String name, MyDataType body, ListType params, Scope scope, Frame frame) {
+            super(name, body, params);
+            this.scope = scope;
+            this.frame = frame;
+            setMacro(true);
+            captures = new HashSet<>();
+            binders(body, captures);
+            for (MyDataType param : params.getValue())
+                captures.remove(((SymbolType) param).canonical());
+            //reserved names and the reader's quote forms can't be bound, so they never capture anything
+            captures.removeIf(REPL::isReserved);
+            captures.remove(Reader.UNQUOTE);
+            captures.remove(Reader.SPLICE_UNQUOTE);
+        }
+
+        @Override
+        public MyDataType apply(ListType args) throws REPLErrors, ReaderErrors {
+            ListType params = getParameters();
+            HashSet<SymbolType> used = new HashSet<>();
+            for (MyDataType arg : args.getValue())
+                symbols(arg, used);
+            Map<SymbolType, SymbolType> renames = new HashMap<>();
+            for (SymbolType symbol : used)
+                if (captures.contains(symbol))
+                    renames.put(symbol, gensym(symbol));
+
+            Node body;
+            int size;
+            Scope inner = Scope.parameters(params, scope);
+            if (renames.isEmpty()) {
+                if (expander == null) {
+                    Node analyzed = analyze(this.body, inner);
+                    inner.layout.complete = true;
+                    frameSize = inner.layout.size;
+                    expander = analyzed;
+                }
+                body = expander;
+                size = frameSize;
+            } else {
+                body = analyze(rename(this.body, renames), inner);
+                inner.layout.complete = true;
+                size = inner.layout.size;
+            }
+            MyDataType[] slots = new MyDataType[size];
+            int[] paramSlots = inner.slots(params);
+            for (int i = 0; i < paramSlots.length; i++)
+                slots[paramSlots[i]] = args.get(i);
+            return body.execute(new Frame(slots, frame));
+        }
+
+        /**
+         * Adds the canonical names bound by the let*, lambda, defun and defmacro forms in the form to the set,
+         * including the ones in nested and quoted lists. Binders that are unquoted aren't symbols and are skipped.
+         */
+        private static void binders(MyDataType form, HashSet<SymbolType> binders) {
+            if (!(form instanceof ListType list) || list.size() == 0)
+                return;
+            if (list.get(0) instanceof SymbolType head) {
+                SymbolType name = head.canonical();
+                if (name == LET && list.get(1) instanceof ListType bindings) {
+                    if (bindings.size() == 2 && !(bindings.get(0) instanceof ListType))
+                        binder(bindings.get(0), binders);//only one binding
+                    else
+                        for (MyDataType binding : bindings.getValue())
+                            if (binding instanceof ListType pair)
+                                binder(pair.get(0), binders);
+                } else if (name == LAMBDA && list.get(1) instanceof ListType params) {
+                    for (MyDataType param : params.getValue())
+                        binder(param, binders);
+                } else if ((name == DEFUN || name == DEFMACRO) && list.get(2) instanceof ListType params) {
+                    for (MyDataType param : params.getValue())
+                        binder(param, binders);
+                }
+            }
+            for (MyDataType element : list.getValue())
+                binders(element, binders);
+        }
+
+        private static void binder(MyDataType name, HashSet<SymbolType> binders) {
+            if (name instanceof SymbolType symbol)
+                binders.add(symbol.canonical());
+        }
+
+        /**
+         * Adds the canonical symbols in the form to the set, including the ones in nested and quoted lists.
+         */
+        private static void symbols(MyDataType form, HashSet<SymbolType> symbols) {
+            if (form instanceof SymbolType symbol)
+                symbols.add(symbol.canonical());
+            else if (form instanceof ListType list)
+                for (MyDataType element : list.getValue())
+                    symbols(element, symbols);
+        }
+
+        /**
+         * @return copy of the form with the symbols replaced, lists without replaced symbols are shared
+         */
+        private static MyDataType rename(MyDataType form, Map<SymbolType, SymbolType> renames) {
+            if (form instanceof SymbolType symbol)
+                return renames.getOrDefault(symbol.canonical(), symbol);
+            if (!(form instanceof ListType list))
+                return form;
+            List<MyDataType> elements = list.getValue();
+            ArrayList<MyDataType> renamed = null;
+            for (int i = 0; i < elements.size(); i++) {
+                MyDataType element = rename(elements.get(i), renames);
+                if (element != elements.get(i) && renamed == null)
+                    renamed = new ArrayList<>(elements.subList(0, i));
+                if (renamed != null)
+                    renamed.add(element);
+            }
+            if (renamed == null)
+                return list;
+            ListType copy = new ListType(renamed);
+            long position = SourceMap.get(list);
+            if (position >= 0)
+                SourceMap.put(copy, position);
+            return copy;
+        }
+    }
+
+    /**
+     * Makes a symbol that no form has used yet, named after the given one, e.g. tmp_12 for tmp.
+     */
+    static SymbolType gensym(SymbolType name) {
+        while (true) {
+            SymbolType fresh = SymbolType.internFresh(name.getValue() + "_" + gensyms.incrementAndGet());
+            if (fresh != null)
+                return fresh;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import static main.Analyzer.*;
+import static main.Types.*;
+
+/**
+ * Compiles the analyzed bodies of functions to bytecode for the {@link VM}. The compiler works on the node tree of
+ * the {@link Analyzer}, so variables are already resolved to frame slots and global cells and special forms are
+ * already checked. Locals live in the same {@link Frame}s as in the tree walker, compiled and analyzed code call each
+ * other freely and closures created by either run the same.
+ * <p>
+ * Every instruction is an opcode followed by its operands, each one unsigned 16 bit unit, most operands are indices
+ * into the constant pool of the code. Macro calls are expanded when they are reached like in the tree walker, the
+ * expansion is compiled on its own the first time, see {@link VM}. Nodes without an opcode of their own, e.g.
+ * defmacro, are kept in the pool and executed by the tree walker.
+ * <p>
+ * Compiled mode is off by default and turned on with -Dlisp.compile=true, every lambda and defun analyzed while it is
+ * on is compiled. The disassemble builtin compiles any function to show its code.
+ */
+public class BytecodeCompiler {
+    //opcodes, operands in brackets, each one unit
+    static final byte CONST = 0;//[constant] push the constant
+    static final byte LOAD_LOCAL = 1;//[depth, slot, ref] push the slot of the frame depth levels out, ref if empty
+    static final byte STORE_LOCAL = 2;//[slot] pop into the slot of the current frame
+    static final byte LOAD_GLOBAL = 3;//[ref] push the value of the global
+    static final byte STORE_GLOBAL = 4;//[name] bind the global to the top of the stack
+    static final byte CHECK_BOUND = 5;//[ref] fail if set! can't assign the variable
+    static final byte SET = 6;//[ref] assign the top of the stack to the variable like set!
+    static final byte LOAD_FUNCTION = 7;//[call, target] push the global operator, a macro is expanded instead, see VM
+    static final byte CALL = 8;//[argc] pop the function and arguments and push the result
+    static final byte TAIL_CALL = 9;//[argc] like CALL, but return a closure call to be made by the caller
+    static final byte JUMP_IF_FALSE = 10;//[target] pop, jump if false or nil
+    static final byte JUMP = 11;//[target]
+    static final byte POP = 12;
+    static final byte CLOSURE = 13;//[lambda] push a closure over the current frame
+    static final byte ENTER = 14;//[size] make a new frame the current one, for let* with a frame of its own
+    static final byte LEAVE = 15;//make the outer frame the current one again
+    static final byte MACRO = 16;//[macro call] expand the call if needed and push the value of the expansion
+    static final byte MACRO_TAIL = 17;//[macro call] like MACRO, in tail position
+    static final byte NODE = 18;//[node] push the value of the node, run by the tree walker
+    static final byte NODE_TAIL = 19;//[node] like NODE, in tail position
+    static final byte RETURN = 20;//return the top of the stack
+
+    private static final String[] NAMES = {"const", "load-local", "store-local", "load-global", "store-global",
+            "check-bound", "set", "load-function", "call", "tail-call", "jump-if-false", "jump", "pop", "closure",
+            "enter", "leave", "macro", "macro-tail", "node", "node-tail", "return"};
+    private static final int[] OPERANDS = {1, 3, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 0, 1, 1, 0, 1, 1, 1, 1, 0};
+    //position of the operand that indexes the constant pool, 0 if there is none
+    private static final int[] CONSTANT = {1, 3, 0, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 1, 0, 0, 1, 1, 1, 1, 0};
+
+    /**
+     * Set to true with -Dlisp.compile=true to run functions on the bytecode VM instead of the tree walker.
+     */
+    public static boolean enabled = "true".equals(System.getProperty("lisp.compile"));
+
+    /**
+     * Compiled body of a function or macro expansion.
+     */
+    public static final class Code {
+        final String name;
+        final char[] ops;
+        final Object[] pool;
+        final int maxStack;
+        //instructions from sitePcs[i] on belong to the call siteForms[i], errors thrown there are blamed on it
+        private final int[] sitePcs;
+        private final MyDataType[] siteForms;
+
+        Code(String name, char[] ops, Object[] pool, int maxStack, int[] sitePcs, MyDataType[] siteForms) {
+            this.name = name;
+            this.ops = ops;
+            this.pool = pool;
+            this.maxStack = maxStack;
+            this.sitePcs = sitePcs;
+            this.siteForms = siteForms;
+        }
+
+        /**
+         * @return the form of the innermost call around the instruction, null if there is none
+         */
+        MyDataType site(int pc) {
+            int i = Arrays.binarySearch(sitePcs, pc);
+            if (i < 0)
+                i = -i - 2;//entry before the insertion point
+            return i < 0 ? null : siteForms[i];
+        }
+
+        /**
+         * @return listing of the instructions and constant pool, one per line
+         */
+        public String disassemble() {
+            StringBuilder out = new StringBuilder();
+            out.append("code of ").append(name).append(": ").append(ops.length).append(" units, max stack ")
+                    .append(maxStack).append("\n");
+            for (int pc = 0; pc < ops.length; ) {
+                char op = ops[pc];
+                out.append(String.format("%5d  %-14s", pc, NAMES[op]));
+                for (int i = 1; i <= OPERANDS[op]; i++)
+                    out.append(" ").append((int) ops[pc + i]);
+                if (CONSTANT[op] > 0)
+                    out.append("  ; ").append(describe(pool[ops[pc + CONSTANT[op]]]));
+                out.append("\n");
+                pc += 1 + OPERANDS[op];
+            }
+            out.append("constants:\n");
+            for (int i = 0; i < pool.length; i++)
+                out.append(String.format("%5d  %s%n", i, describe(pool[i])));
+            return out.toString();
+        }
+
+        private static String describe(Object constant) {
+            if (constant instanceof Ref ref)
+                return ref.name.getValue();
+            if (constant instanceof Lambda lambda)
+                return "lambda " + lambda.params;
+            if (constant instanceof Call call)
+                return ((Ref) call.operator).name.getValue();
+            if (constant instanceof Node node)
+                return node.form.toString();
+            return String.valueOf(constant);
+        }
+    }
+
+    /**
+     * Thrown if a function can't be compiled, e.g. because it is too large for 16 bit operands. The function then
+     * stays with the tree walker.
+     */
+    static final class TooLarge extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Compiles the body of the function.
+     *
+     * @return the code, null if the function can't be compiled
+     */
+    static Code compile(Lambda lambda) {
+        return compile(lambda.name, lambda.body, true);
+    }
+
+    /**
+     * Compiles a node to run in the frame it is executed in, the expansion of a macro call or the body of a function.
+     *
+     * @param tail true if the node is in tail position and may return a {@link TailCall}
+     * @return the code, null if it can't be compiled
+     */
+    static Code compile(String name, Node node, boolean tail) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        try {
+            compiler.compile(node, tail);
+            if (!tail)
+                compiler.emit(RETURN);
+            if (compiler.pool.size() > 0xFFFF)
+                throw new TooLarge("too many constants");
+        } catch (TooLarge e) {
+            return null;
+        }
+        int[] pcs = new int[compiler.sitePcs.size()];
+        for (int i = 0; i < pcs.length; i++)
+            pcs[i] = compiler.sitePcs.get(i);
+        return new Code(name, Arrays.copyOf(compiler.ops, compiler.size), compiler.pool.toArray(),
+                compiler.maxStack, pcs, compiler.siteForms.toArray(new MyDataType[0]));
+    }
+
+    private char[] ops = new char[64];
+    private int size = 0;
+    private final ArrayList<Object> pool = new ArrayList<>();
+    private final IdentityHashMap<Object, Integer> constants = new IdentityHashMap<>();
+    private int depth = 0, maxStack = 0;//of the operand stack
+    private final ArrayList<Integer> sitePcs = new ArrayList<>();
+    private final ArrayList<MyDataType> siteForms = new ArrayList<>();
+    private MyDataType site = null;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Emits the code of the node. In tail position the code ends with a return, otherwise it leaves the value of the
+     * node on the stack.
+     */
+    private void compile(Node node, boolean tail) throws TooLarge {
+        if (node instanceof Constant) {
+            emit(CONST, constant(node.form));
+            push(1);
+        } else if (node instanceof LocalRef ref) {
+            emit(LOAD_LOCAL, ref.depth, ref.slot, constant(ref));
+            push(1);
+        } else if (node instanceof GlobalRef ref) {
+            emit(LOAD_GLOBAL, constant(ref));
+            push(1);
+        } else if (node instanceof Call call) {
+            compileCall(call, tail);
+            return;
+        } else if (node instanceof MacroCall call) {
+            MyDataType outer = enterSite(call.form);
+            emit(tail ? MACRO_TAIL : MACRO, constant(call));
+            leaveSite(outer);
+            if (tail)
+                return;
+            push(1);
+        } else if (node instanceof Def def) {
+            for (int i = 0; i < def.names.length; i++) {
+                if (i > 0)
+                    pop(POP);
+                compile(def.values[i], false);
+                emit(STORE_GLOBAL, constant(def.names[i]));
+            }
+            if (def.names.length == 0) {
+                emit(CONST, constant(Nil));
+                push(1);
+            }
+        } else if (node instanceof Set set) {
+            MyDataType outer = enterSite(set.form);
+            for (int i = 0; i < set.targets.length; i++) {
+                if (i > 0)
+                    pop(POP);
+                emit(CHECK_BOUND, constant(set.targets[i]));
+                compile(set.values[i], false);
+                emit(SET, constant(set.targets[i]));
+            }
+            leaveSite(outer);
+            if (set.targets.length == 0) {
+                emit(CONST, constant(Nil));
+                push(1);
+            }
+        } else if (node instanceof Begin begin) {
+            int last = begin.body.length - 1;
+            for (int i = 0; i < last; i++) {
+                compile(begin.body[i], false);
+                pop(POP);
+            }
+            compile(begin.body[last], tail);
+            return;
+        } else if (node instanceof Let let) {
+            for (int i = 0; i < let.slots.length; i++) {
+                compile(let.values[i], false);
+                emit(STORE_LOCAL, let.slots[i]);
+                depth--;
+            }
+            compile(let.body, tail);
+            return;
+        } else if (node instanceof LetFrame let) {
+            emit(ENTER, let.frameSize);
+            for (int i = 0; i < let.slots.length; i++) {
+                compile(let.values[i], false);
+                emit(STORE_LOCAL, let.slots[i]);
+                depth--;
+            }
+            compile(let.body, tail);
+            if (tail)
+                return;
+            emit(LEAVE);
+        } else if (node instanceof Cond cond) {
+            ArrayList<Integer> exits = new ArrayList<>();
+            for (int i = 0; i < cond.tests.length; i++) {
+                compile(cond.tests[i], false);
+                int next = jump(JUMP_IF_FALSE);
+                depth--;
+                compile(cond.branches[i], tail);
+                if (!tail) {
+                    exits.add(jump(JUMP));
+                    depth--;//the next branch starts without this value
+                }
+                patch(next);
+            }
+            emit(CONST, constant(Nil));
+            push(1);
+            for (int exit : exits)
+                patch(exit);
+        } else if (node instanceof Lambda lambda) {
+            emit(CLOSURE, constant(lambda));
+            push(1);
+        } else if (node instanceof Defun defun) {
+            emit(CLOSURE, constant(defun.lambda));
+            push(1);
+            emit(STORE_GLOBAL, constant(defun.name));
+        } else {
+            emit(tail ? NODE_TAIL : NODE, constant(node));
+            if (tail)
+                return;
+            push(1);
+        }
+        if (tail)
+            pop(RETURN);
+    }
+
+    private void compileCall(Call call, boolean tail) throws TooLarge {
+        MyDataType outer = enterSite(call.form);
+        int skip = -1;
+        if (call.operator instanceof GlobalRef) {
+            //a global can turn out to be a macro, the call site then expands it instead of calling it
+            emit(LOAD_FUNCTION, constant(call), 0);
+            skip = size - 1;
+            push(1);
+        } else
+            compile(call.operator, false);
+        for (Node operand : call.operands)
+            compile(operand, false);
+        emit(tail ? TAIL_CALL : CALL, call.operands.length);
+        depth -= call.operands.length;//the function is replaced by the result
+        if (skip >= 0)
+            patch(skip);
+        leaveSite(outer);
+        if (tail)
+            pop(RETURN);
+    }
+
+    /**
+     * Makes the form the call that errors in the following instructions are blamed on.
+     *
+     * @return the previous call, to be restored with {@link #leaveSite(MyDataType)}
+     */
+    private MyDataType enterSite(MyDataType form) {
+        MyDataType outer = site;
+        site(form);
+        return outer;
+    }
+
+    private void leaveSite(MyDataType outer) {
+        site(outer);
+    }
+
+    private void site(MyDataType form) {
+        site = form;
+        if (!sitePcs.isEmpty() && sitePcs.get(sitePcs.size() - 1) == size)
+            siteForms.set(siteForms.size() - 1, form);
+        else {
+            sitePcs.add(size);
+            siteForms.add(form);
+        }
+    }
+
+    private int constant(Object value) {
+        return constants.computeIfAbsent(value, v -> {
+            pool.add(v);
+            return pool.size() - 1;
+        });
+    }
+
+    private void push(int values) {
+        depth += values;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void pop(byte op) throws TooLarge {
+        emit(op);
+        depth--;
+    }
+
+    /**
+     * Emits a jump with the target left open.
+     *
+     * @return position of the target, see {@link #patch(int)}
+     */
+    private int jump(byte op) throws TooLarge {
+        emit(op, 0);
+        return size - 1;
+    }
+
+    /**
+     * Sets the target of the jump to the current position.
+     */
+    private void patch(int target) throws TooLarge {
+        if (size > 0xFFFF)
+            throw new TooLarge("code too large");
+        ops[target] = (char) size;
+    }
+
+    private void emit(byte op, int... operands) throws TooLarge {
+        if (size + 1 + operands.length > ops.length)
+            ops = Arrays.copyOf(ops, ops.length * 2);
+        ops[size++] = (char) op;
+        for (int operand : operands) {
+            if (operand < 0 || operand > 0xFFFF)
+                throw new TooLarge("operand out of range: " + operand);
+            ops[size++] = (char) operand;
+        }
+    }
+}
@@ -2,17 +2,18 @@ package main;
 
 import main.REPLErrors.SyntaxError;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
 import java.util.regex.Pattern;
 
 import static main.Types.*;
 
 public class Core {
-    private static final HashMap<String, MyDataType> env = new HashMap<>();
+    private static final Environment env = new Environment();
     public static List<String> coreNames;
+    //forms read by the parse builtin, size can be set with -Dlisp.parseCacheSize=n
+    public static final ParseCache parseCache = new ParseCache(Integer.getInteger("lisp.parseCacheSize", 256));
 
     /**
      * Populates the global environment with the basic arithmetic operators, some primitive operators mentioned in
@@ -23,11 +24,14 @@ public class Core {
     public static Environment getNamespace() {
         initArithmetics();
         initPrimitives();
+        initVectors();
         initUtilities();
         coreNames = new ArrayList<>();
         coreNames = List.of("debug", "*", "+", "parse", "macroexpand", "concat", "eq", "list", "-", "/", "cdr", "print",
-                "eval", "load", "car", "atom", "cons");
-        return new Environment(env);
+                "eval", "load", "car", "atom", "cons", "parse-stats", "macroexpand-stats", "disassemble",
+                "tier-info", "optimize", "=", "<", ">", "<=", ">=");
+        //the vector functions aren't reserved, programs use names like count and vector for their own variables
+        return env;
     }
 
     /**
@@ -63,154 +67,520 @@ public class Core {
         }
     }
 
+    /**
+     * Core function that runs the calls with a fixed number of arguments in the entry points for them, by default
+     * they pass the arguments on to applyN. applyN runs the calls with other numbers of arguments, usually by throwing
+     * an error. apply(ListType) only passes the elements of the list on to the entry point for their number.
+     */
+    abstract static class Builtin extends MyFunction {
+        Builtin(String name) {
+            super(name);
+            setIs_core(true);
+        }
+
+        @Override
+        public final MyDataType apply(ListType args) throws REPLErrors, ReaderErrors {
+            return switch (args.size()) {
+                case 0 -> apply0();
+                case 1 -> apply1(args.get(0));
+                case 2 -> apply2(args.get(0), args.get(1));
+                case 3 -> apply3(args.get(0), args.get(1), args.get(2));
+                default -> applyN(args.toArray());
+            };
+        }
+
+        @Override
+        public MyDataType apply0() throws REPLErrors, ReaderErrors {
+            return applyN();
+        }
+
+        @Override
+        public MyDataType apply1(MyDataType a0) throws REPLErrors, ReaderErrors {
+            return applyN(a0);
+        }
+
+        @Override
+        public MyDataType apply2(MyDataType a0, MyDataType a1) throws REPLErrors, ReaderErrors {
+            return applyN(a0, a1);
+        }
+
+        @Override
+        public MyDataType apply3(MyDataType a0, MyDataType a1, MyDataType a2) throws REPLErrors, ReaderErrors {
+            return applyN(a0, a1, a2);
+        }
+
+        @Override
+        public abstract MyDataType applyN(MyDataType... args) throws REPLErrors, ReaderErrors;
+    }
+
     /**
      * Functions used for grahams eval implementations
      */
     private static void initPrimitives() {
         //cons takes 2 arguments a1 and a2 (a2 can be either a list or a self-eval type e.g. int, symbol)
-        //returns a list consisting of a1 and the contents of a2
-        env.put("cons", new MyFunction("cons") {
-            @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 2)
-                    throw new SyntaxError("Cons expects 2 arguments but got: " + args.size());
-                var a1 = args.get(0);
-                var a2 = args.get(1);
-                ArrayList<MyDataType> l = new ArrayList<>();
-                l.add(a1);
-                if (a2.isList() && ((ListType) a2).size() != 0)//non-empty list
-                    l.addAll(((ListType) a2).getValue());
-                else if (!a2.isList())
-                    l.add(a2);
-                return new ListType(l);
-            }
-        }.setIs_core(true));
+        //returns a list consisting of a1 and the contents of a2, sharing a2 if it is a list
+        env.put("cons", new Builtin("cons") {
+            @Override
+            public MyDataType apply2(MyDataType a1, MyDataType a2) {
+                if (a2 instanceof ListType list)
+                    return ListType.cons(a1, list);
+                return new ListType(a1, a2);
+            }
+
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                throw new SyntaxError("Cons expects 2 arguments but got: " + args.length);
+            }
+        });
 
         //(car x) expects a non-empty list x
         //returns the first element of x
-        env.put("car", new MyFunction("car") {
+        env.put("car", new Builtin("car") {
             @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() == 1 && args.get(0) instanceof ListType x)
-                    if (x.size() != 0)//x is non-empty list
-                        return x.first();
-                throw new SyntaxError("Car expects 1 non-empty list argument, but got: " + args);
+            public MyDataType apply1(MyDataType a1) throws SyntaxError {
+                if (a1 instanceof ListType x && x.size() != 0)//x is non-empty list
+                    return x.first();
+                return applyN(a1);
             }
-        }.setIs_core(true));
+
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                throw new SyntaxError("Car expects 1 non-empty list argument, but got: " + new ListType(args));
+            }
+        });
         //(cdr x) expects a non-empty list x
         //returns a new list containing all but the 1st element of x
-        env.put("cdr", new MyFunction("cdr") {
+        env.put("cdr", new Builtin("cdr") {
             @Override
-            public ListType apply(ListType args) throws SyntaxError {
-                if (args.size() == 1 && args.get(0) instanceof ListType x) {
-                    if (x.size() != 0)//x is non-empty list
-                        return x.rest();
-                }
-                throw new SyntaxError("cdr expects a non-empty list but got:" + args.get(0));
+            public ListType apply1(MyDataType a1) throws SyntaxError {
+                if (a1 instanceof ListType x && x.size() != 0)//x is non-empty list
+                    return x.rest();
+                return applyN(a1);
             }
-        }.setIs_core(true));
+
+            @Override
+            public ListType applyN(MyDataType... args) throws SyntaxError {
+                throw new SyntaxError("cdr expects a non-empty list but got:" + (args.length > 0 ? args[0] : null));
+            }
+        });
         //(eq x y)
         //returns #true if the values of x and y are the same atom or both the empty list, and #false otherwise
-        env.put("eq", new MyFunction("eq") {
+        env.put("eq", new Builtin("eq") {
             @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 2)
-                    throw new SyntaxError("eq expects 2 arguments but got: " + args.size() + " " + args);
-                return args.get(0).equals(args.get(1)) ? True : False;
+            public MyDataType apply2(MyDataType a1, MyDataType a2) {
+                return a1.equals(a2) ? True : False;
             }
-        }.setIs_core(true));
+
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                throw new SyntaxError("eq expects 2 arguments but got: " + args.length + " " + new ListType(args));
+            }
+        });
         //(atom x)
         //returns #false if the value of x is a non-empty list, #true otherwise (x is of atomic type)
-        env.put("atom", new MyFunction("atom") {
+        env.put("atom", new Builtin("atom") {
             @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 1)
-                    throw new SyntaxError("atom expects 1 argument but got: " + args.size() + " " + args);
-                var a1 = args.get(0);
+            public MyDataType apply1(MyDataType a1) {
                 if (!a1.isList() || ((ListType) a1).size() == 0)
                     return True;//Symbol, int, empty list or constant(true false nil)
                 else
                     return False;
+            }
 
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                throw new SyntaxError("atom expects 1 argument but got: " + args.length + " " + new ListType(args));
             }
-        }.setIs_core(true));
+        });
 
         //(list a1 ... an)
         //returns a list containing the specified elements, can be empty
-        env.put("list", new MyFunction("list") {
+        env.put("list", new Builtin("list") {
+            @Override
+            public MyDataType apply0() {
+                return new ListType();
+            }
+
+            @Override
+            public MyDataType apply1(MyDataType a0) {
+                return new ListType(a0);
+            }
+
+            @Override
+            public MyDataType apply2(MyDataType a0, MyDataType a1) {
+                return new ListType(a0, a1);
+            }
+
             @Override
-            public MyDataType apply(ListType args) {
-                return new ListType(args.getValue());
+            public MyDataType apply3(MyDataType a0, MyDataType a1, MyDataType a2) {
+                return new ListType(a0, a1, a2);
             }
-        }.setIs_core(true));
+
+            @Override
+            public MyDataType applyN(MyDataType... args) {
+                return new ListType(args);
+            }
+        });
     }
 
     /**
-     * basic arithmetic functions on integers (+,-,*,/)
+     * Functions on vectors, see {@link VectorType}. The transient functions build a vector in place, e.g.
+     * (persistent! (conj! (transient []) 1 2 3)) is [1 2 3].
      */
-    private static void initArithmetics() {
-        //plus
-        env.put("+", new MyFunction("+") {
-            @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 2)
-                    throw new SyntaxError("+ expects 2 args but got " + args.size());
-                MyDataType a1, a2;
-                a1 = args.get(0);
-                a2 = args.get(1);
-                if (a1 instanceof IntegerType && a2 instanceof IntegerType)
-                    return new IntegerType(((IntegerType) a1).value + ((IntegerType) a2).value);
-                else throw new SyntaxError("+ expects integers, but got: " + a1 + " and " + a2);
-            }
-        }.setIs_core(true));
-
-        //minus
-        env.put("-", new MyFunction("-") {
-            @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 2)
-                    throw new SyntaxError("Expected 2 args but got " + args.size());
-                MyDataType a1, a2;
-                a1 = args.get(0);
-                a2 = args.get(1);
-                if (a1 instanceof IntegerType && a2 instanceof IntegerType)
-                    return new IntegerType(((IntegerType) a1).value - ((IntegerType) a2).value);
-                else throw new SyntaxError("- expects integers, but got: " + a1 + " and " + a2);
-
-            }
-        }.setIs_core(true));
-
-        //multiply
-        env.put("*", new MyFunction("*") {
-            @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 2)
-                    throw new SyntaxError("Expected 2 args but got " + args.size());
-                MyDataType a1, a2;
-                a1 = args.get(0);
-                a2 = args.get(1);
-                if (a1 instanceof IntegerType && a2 instanceof IntegerType)
-                    return new IntegerType(((IntegerType) a1).value * ((IntegerType) a2).value);
-                else throw new SyntaxError("* expects integers, but got: " + a1 + " and " + a2);
-            }
-        }.setIs_core(true));
-
-        //division
-        env.put("/", new MyFunction("/") {
-            @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 2)
-                    throw new SyntaxError("Expected 2 args but got " + args.size());
-                MyDataType a1, a2;
-                a1 = args.get(0);
-                a2 = args.get(1);
-                if (a1 instanceof IntegerType && a2 instanceof IntegerType a2i) {
-                    if (a2i.getValue() == 0)
+    private static void initVectors() {
+        //(vector a1 ... an)
+        //returns a vector containing the specified elements, can be empty
+        env.put("vector", new Builtin("vector") {
+            @Override
+            public MyDataType apply0() {
+                return VectorType.EMPTY;
+            }
+
+            @Override
+            public MyDataType applyN(MyDataType... args) {
+                return VectorType.of(args);
+            }
+        });
+
+        //(nth x i)
+        //returns the element of the vector or list x at index i, counting from 0
+        env.put("nth", new Builtin("nth") {
+            @Override
+            public MyDataType apply2(MyDataType a1, MyDataType a2) throws SyntaxError {
+                if (a1 instanceof VectorType vector)
+                    return vector.get(index(this, a2, vector.size()));
+                if (a1 instanceof ListType list)
+                    return list.get(index(this, a2, list.size()));
+                throw new SyntaxError("nth expects a vector or a list, but got: " + a1);
+            }
+
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                throw new SyntaxError("nth expects 2 arguments but got: " + args.length);
+            }
+        });
+
+        //(assoc-nth v i x)
+        //returns a vector like v with x at index i, appended if i is the size of v. v is unchanged
+        env.put("assoc-nth", new Builtin("assoc-nth") {
+            @Override
+            public MyDataType apply3(MyDataType a1, MyDataType a2, MyDataType a3) throws SyntaxError {
+                if (!(a1 instanceof VectorType vector))
+                    throw new SyntaxError("assoc-nth expects a vector, but got: " + a1);
+                return vector.assocN(index(this, a2, vector.size() + 1), a3);
+            }
+
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                throw new SyntaxError("assoc-nth expects 3 arguments but got: " + args.length);
+            }
+        });
+
+        //(conj x a1 ... an)
+        //returns a vector with the elements appended to the vector x, or a list with them added in front of the list
+        //x one after the other
+        env.put("conj", new Builtin("conj") {
+            @Override
+            public MyDataType apply2(MyDataType a1, MyDataType a2) throws SyntaxError {
+                if (a1 instanceof VectorType vector)
+                    return vector.conj(a2);
+                if (a1 instanceof ListType list)
+                    return ListType.cons(a2, list);
+                throw new SyntaxError("conj expects a vector or a list, but got: " + a1);
+            }
+
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                if (args.length == 0)
+                    throw new SyntaxError("conj expects at least 1 argument but got 0");
+                if (args.length > 2 && args[0] instanceof VectorType vector) {
+                    VectorType.Transient result = vector.asTransient();
+                    for (int i = 1; i < args.length; i++)
+                        result.conj(args[i]);
+                    return result.persistent();
+                }
+                MyDataType result = args[0];
+                if (args.length == 1 && !(result instanceof VectorType) && !(result instanceof ListType))
+                    throw new SyntaxError("conj expects a vector or a list, but got: " + result);
+                for (int i = 1; i < args.length; i++)
+                    result = apply2(result, args[i]);
+                return result;
+            }
+        });
+
+        //(count x)
+        //returns the number of elements of the vector, list or transient vector x
+        env.put("count", new Unary("count") {
+            @Override
+            public MyDataType apply1(MyDataType exp) throws SyntaxError {
+                if (exp instanceof VectorType vector)
+                    return IntegerType.valueOf(vector.size());
+                if (exp instanceof ListType list)
+                    return IntegerType.valueOf(list.size());
+                if (exp instanceof VectorType.Transient vector)
+                    return IntegerType.valueOf(vector.size());
+                throw new SyntaxError("count expects a vector or a list, but got: " + exp);
+            }
+        });
+
+        //(transient v)
+        //returns a transient vector holding the elements of the vector v, for conj!
+        env.put("transient", new Unary("transient") {
+            @Override
+            public MyDataType apply1(MyDataType exp) throws SyntaxError {
+                if (exp instanceof VectorType vector)
+                    return vector.asTransient();
+                throw new SyntaxError("transient expects a vector, but got: " + exp);
+            }
+        });
+
+        //(conj! t a1 ... an)
+        //appends the elements to the transient vector t in place and returns t
+        env.put("conj!", new Builtin("conj!") {
+            @Override
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                if (args.length == 0 || !(args[0] instanceof VectorType.Transient vector))
+                    throw new SyntaxError("conj! expects a transient vector, but got: "
+                            + (args.length > 0 ? args[0] : "no arguments"));
+                for (int i = 1; i < args.length; i++)
+                    editable(vector).conj(args[i]);
+                return vector;
+            }
+        });
+
+        //(persistent! t)
+        //returns the vector built by the transient vector t, which can't be changed anymore
+        env.put("persistent!", new Unary("persistent!") {
+            @Override
+            public MyDataType apply1(MyDataType exp) throws SyntaxError {
+                if (exp instanceof VectorType.Transient vector)
+                    return editable(vector).persistent();
+                throw new SyntaxError("persistent! expects a transient vector, but got: " + exp);
+            }
+        });
+    }
+
+    /**
+     * @return the integer argument as an index from 0 to bound - 1
+     * @throws SyntaxError if it isn't an integer in that range
+     */
+    private static int index(MyFunction function, MyDataType a, int bound) throws SyntaxError {
+        if (!(a instanceof IntegerType integer))
+            throw new SyntaxError(function + " expects an integer index, but got: " + a);
+        if (integer.value < 0 || integer.value >= bound)
+            throw new SyntaxError(function + " index " + integer + " is out of range for " + bound + " elements");
+        return (int) integer.value;
+    }
+
+    private static VectorType.Transient editable(VectorType.Transient vector) throws SyntaxError {
+        if (!vector.isEditable())
+            throw new SyntaxError("transient vector used after persistent!");
+        return vector;
+    }
+
+    /**
+     * Arithmetic on any number of integers, folded from left to right. Two IntegerTypes are combined as longs, a
+     * result that overflows is computed again with BigIntegers. With one argument the result is the identity combined
+     * with it, e.g. (- x) is (- 0 x), without arguments it is the identity, if the operation has one.
+     * <p>
+     * The operation is a field rather than a method of a subclass, so the call in {@link #apply2} isn't megamorphic.
+     */
+    private static final class Arithmetic extends Builtin {
+        static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3;
+        private final int operation;
+        private final IntegerType identity;
+        private final boolean nullary;//whether the call without arguments returns the identity
+
+        Arithmetic(String name, int operation, long identity, boolean nullary) {
+            super(name);
+            this.operation = operation;
+            this.identity = IntegerType.valueOf(identity);
+            this.nullary = nullary;
+        }
+
+        @Override
+        public MyDataType apply0() throws SyntaxError {
+            if (!nullary)
+                throw new SyntaxError(value + " expects at least 1 arg but got 0");
+            return identity;
+        }
+
+        @Override
+        public MyDataType apply1(MyDataType a1) throws SyntaxError {
+            return apply2(identity, a1);
+        }
+
+        @Override
+        public MyDataType apply2(MyDataType a1, MyDataType a2) throws SyntaxError {
+            if (a1 instanceof IntegerType x && a2 instanceof IntegerType y) {
+                try {
+                    return IntegerType.valueOf(exact(x.value, y.value));
+                } catch (ArithmeticException e) {
+                    //overflow, computed with BigIntegers below
+                }
+            }
+            return BigIntegerType.valueOf(big(bigValue(this, a1), bigValue(this, a2)));
+        }
+
+        @Override
+        public MyDataType applyN(MyDataType... args) throws SyntaxError {
+            if (args.length < 2)
+                return args.length == 0 ? apply0() : apply1(args[0]);
+            MyDataType result = apply2(args[0], args[1]);
+            for (int i = 2; i < args.length; i++)
+                result = apply2(result, args[i]);
+            return result;
+        }
+
+        /**
+         * @throws ArithmeticException if the result doesn't fit into a long
+         */
+        private long exact(long a, long b) throws SyntaxError {
+            return switch (operation) {
+                case ADD -> Math.addExact(a, b);
+                case SUBTRACT -> Math.subtractExact(a, b);
+                case MULTIPLY -> Math.multiplyExact(a, b);
+                default -> {
+                    if (b == 0)
                         throw new SyntaxError("division by 0");
-                    return new IntegerType(((IntegerType) a1).value / ((IntegerType) a2).value);
-                } else throw new SyntaxError("/ expects integers, but got: " + a1 + " and " + a2);
+                    if (a == Long.MIN_VALUE && b == -1)
+                        throw new ArithmeticException("long overflow");
+                    yield a / b;//rounds towards 0
+                }
+            };
+        }
+
+        private BigInteger big(BigInteger a, BigInteger b) throws SyntaxError {
+            return switch (operation) {
+                case ADD -> a.add(b);
+                case SUBTRACT -> a.subtract(b);
+                case MULTIPLY -> a.multiply(b);
+                default -> {
+                    if (b.signum() == 0)
+                        throw new SyntaxError("division by 0");
+                    yield a.divide(b);
+                }
+            };
+        }
+    }
+
+    /**
+     * Comparison of any number of integers, true if it holds for every argument and the next one. Calls with a single
+     * integer are true.
+     */
+    private static final class Comparison extends Builtin {
+        static final int EQUAL = 0, LESS = 1, GREATER = 2, LESS_OR_EQUAL = 3, GREATER_OR_EQUAL = 4;
+        private final int relation;
+
+        Comparison(String name, int relation) {
+            super(name);
+            this.relation = relation;
+        }
+
+        @Override
+        public MyDataType apply1(MyDataType a1) throws SyntaxError {
+            compare(a1, a1);//checks the type
+            return True;
+        }
+
+        @Override
+        public MyDataType apply2(MyDataType a1, MyDataType a2) throws SyntaxError {
+            return holds(compare(a1, a2)) ? True : False;
+        }
+
+        @Override
+        public MyDataType applyN(MyDataType... args) throws SyntaxError {
+            if (args.length < 2) {
+                if (args.length == 0)
+                    throw new SyntaxError(value + " expects at least 1 arg but got 0");
+                return apply1(args[0]);
             }
-        }.setIs_core(true));
+            //every argument is checked, even after the comparison failed
+            boolean result = true;
+            for (int i = 1; i < args.length; i++)
+                result &= holds(compare(args[i - 1], args[i]));
+            return result ? True : False;
+        }
+
+        /**
+         * @param order negative, zero or positive if the first argument is less than, equal to or greater than the
+         *              second
+         */
+        private boolean holds(int order) {
+            return switch (relation) {
+                case EQUAL -> order == 0;
+                case LESS -> order < 0;
+                case GREATER -> order > 0;
+                case LESS_OR_EQUAL -> order <= 0;
+                default -> order >= 0;
+            };
+        }
+
+        private int compare(MyDataType a1, MyDataType a2) throws SyntaxError {
+            if (a1 instanceof IntegerType x && a2 instanceof IntegerType y)
+                return Long.compare(x.value, y.value);
+            return bigValue(this, a1).compareTo(bigValue(this, a2));
+        }
+    }
+
+    private static BigInteger bigValue(MyFunction function, MyDataType a) throws SyntaxError {
+        if (a instanceof IntegerType integer)
+            return BigInteger.valueOf(integer.value);
+        if (a instanceof BigIntegerType integer)
+            return integer.value;
+        throw new SyntaxError(function + " expects integers, but got: " + a);
+    }
+
+    /**
+     * basic arithmetic functions on integers (+,-,*,/) and comparisons (=,<,>,<=,>=), all take any number of arguments
+     */
+    private static void initArithmetics() {
+        env.put("+", new Arithmetic("+", Arithmetic.ADD, 0, true));
+        //(- x) negates x
+        env.put("-", new Arithmetic("-", Arithmetic.SUBTRACT, 0, false));
+        env.put("*", new Arithmetic("*", Arithmetic.MULTIPLY, 1, true));
+        //rounds towards 0, (/ x) is (/ 1 x)
+        env.put("/", new Arithmetic("/", Arithmetic.DIVIDE, 1, false));
+
+        env.put("=", new Comparison("=", Comparison.EQUAL));
+        env.put("<", new Comparison("<", Comparison.LESS));
+        env.put(">", new Comparison(">", Comparison.GREATER));
+        env.put("<=", new Comparison("<=", Comparison.LESS_OR_EQUAL));
+        env.put(">=", new Comparison(">=", Comparison.GREATER_OR_EQUAL));
+    }
+
+    /**
+     * Core function taking one argument, calls with any other number of arguments fail.
+     */
+    private abstract static class Unary extends Builtin {
+        Unary(String name) {
+            super(name);
+        }
+
+        @Override
+        public abstract MyDataType apply1(MyDataType exp) throws REPLErrors, ReaderErrors;
+
+        @Override
+        public MyDataType applyN(MyDataType... args) throws SyntaxError {
+            throw new SyntaxError("Expected 1 arg but got " + args.length);
+        }
+    }
+
+    /**
+     * Core function taking no arguments, calls with arguments fail.
+     */
+    private abstract static class Nullary extends Builtin {
+        Nullary(String name) {
+            super(name);
+        }
+
+        @Override
+        public abstract MyDataType apply0() throws REPLErrors, ReaderErrors;
+
+        @Override
+        public MyDataType applyN(MyDataType... args) throws SyntaxError {
+            throw new SyntaxError("Expected 0 args but got " + args.length);
+        }
     }
 
     /**
@@ -219,93 +589,140 @@ public class Core {
     private static void initUtilities() {
         //parse
         //returns the parsed S-expression from  a string
-        env.put("parse", new MyFunction("parse") {
+        env.put("parse", new Unary("parse") {
             @Override
-            public MyDataType apply(ListType args) throws REPLErrors, ReaderErrors {
-                if (args.size() != 1)
-                    throw new SyntaxError("Expected 1 arg but got " + args.size());
-                MyDataType exp = args.get(0);
+            public MyDataType apply1(MyDataType exp) throws REPLErrors, ReaderErrors {
                 if (exp instanceof StringType)
-                    return REPL.read(((StringType) exp).value);
+                    return parseCache.read(((StringType) exp).value);
                 else throw new SyntaxError("parse expects a string to parse");
             }
-        }.setIs_core(true));
+        });
+
+        //returns the counters of the parse cache as ((hits n) (misses n) (size n) (capacity n))
+        env.put("parse-stats", new Nullary("parse-stats") {
+            @Override
+            public MyDataType apply0() {
+                return new ListType(
+                        new ListType(SymbolType.intern("hits"), IntegerType.valueOf(parseCache.hits())),
+                        new ListType(SymbolType.intern("misses"), IntegerType.valueOf(parseCache.misses())),
+                        new ListType(SymbolType.intern("size"), IntegerType.valueOf(parseCache.size())),
+                        new ListType(SymbolType.intern("capacity"), IntegerType.valueOf(parseCache.capacity())));
+            }
+        });
 
         //returns the evaluated S-expression
-        env.put("eval", new MyFunction("eval") {
+        env.put("eval", new Unary("eval") {
             @Override
-            public MyDataType apply(ListType args) throws REPLErrors, ReaderErrors {
-                if (args.size() != 1)
-                    throw new SyntaxError("Expected 1 arg but got " + args.size());
-                MyDataType exp = args.get(0);
+            public MyDataType apply1(MyDataType exp) throws REPLErrors, ReaderErrors {
                 return REPL.eval(exp, REPL.globalEnv);
             }
-        }.setIs_core(true));
+        });
 
         //loads a file (absolute or relative path passed as a StingType) and evaluates the content, returns Nil
-        env.put("load", new MyFunction("load") {
+        env.put("load", new Unary("load") {
             @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() != 1)
-                    throw new SyntaxError("Expected 1 arg but got " + args.size());
-                MyDataType exp = args.get(0);
+            public MyDataType apply1(MyDataType exp) throws SyntaxError {
                 if ((exp instanceof StringType)) {
                     String path = ((StringType) exp).value;
                     Main.parseFile(path);
-                    Main.scanner = new Scanner(System.in);
                     return Nil;
                 } else
                     throw new SyntaxError("load expects a string with a filepath, but got: " + exp);
             }
-        }.setIs_core(true));
+        });
         //expects 1 expression and prints information about it
-        env.put("debug", new MyFunction("debug") {
+        env.put("debug", new Unary("debug") {
             @Override
-            public MyDataType apply(ListType args) throws REPLErrors, ReaderErrors {
-                if (args.size() != 1) throw new SyntaxError("Expected 1 arg but got " + args.size());
-                MyDataType exp = args.get(0);
+            public MyDataType apply1(MyDataType exp) throws REPLErrors, ReaderErrors {
                 String info = debug(exp);
                 return new StringType("\n" + info);
             }
-        }.setIs_core(true));
+        });
 
         //expands macro with the given args, in global env
-        env.put("macroexpand", new MyFunction("macroexpand") {
+        env.put("macroexpand", new Unary("macroexpand") {
+            @Override
+            public MyDataType apply1(MyDataType exp) throws REPLErrors, ReaderErrors {
+                return REPL.macroexpand(exp, REPL.globalEnv);
+            }
+        });
+
+        //returns the bytecode and constant pool of a function as a string, see BytecodeCompiler
+        env.put("disassemble", new Unary("disassemble") {
             @Override
-            public MyDataType apply(ListType args) throws REPLErrors, ReaderErrors {
-                if (args.size() != 1) throw new SyntaxError("Expected 1 arg but got " + args.size());
-                return REPL.macroexpand(args.get(0), REPL.globalEnv);
+            public MyDataType apply1(MyDataType exp) throws SyntaxError {
+                if (!(exp instanceof Analyzer.Closure function))
+                    throw new SyntaxError("disassemble expects a function made by lambda or defun, but got: " + exp);
+                BytecodeCompiler.Code code = function.code();
+                if (code == null)
+                    throw new SyntaxError("function " + function + " is too large to be compiled");
+                return new StringType("\n" + code.disassemble());
             }
-        }.setIs_core(true));
+        });
+
+        //returns the form after expanding its macros and the rewrites of the optimizer, see Optimizer
+        env.put("optimize", new Unary("optimize") {
+            @Override
+            public MyDataType apply1(MyDataType exp) throws REPLErrors, ReaderErrors {
+                return Optimizer.optimize(exp);
+            }
+        });
+
+        //returns how the function runs as ((tier name) (calls n) (back-edges n) (compiling bool)), see Tiers
+        env.put("tier-info", new Unary("tier-info") {
+            @Override
+            public MyDataType apply1(MyDataType exp) throws SyntaxError {
+                if (!(exp instanceof Analyzer.Closure function))
+                    throw new SyntaxError("tier-info expects a function made by lambda or defun, but got: " + exp);
+                Analyzer.Lambda lambda = function.lambda;
+                return new ListType(
+                        new ListType(SymbolType.intern("tier"), SymbolType.intern(Tiers.tier(function))),
+                        new ListType(SymbolType.intern("calls"), IntegerType.valueOf(lambda.calls)),
+                        new ListType(SymbolType.intern("back-edges"), IntegerType.valueOf(lambda.backEdges)),
+                        new ListType(SymbolType.intern("compiling"), lambda.compiling ? True : False));
+            }
+        });
+
+        //returns the counters of the expansions kept by macro call sites as ((hits n) (misses n) (invalidations n))
+        env.put("macroexpand-stats", new Nullary("macroexpand-stats") {
+            @Override
+            public MyDataType apply0() {
+                long[] stats = Analyzer.expansionStats();
+                return new ListType(
+                        new ListType(SymbolType.intern("hits"), IntegerType.valueOf(stats[0])),
+                        new ListType(SymbolType.intern("misses"), IntegerType.valueOf(stats[1])),
+                        new ListType(SymbolType.intern("invalidations"), IntegerType.valueOf(stats[2])));
+            }
+        });
 
         //prints the value of a given expression, gets printed before the main loops print of input/output
-        env.put("print", new MyFunction("print") {
+        env.put("print", new Unary("print") {
             @Override
-            public MyDataType apply(ListType args) throws REPLErrors {
-                if (args.size() != 1) throw new SyntaxError("Expected 1 arg but got " + args.size());
-                System.out.println("print: " + REPL.print(args.get(0)));
+            public MyDataType apply1(MyDataType exp) throws REPLErrors {
+                System.out.println("print: " + REPL.print(exp));
                 return Nil;
             }
-        }.setIs_core(true));
+        });
 
         //concatenates 0 or more lists aka append
-        env.put("concat", new MyFunction("concat") {
+        env.put("concat", new Builtin("concat") {
             @Override
-            public MyDataType apply(ListType args) throws SyntaxError {
-                if (args.size() == 0)
+            public MyDataType applyN(MyDataType... args) throws SyntaxError {
+                if (args.length == 0)
                     return new ListType();
-                else {
-                    ArrayList<MyDataType> result = new ArrayList<>();
-                    for (MyDataType list : args.getValue()) {
-                        if (!list.isList())
-                            throw new SyntaxError("Error: concat only takes lists as arguments");
-                        else
-                            result.addAll(((ListType) list).getValue());
-                    }
-                    return new ListType(result);
+                for (MyDataType list : args)
+                    if (!list.isList())
+                        throw new SyntaxError("Error: concat only takes lists as arguments");
+                //the elements of the other lists are consed onto the last one, which is shared
+                ListType result = (ListType) args[args.length - 1];
+                for (int i = args.length - 2; i >= 0; i--) {
+                    MyDataType[] elements = ((ListType) args[i]).toArray();
+                    for (int j = elements.length - 1; j >= 0; j--)
+                        result = ListType.cons(elements[j], result);
                 }
+                return result;
             }
-        }.setIs_core(true));
+        });
 
     }
 
@@ -332,10 +749,16 @@ public class Core {
             }//same for user defined functions and macros
             debugInfo.append("\t".repeat(indent)).append("Internal Parameters: ").append(((MyFunction) exp).getParameters()).append("\n");
             debugInfo.append("\t".repeat(indent)).append("Body: ").append(((MyFunction) exp).getBody()).append("\n");
+            String location = SourceMap.describe(function.getBody());
+            if (location != null)
+                debugInfo.append("\t".repeat(indent)).append("Defined at: ").append(location).append("\n");
         } else if (exp instanceof ListType list) {
             //basic info about the list and its elements along with more detailed info about function/macro calls
             debugInfo.append("\t".repeat(indent)).append("Is a List containing the values: ").append(list.getValue()).append("\n");
             debugInfo.append("\t".repeat(indent)).append("Size: ").append(list.size()).append("\n");
+            String location = SourceMap.describe(list);
+            if (location != null)
+                debugInfo.append("\t".repeat(indent)).append("Read from: ").append(location).append("\n");
 
             if (list.get(0) instanceof SymbolType a0) {//first element is a symbol
                 boolean isSpecial = Pattern.matches("(def!|let\\*|cond|quote|lambda|defun|defmacro)", a0.getValue());
@@ -353,7 +776,7 @@ public class Core {
                     //case 2: function call
                 } else {
                     //check what it evals to
-                    MyDataType a0e = REPL.evalAST(a0, REPL.globalEnv);
+                    MyDataType a0e = REPL.eval(a0, REPL.globalEnv);
                     if (a0e instanceof MyFunction fun) {
                         //case 1: evals to a function/macro
                         if (fun.isMacro()) {
@@ -388,7 +811,7 @@ public class Core {
             }
         } else if (exp instanceof SymbolType)
             debugInfo.append("\t".repeat(indent)).append("Is a symbol with value: ").append(exp.getValue()).append("\n");
-        else if (exp instanceof IntegerType)
+        else if (exp instanceof IntegerType || exp instanceof BigIntegerType)
             debugInfo.append("\t".repeat(indent)).append("Is an integer with value: ").append(exp.getValue()).append("\n");
         else if (exp instanceof StringType)
             debugInfo.append("\t".repeat(indent)).append("Is a string with value: ").append(exp.getValue()).append("\n");
@@ -407,7 +830,7 @@ public class Core {
         while (REPL.is_macro_call(expandedAST, REPL.globalEnv)) {
             info.append("\t".repeat(indent)).append("Step  " + step + "\n");
 
-            MyFunction macro = (MyFunction) env.get(((ListType) expandedAST).get(0).toString());
+            MyFunction macro = (MyFunction) env.get((SymbolType) ((ListType) expandedAST).get(0));
             expandedAST = macro.apply(((ListType) expandedAST).rest());
             step++;
             info.append("\t".repeat(indent + 1)).append("resulting AST --> " + expandedAST + "\n");
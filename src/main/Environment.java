@@ -10,13 +10,33 @@ import static main.Types.SymbolType;
  * Environment
  */
 public class Environment {
-    HashMap<String, MyDataType> env;
+    //keys are canonical symbols, compared by reference
+    HashMap<SymbolType, Cell> env;
     Environment outer;
 
+    /**
+     * Holds the value bound to a name, null while the name is unbound. A name keeps its cell for the lifetime of the
+     * environment, rebinding it only changes the value, so code can look up the cell once and read the current value
+     * from it without hashing the name again.
+     * <p>
+     * The value is volatile since the background compiler reads the cells the REPL thread writes, e.g. to check the
+     * guards of the code it compiles, and must see the latest value.
+     */
+    public static final class Cell {
+        volatile MyDataType value;
+
+        public MyDataType get() {
+            return value;
+        }
+    }
+
 
-    public Environment(HashMap<String, MyDataType> map) {
+    /**
+     * Creates an empty environment without outer environment, i.e. a global environment.
+     */
+    public Environment() {
         outer = null;
-        env = map;
+        env = new HashMap<>();
     }
 
     public Environment(Environment outer) {
@@ -25,25 +45,27 @@ public class Environment {
     }
 
     /**
-     * Tries to recursively get the expression associated with the key in the environment "chain". First looks in this
+     * Tries to get the expression associated with the key in the environment "chain". First looks in this
      * environment and if the key was not found it looks in the outer environment until it reaches the global environment.
-     * Returns the expression when found or null if key is not present in any of the outer environments.
+     * Returns the expression when found or null if key is not present in any of the outer envs.
      *
      * @param key Symbol key to look up (variable name)
      * @return the expression mapped to the key or null if not found in this or any of the outer envs.
      */
-    public MyDataType get(String key) {
-        MyDataType fun = env.get(key);
-        if (fun != null)
-            return fun;
-        else if (outer != null)
-            return outer.get(key);
-        else
-            return null;
+    public MyDataType get(SymbolType key) {
+        key = key.canonical();
+        Environment e = this;
+        do {
+            Cell cell = e.env.get(key);
+            if (cell != null && cell.value != null)
+                return cell.value;
+            e = e.outer;
+        } while (e != null);
+        return null;
     }
 
-    public MyDataType get(SymbolType key) {
-        return this.get(key.getValue());
+    public MyDataType get(String key) {
+        return this.get(SymbolType.intern(key));
     }
 
     /**
@@ -54,26 +76,20 @@ public class Environment {
      * @param exp an expression
      */
     public void put(String key, MyDataType exp) {
-        this.env.put(key, exp);
+        cell(SymbolType.intern(key)).value = exp;
     }
 
     public void put(SymbolType key, MyDataType exp) {
-        this.env.put(key.getValue(), exp);
+        cell(key).value = exp;
     }
 
     /**
-     * Finds the first environment that has a mapping for the key/symbol, null if none found.
+     * Returns the cell of the key in this env, creating an empty one if the key isn't bound yet.
      *
      * @param key symbol/variable name
-     * @return env with holding a value for the key, null if none found
+     * @return the cell holding the value of the key in this env
      */
-    public Environment lookup(SymbolType key) {
-        MyDataType fun = env.get(key.getValue());
-        if (fun != null)
-            return this;
-        else if (outer != null)
-            return outer.lookup(key);
-        else
-            return null;
+    public Cell cell(SymbolType key) {
+        return env.computeIfAbsent(key.canonical(), k -> new Cell());
     }
 }
@@ -0,0 +1,276 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static main.Types.*;
+
+/**
+ * Binary cache of the forms read from a source file, stored next to it as {@code <file>.malc}. The cache starts with
+ * the SHA-256 hash of the source it was made from, a cache whose hash doesn't match the current source is ignored and
+ * overwritten, so changing the file invalidates it.
+ * <p>
+ * Layout: magic, version, hash, symbol table, forms. Every symbol name is written once in the table and referenced by
+ * index, on load each entry is interned so the forms share the canonical symbols just like freshly read ones. Lists
+ * carry the line and column they were read from, so source positions survive the cache.
+ */
+public class FormCache {
+    private static final int MAGIC = 0x4D414C43;//"MALC"
+    private static final int VERSION = 3;
+    private static final byte LIST = 0, SYMBOL = 1, INTEGER = 2, STRING = 3, NIL = 4, TRUE = 5, FALSE = 6,
+            BIG_INTEGER = 7, VECTOR = 8;
+
+    /**
+     * Set to false with -Dlisp.formCache=false to always read files from source and never write cache files.
+     */
+    public static boolean enabled = !"false".equals(System.getProperty("lisp.formCache"));
+
+    /**
+     * @return path of the cache file for the source file
+     */
+    public static Path cacheFile(Path source) {
+        return source.resolveSibling(source.getFileName() + ".malc");
+    }
+
+    /**
+     * @return SHA-256 hash of the remaining bytes of source, the position of source is left unchanged
+     */
+    public static byte[] hash(ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);//every JVM has to support it
+        }
+    }
+
+    /**
+     * Loads the forms from the cache file if it was made from a source with the given hash.
+     *
+     * @param cache  cache file
+     * @param hash   hash of the current source, see {@link #hash(ByteBuffer)}
+     * @param fileId id of the source in the {@link SourceMap}, or -1 to not record positions
+     * @return the forms in source order, null if there is no usable cache for this source
+     */
+    public static List<MyDataType> load(Path cache, byte[] hash, int fileId) {
+        ByteBuffer in;
+        try {
+            if (!Files.isRegularFile(cache))
+                return null;
+            in = ByteBuffer.wrap(Files.readAllBytes(cache));
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION)
+                return null;
+            byte[] stored = new byte[hash.length];
+            in.get(stored);
+            if (!Arrays.equals(stored, hash))
+                return null;//stale
+            SymbolType[] symbols = new SymbolType[in.getInt()];
+            for (int i = 0; i < symbols.length; i++)
+                symbols[i] = SymbolType.intern(readString(in));
+            int count = in.getInt();
+            List<MyDataType> forms = new ArrayList<>(count);
+            HashMap<ListType, Long> positions = fileId < 0 ? null : new HashMap<>();
+            for (int i = 0; i < count; i++)
+                forms.add(readForm(in, symbols, fileId, positions));
+            if (in.hasRemaining())
+                return null;
+            if (positions != null)
+                SourceMap.addAll(positions);
+            return forms;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;//truncated or corrupt, will be overwritten
+        }
+    }
+
+    /**
+     * Writes the forms to the cache file. The file is written under a temporary name first and then moved into place,
+     * so a crash never leaves a half written cache behind. Failing to write the cache is not an error, the file is just
+     * read from source next time.
+     *
+     * @param cache cache file
+     * @param hash  hash of the source the forms were read from
+     * @param forms forms in source order, as returned by the reader
+     * @return true if the cache was written
+     */
+    public static boolean store(Path cache, byte[] hash, List<MyDataType> forms) {
+        IdentityHashMap<SymbolType, Integer> symbols = new IdentityHashMap<>();
+        List<String> names = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(forms.size());
+            for (MyDataType form : forms)
+                writeForm(out, form, symbols, names);
+            out = new DataOutputStream(header);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+            out.writeInt(names.size());
+            for (String name : names)
+                writeString(out, name);
+            body.writeTo(header);
+
+            Path temp = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, header.toByteArray());
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static void writeForm(DataOutputStream out, MyDataType form, IdentityHashMap<SymbolType, Integer> symbols,
+                                  List<String> names) throws IOException {
+        if (form instanceof ListType list) {
+            out.writeByte(LIST);
+            long position = SourceMap.get(list);
+            writeVarInt(out, position < 0 ? 0 : SourceMap.line(position));
+            writeVarInt(out, position < 0 ? 0 : SourceMap.column(position));
+            writeVarInt(out, list.size());
+            for (MyDataType element : list.getValue())
+                writeForm(out, element, symbols, names);
+        } else if (form instanceof VectorType vector) {
+            out.writeByte(VECTOR);
+            writeVarInt(out, vector.size());
+            for (MyDataType element : vector.toArray())
+                writeForm(out, element, symbols, names);
+        } else if (form instanceof SymbolType symbol) {
+            Integer index = symbols.get(symbol.canonical());
+            if (index == null) {
+                index = names.size();
+                symbols.put(symbol.canonical(), index);
+                names.add(symbol.getValue());
+            }
+            out.writeByte(SYMBOL);
+            writeVarInt(out, index);
+        } else if (form instanceof IntegerType integer) {
+            out.writeByte(INTEGER);
+            out.writeLong(integer.longValue());
+        } else if (form instanceof BigIntegerType integer) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, integer.toString());
+        } else if (form instanceof StringType string) {
+            out.writeByte(STRING);
+            writeString(out, string.getValue());
+        } else if (form == Nil) {
+            out.writeByte(NIL);
+        } else if (form == True) {
+            out.writeByte(TRUE);
+        } else if (form == False) {
+            out.writeByte(FALSE);
+        } else {
+            throw new IOException("can't cache " + form);//the reader only produces the types above
+        }
+    }
+
+    private static MyDataType readForm(ByteBuffer in, SymbolType[] symbols, int fileId, Map<ListType, Long> positions) {
+        byte tag = in.get();
+        switch (tag) {
+            case LIST -> {
+                int line = readVarInt(in), column = readVarInt(in);
+                int size = readVarInt(in);
+                if (size > in.remaining())
+                    throw new IllegalArgumentException("corrupt list size");
+                ArrayList<MyDataType> elements = new ArrayList<>(size);
+                for (int i = 0; i < size; i++)
+                    elements.add(readForm(in, symbols, fileId, positions));
+                ListType list = new ListType(elements);
+                if (positions != null && line > 0)
+                    positions.put(list, SourceMap.pack(fileId, line, column));
+                return list;
+            }
+            case VECTOR -> {
+                int size = readVarInt(in);
+                if (size > in.remaining())
+                    throw new IllegalArgumentException("corrupt vector size");
+                VectorType.Transient vector = VectorType.EMPTY.asTransient();
+                for (int i = 0; i < size; i++)
+                    vector.conj(readForm(in, symbols, fileId, positions));
+                return vector.persistent();
+            }
+            case SYMBOL -> {
+                return symbols[readVarInt(in)];
+            }
+            case INTEGER -> {
+                return IntegerType.valueOf(in.getLong());
+            }
+            case BIG_INTEGER -> {
+                return BigIntegerType.valueOf(new BigInteger(readString(in)));
+            }
+            case STRING -> {
+                return new StringType(readString(in));
+            }
+            case NIL -> {
+                return Nil;
+            }
+            case TRUE -> {
+                return True;
+            }
+            case FALSE -> {
+                return False;
+            }
+            default -> throw new IllegalArgumentException("unknown tag " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length > in.remaining())
+            throw new BufferUnderflowException();
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    //unsigned LEB128, lines, columns, sizes and indices are mostly below 128 and take a single byte
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+}
@@ -0,0 +1,358 @@
+package main;
+
+import main.REPLErrors.SyntaxError;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static main.ReaderErrors.ParseError;
+import static main.Types.ListType;
+import static main.Types.MyDataType;
+
+/**
+ * Reader that pulls its characters from a {@link java.io.Reader} or a {@link CharBuffer} and returns the complete
+ * forms it finds one after another. Tokens are produced on demand, following the same rules as
+ * {@link Reader#tokenize(String)} except that comments only extend to the end of their line. Apart from the form
+ * being built only a fixed size buffer and the current token are kept in memory.
+ */
+public class FormStream extends Reader implements Closeable {
+    private final java.io.Reader in;
+    private final CharBuffer chars;
+    private final char[] buffer;
+    private int bufferPosition = 0, bufferLimit = 0;
+
+    private String lookahead = null;//token returned by peek but not yet consumed
+    private int depth = 0;//open brackets of the form currently being read
+    private final StringBuilder text = new StringBuilder();//characters of the current symbol or string token
+
+    //source positions, only recorded if the stream was created with a file id
+    private final HashMap<ListType, Long> positions;
+    private final int fileId;
+    private int line, lineStart = 0, scanned = 0;//line of the characters up to offset scanned, which starts at lineStart
+    private long[] opened = null;//positions of the opening brackets of the unfinished lists
+    private int openCount = 0;
+
+    public FormStream(java.io.Reader in) {
+        this.in = in;
+        this.chars = null;
+        this.buffer = new char[8192];
+        this.positions = null;
+        this.fileId = -1;
+    }
+
+    public FormStream(CharBuffer chars) {
+        this.in = null;
+        this.chars = chars;
+        this.buffer = null;
+        this.positions = null;
+        this.fileId = -1;
+    }
+
+    /**
+     * Creates a stream that records the position of every list it reads, see {@link #positions()}.
+     *
+     * @param chars     source, or the part of it starting at firstLine
+     * @param fileId    id of the source file, see {@link SourceMap#fileId(String)}
+     * @param firstLine line number of the first character in chars
+     */
+    public FormStream(CharBuffer chars, int fileId, int firstLine) {
+        this.in = null;
+        this.chars = chars;
+        this.buffer = null;
+        this.positions = new HashMap<>();
+        this.fileId = fileId;
+        this.line = firstLine;
+        this.opened = new long[16];
+    }
+
+    /**
+     * @return the packed positions of the lists read so far, empty if this stream doesn't record positions
+     */
+    public Map<ListType, Long> positions() {
+        return positions == null ? Map.of() : positions;
+    }
+
+    @Override
+    void listRead(ListType list) {
+        if (positions != null && openCount > 0)
+            positions.put(list, opened[--openCount]);
+    }
+
+    /**
+     * Remembers the position of an opening bracket at the given offset until its list is complete. Brackets are read
+     * in ascending order, so the lines only have to be counted from the previous bracket on.
+     */
+    private void opened(int offset) {
+        for (int i = scanned; i < offset; i++) {
+            if (chars.get(i) == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        scanned = offset;
+        if (openCount == opened.length)
+            opened = Arrays.copyOf(opened, openCount * 2);
+        opened[openCount++] = SourceMap.pack(fileId, line, offset - lineStart + 1);
+    }
+
+    /**
+     * Reads the next complete form from the stream.
+     *
+     * @return the next form, null if the end of the stream is reached
+     * @throws SyntaxError        malformed tokens or closing bracket without opening bracket
+     * @throws ReaderErrors.ParenMismatchError if the stream ends inside of a form
+     * @throws ParseError         for unrecognized atoms or if the stream ends after a quote
+     */
+    public MyDataType nextForm() throws REPLErrors, ReaderErrors {
+        depth = 0;
+        openCount = 0;
+        String token = peek();
+        if (token == null)
+            return null;
+        if (token.equals(")") || token.equals("]")) {
+            next();
+            throw new SyntaxError(token.equals(")") ? "unexpected ')' without matching '('"
+                    : "unexpected ']' without matching '['");
+        }
+        return readForm(this);
+    }
+
+    /**
+     * Skips the rest of the form that was being read when an error occurred, so reading can continue with the next
+     * form.
+     */
+    public void skipForm() {
+        lookahead = null;
+        while (depth > 0) {
+            try {
+                if (nextToken() == null)
+                    break;//EOF
+            } catch (REPLErrors ignored) {
+                //malformed tokens inside of a broken form don't matter
+            }
+        }
+        depth = 0;
+    }
+
+    /**
+     * Splits the encoded source into chunks of roughly chunkSize bytes. Chunks only end after a line break that is
+     * outside of any form, string or comment, so every chunk holds complete forms and can be read on its own. Works on
+     * the bytes of ascii compatible encodings (e.g. UTF-8) since brackets, quotes and line breaks are never part of a
+     * multibyte character in them.
+     *
+     * @param source    bytes of the source file
+     * @param chunkSize minimum size of a chunk in bytes
+     * @return slices of source in order, together they cover all of source
+     */
+    public static List<Chunk> split(ByteBuffer source, int chunkSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        int length = source.limit();
+        int start = 0, depth = 0;
+        int line = 1, startLine = 1;
+        boolean quoted = false;//a quote at the top level that still needs its form
+        int i = 0;
+        while (i < length) {
+            byte b = source.get(i++);
+            switch (b) {
+                case '(', '[' -> {
+                    depth++;
+                    quoted = false;
+                }
+                case ')', ']' -> depth = Math.max(depth - 1, 0);
+                case '\'', '`' -> quoted = true;
+                case ',' -> {
+                    quoted = true;
+                    if (i < length && source.get(i) == '@')
+                        i++;
+                }
+                case ';' -> {
+                    while (i < length && source.get(i) != '\n' && source.get(i) != '\r')
+                        i++;
+                }
+                case '"' -> {
+                    quoted = false;
+                    while (i < length) {
+                        byte c = source.get(i++);
+                        if (c == '"')
+                            break;
+                        if (c == '\n')
+                            line++;
+                        else if (c == '\\' && i < length && source.get(i) != '\n' && source.get(i) != '\r')
+                            i++;
+                    }
+                }
+                case '\n' -> {
+                    line++;
+                    if (depth == 0 && !quoted && i - start >= chunkSize) {
+                        chunks.add(new Chunk(source.slice(start, i - start), startLine));
+                        start = i;
+                        startLine = line;
+                    }
+                }
+                case ' ', '\t', '\u000B', '\f', '\r' -> {
+                }
+                default -> quoted = false;//part of an atom
+            }
+        }
+        if (start < length || chunks.isEmpty())
+            chunks.add(new Chunk(source.slice(start, length - start), startLine));
+        return chunks;
+    }
+
+    /**
+     * Part of a source file holding complete forms, starting at the given line.
+     */
+    public record Chunk(ByteBuffer bytes, int line) {
+    }
+
+    @Override
+    public String peek() throws REPLErrors {
+        if (lookahead == null)
+            lookahead = nextToken();
+        return lookahead;
+    }
+
+    @Override
+    public String next() throws REPLErrors {
+        String token = peek();
+        lookahead = null;
+        return token;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+
+    /**
+     * Reads characters until the next token is complete.
+     *
+     * @return the next token or null at the end of the stream
+     * @throws SyntaxError empty or unclosed strings
+     */
+    String nextToken() throws REPLErrors {
+        int c;
+        while ((c = peekChar()) >= 0) {
+            switch (c) {
+                case ' ', '\t', '\n', '\u000B', '\f', '\r' -> readChar();
+                case '(' -> {
+                    if (positions != null)
+                        opened(chars.position());
+                    readChar();
+                    depth++;
+                    return "(";
+                }
+                case ')' -> {
+                    readChar();
+                    depth--;
+                    return ")";
+                }
+                case '[' -> {
+                    readChar();
+                    depth++;
+                    return "[";
+                }
+                case ']' -> {
+                    readChar();
+                    depth--;
+                    return "]";
+                }
+                case '\'' -> {
+                    readChar();
+                    return "'";
+                }
+                case '`' -> {
+                    readChar();
+                    return "`";
+                }
+                case ',' -> {
+                    readChar();
+                    if (peekChar() == '@') {
+                        readChar();
+                        return ",@";
+                    }
+                    return ",";
+                }
+                case ';' -> {//comment, skip to the end of the line
+                    while ((c = peekChar()) >= 0 && !isLineTerminator((char) c))
+                        readChar();
+                }
+                case '"' -> {
+                    return readString();
+                }
+                default -> {
+                    text.setLength(0);
+                    boolean blank = true;
+                    do {
+                        readChar();
+                        if (blank && !Character.isWhitespace(c))
+                            blank = false;
+                        text.append((char) c);
+                    } while ((c = peekChar()) >= 0 && !isDelimiter((char) c));
+                    if (!blank)
+                        return text.toString();
+                }
+            }
+        }
+        return null;
+    }
+
+    private String readString() throws REPLErrors {
+        text.setLength(0);
+        text.append((char) readChar());
+        int c;
+        while ((c = readChar()) >= 0) {
+            text.append((char) c);
+            if (c == '"')
+                break;
+            if (c == '\\') {
+                c = peekChar();
+                if (c < 0 || isLineTerminator((char) c))
+                    break;//nothing to escape
+                text.append((char) readChar());
+            }
+        }
+        if (text.length() < 3 || text.charAt(text.length() - 1) != '"')//doesn't allow non closed "foo or empty "" strings
+            throw new SyntaxError("missing closing quote or empty quotes/string");
+        return text.toString();
+    }
+
+    private int peekChar() {
+        if (chars != null)
+            return chars.hasRemaining() ? chars.get(chars.position()) : -1;
+        if (bufferPosition == bufferLimit && !fill())
+            return -1;
+        return buffer[bufferPosition];
+    }
+
+    private int readChar() {
+        if (chars != null)
+            return chars.hasRemaining() ? chars.get() : -1;
+        if (bufferPosition == bufferLimit && !fill())
+            return -1;
+        return buffer[bufferPosition++];
+    }
+
+    private boolean fill() {
+        try {
+            int read;
+            do {
+                read = in.read(buffer, 0, buffer.length);
+            } while (read == 0);
+            bufferPosition = 0;
+            bufferLimit = Math.max(read, 0);
+            return read > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static main.Analyzer.*;
+import static main.Types.*;
+
+/**
+ * Substitutes the bodies of small defuns for calls of them while the caller is analyzed, so e.g. (null. x) runs
+ * (eq x '()) without making a call and a frame. The parameters get slots in the frame of the caller, the body is
+ * analyzed again in a scope holding only the parameters, so it sees the globals it saw before and never the local
+ * variables of the caller. The arguments are analyzed and evaluated in the caller's scope as usual.
+ * <p>
+ * Only calls inside functions and let* forms are inlined, top level forms run once. The callee must be a function
+ * defined at the top level that gets the number of arguments it expects, with a body of at most {@link #maxSize}
+ * forms that doesn't call the function itself and doesn't define functions, macros or globals. Bodies are inlined
+ * into each other up to a depth of {@link #MAX_DEPTH}, a function isn't inlined again into its own inlined body,
+ * which ends mutual recursion. The scope of the body remembers the functions it was inlined from, macro calls in it
+ * are expanded later in that scope.
+ * <p>
+ * The inlined body is {@link Guarded} by the function the name held during analysis, the call is made again once the
+ * function is redefined.
+ * <p>
+ * On by default, -Dlisp.inline=false turns it off, -Dlisp.inlineSize=n sets the size limit (default 24 forms).
+ */
+public class Inliner {
+    public static boolean enabled = !"false".equals(System.getProperty("lisp.inline"));
+    public static int maxSize = Integer.getInteger("lisp.inlineSize", 24);
+
+    private static final int MAX_DEPTH = 4;
+    private static final List<SymbolType> DEFINITIONS = List.of(SymbolType.intern("lambda"),
+            SymbolType.intern("defun"), SymbolType.intern("defmacro"), SymbolType.intern("def!"));
+
+    private Inliner() {
+    }
+
+    /**
+     * @return the body of the function substituted for the call, or the call if it can't be inlined
+     */
+    static Node call(Call call, Scope scope) throws REPLErrors, ReaderErrors {
+        if (!enabled || scope == null || !(call.operator instanceof GlobalRef head)
+                || !(head.cell.get() instanceof Closure closure))
+            return call;
+        Lambda lambda = closure.lambda;
+        if (closure.frame != null || lambda.checkArity || lambda.paramSlots.length != call.operands.length
+                || scope.inlined.contains(lambda) || scope.inlined.size() >= MAX_DEPTH)
+            return call;
+        int[] budget = {maxSize};
+        if (!inlinable(lambda.bodyForm, SymbolType.intern(lambda.name), budget))
+            return call;
+
+        //the parameters share the caller's frame unless frames of its size are already made
+        boolean ownFrame = scope.layout.complete;
+        Layout layout = ownFrame ? new Layout() : scope.layout;
+        ArrayList<Lambda> inlined = new ArrayList<>(scope.inlined);
+        inlined.add(lambda);
+        Scope inner = new Scope(null, layout, List.copyOf(inlined));
+        int[] slots = new int[lambda.paramSlots.length];
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = inner.declare((SymbolType) lambda.params.get(i));
+        Node body = analyze(lambda.bodyForm, inner);
+        if (ownFrame)
+            layout.complete = true;
+        Inline inline = new Inline((ListType) call.form, lambda.params, call.operands, slots,
+                ownFrame ? layout.size : 0, body);
+        return new Guarded(call, inline, new Environment.Cell[]{head.cell}, new MyDataType[]{closure});
+    }
+
+    /**
+     * @param budget number of forms the rest of the body may have, decremented by the forms of this one
+     * @return true if the form fits into the budget and neither calls the function nor defines anything
+     */
+    private static boolean inlinable(MyDataType form, SymbolType name, int[] budget) {
+        if (--budget[0] < 0)
+            return false;
+        if (form instanceof SymbolType symbol)
+            return !symbol.equals(name);
+        if (!(form instanceof ListType list))
+            return true;
+        if (list.size() > 0 && DEFINITIONS.contains(list.get(0)))
+            return false;
+        for (MyDataType element : list.getValue())
+            if (!inlinable(element, name, budget))
+                return false;
+        return true;
+    }
+}
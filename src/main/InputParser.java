@@ -0,0 +1,136 @@
+package main;
+
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import static main.ReaderErrors.ParseError;
+import static main.Types.*;
+
+/**
+ * Parser for interactive input that is fed one line at a time. Forms that span several lines are built up as the
+ * lines arrive, every line is tokenized once and the partially read form is kept between calls. Instead of throwing
+ * errors for incomplete input, comments or empty lines, {@link #feed(String)} answers with a {@link Status}.
+ */
+public class InputParser {
+
+    public enum Status {
+        /**
+         * The line left a form unfinished, e.g. it is missing closing brackets.
+         */
+        NEED_MORE,
+        /**
+         * The line only holds a comment.
+         */
+        COMMENT,
+        /**
+         * The line is empty or blank.
+         */
+        EMPTY,
+        /**
+         * At least one form is complete and can be taken with {@link #nextForm()}.
+         */
+        COMPLETE,
+        /**
+         * The line is malformed, see {@link #getError()}. The unfinished form was discarded.
+         */
+        ERROR
+    }
+
+    //lists and quotes of the unfinished form, innermost last. Quotes are null entries in lists and kept in quotes,
+    //lists have a null entry in quotes and vectors the VECTOR marker
+    private static final SymbolType VECTOR = new SymbolType("[");
+    private final ArrayList<ArrayList<MyDataType>> lists = new ArrayList<>();
+    private final ArrayList<SymbolType> quotes = new ArrayList<>();
+    private final ArrayDeque<MyDataType> forms = new ArrayDeque<>();//completed forms, not yet taken
+    private String error = null;
+
+    /**
+     * Reads the tokens of the line and adds them to the unfinished form. Anything after a comment is ignored.
+     *
+     * @param line one line of input without line terminator
+     * @return COMPLETE if there are complete forms to take, ERROR if the line is malformed, NEED_MORE if a form is
+     * still unfinished, otherwise COMMENT or EMPTY
+     */
+    public Status feed(String line) {
+        error = null;
+        FormStream tokens = new FormStream(CharBuffer.wrap(line));
+        try {
+            String token;
+            while ((token = tokens.nextToken()) != null) {
+                SymbolType quote = Reader.quoteSymbol(token);
+                if (token.equals("(") || token.equals("[")) {
+                    lists.add(new ArrayList<>());
+                    quotes.add(token.equals("[") ? VECTOR : null);
+                } else if (quote != null) {
+                    lists.add(null);
+                    quotes.add(quote);
+                } else if (token.equals(")") || token.equals("]")) {
+                    boolean vector = token.equals("]");
+                    if (lists.isEmpty())
+                        return fail(vector ? "unexpected ']' without matching '['"
+                                : "unexpected ')' without matching '('");
+                    int last = lists.size() - 1;
+                    if (lists.get(last) == null)
+                        return fail("wrong syntax, nothing to quote");
+                    if ((quotes.remove(last) == VECTOR) != vector)
+                        return fail(vector ? "unexpected ']' in a list" : "unexpected ')' in a vector");
+                    ArrayList<MyDataType> elements = lists.remove(last);
+                    complete(vector ? VectorType.of(elements) : new ListType(elements));
+                } else
+                    complete(Reader.readAtom(token));
+            }
+        } catch (REPLErrors | ParseError e) {//malformed strings and atoms
+            return fail(e.getMessage());
+        }
+        if (!forms.isEmpty())
+            return Status.COMPLETE;
+        if (!lists.isEmpty())
+            return Status.NEED_MORE;
+        return line.isBlank() ? Status.EMPTY : Status.COMMENT;
+    }
+
+    /**
+     * @return the next complete form in the order they were read, null if there is none
+     */
+    public MyDataType nextForm() {
+        return forms.poll();
+    }
+
+    /**
+     * @return true if a form was started but isn't complete yet
+     */
+    public boolean isIncomplete() {
+        return !lists.isEmpty();
+    }
+
+    /**
+     * @return the reason for the last ERROR status, null if the last line was fine
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Wraps the finished element in the quotes before it and adds it to the enclosing list, or to the complete forms
+     * if it is not inside of a list.
+     */
+    private void complete(MyDataType element) {
+        int last = lists.size() - 1;
+        while (last >= 0 && lists.get(last) == null) {
+            element = new ListType(quotes.remove(last), element);
+            lists.remove(last--);
+        }
+        if (last < 0)
+            forms.add(element);
+        else
+            lists.get(last).add(element);
+    }
+
+    private Status fail(String message) {
+        lists.clear();
+        quotes.clear();
+        error = message;
+        return Status.ERROR;
+    }
+}
@@ -0,0 +1,1053 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import static main.Analyzer.*;
+import static main.REPLErrors.ApplyError;
+import static main.REPLErrors.SyntaxError;
+import static main.Types.*;
+
+/**
+ * Compiles hot defuns to JVM classes, so HotSpot can inline and optimize Lisp code like Java code. This is the top
+ * tier of {@link Tiers}: the analyzed body is translated to the method of a hidden class, see
+ * {@link MethodHandles.Lookup#defineHiddenClassWithClassData}, which becomes the {@link Entry} of the function.
+ * <p>
+ * The generated code does what the nodes do, in the same order and with the same errors, mostly by calling the small
+ * static helpers at the end of this class. The constants of the body (nodes, cells, quoted forms) are passed as class
+ * data and stored in static final fields. Calls of closures invoke the entry of the callee directly, so every call
+ * site has a type profile of its own and HotSpot inlines calls of other compiled functions. Tail calls of the function
+ * itself become jumps, other tail calls return a {@link TailCall} like the tree walker. Macro calls that were already
+ * expanded are compiled inline, guarded by a check that none of the macros used to expand them was redefined.
+ * <p>
+ * A compiled function stays bound to its lambda: redefining the name creates a new, interpreted function, and calls
+ * through the name reach the new one. Functions too large to be compiled stay interpreted.
+ * <p>
+ * On by default, -Dlisp.jit=false turns it off.
+ */
+public class JvmCompiler {
+    public static boolean enabled = !"false".equals(System.getProperty("lisp.jit"));
+
+    private static final int MAX_INLINE = 8;//nesting of inlined macro expansions
+    private static final int MAX_SIZE = 8000;
+
+    //internal names of the classes used by the generated code
+    private static final String MDT = "main/Types$MyDataType", FRAME = "main/Analyzer$Frame",
+            ENTRY = "main/Analyzer$Entry", CLOSURE = "main/Analyzer$Closure", LAMBDA = "main/Analyzer$Lambda",
+            TAIL_CALL = "main/Analyzer$TailCall", NODE = "main/Analyzer$Node", CALL = "main/Analyzer$Call",
+            MACRO_CALL = "main/Analyzer$MacroCall", EXPANSION = "main/Analyzer$Expansion", REF = "main/Analyzer$Ref",
+            GLOBAL_REF = "main/Analyzer$GlobalRef", CELL = "main/Environment$Cell", SYMBOL = "main/Types$SymbolType",
+            FUNCTION = "main/Types$MyFunction", ANALYZER = "main/Analyzer", HELPERS = "main/JvmCompiler",
+            OBJECT = "java/lang/Object";
+    private static final String D_MDT = "L" + MDT + ";", D_FRAME = "L" + FRAME + ";";
+
+    /**
+     * Compiles the function now unless it is already compiled.
+     *
+     * @param function function made by defun or lambda
+     * @return true if the function is compiled
+     */
+    public static boolean compile(MyFunction function) {
+        if (!(function instanceof Closure closure))
+            return false;
+        if (!(closure.lambda.entry instanceof Interpreted))
+            return true;
+        Entry entry = generate(closure.lambda);
+        if (entry != null)
+            closure.lambda.entry = entry;
+        return entry != null;
+    }
+
+    /**
+     * @return true if the function runs compiled code
+     */
+    public static boolean isCompiled(MyFunction function) {
+        return function instanceof Closure closure && !(closure.lambda.entry instanceof Interpreted);
+    }
+
+    /**
+     * Generates the class of the function. A class the JVM rejects is a bug in the compiler, the error is thrown.
+     *
+     * @return entry running the generated class, null if the function is too large to be compiled
+     */
+    static Entry generate(Lambda lambda) {
+        JvmCompiler compiler;
+        byte[] bytes;
+        try {
+            compiler = new JvmCompiler(lambda, false);
+            try {
+                bytes = compiler.classFile();
+            } catch (TooLarge e) {
+                compiler = new JvmCompiler(lambda, true);
+                bytes = compiler.classFile();
+            }
+        } catch (TooLarge e) {
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);//can't happen with a byte array
+        }
+        Object[] data = compiler.constants.toArray();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClassWithClassData(bytes, data, true);
+            return (Entry) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);//the generated class has a public constructor without parameters
+        }
+    }
+
+    /**
+     * Thrown if the method would be too large, HotSpot never compiles methods larger than 8000 bytes (HugeMethodLimit)
+     * and running them in the JVM's interpreter is slower than the tree walker.
+     */
+    private static final class TooLarge extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge() {
+            super(null, null, false, false);
+        }
+    }
+
+    //JVM opcodes
+    private static final int ICONST_M1 = 2, ICONST_0 = 3, ICONST_1 = 4, BIPUSH = 16, SIPUSH = 17, ILOAD = 21,
+            ALOAD = 25, AALOAD = 50, ISTORE = 54, ASTORE = 58, AASTORE = 83, POP = 87, DUP = 89, SWAP = 95,
+            IFEQ = 153, IFNE = 154, IF_ACMPNE = 166, GOTO = 167, ARETURN = 176, RETURN = 177, GETSTATIC = 178,
+            PUTSTATIC = 179, GETFIELD = 180, INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184, NEW = 187,
+            ANEWARRAY = 189, ATHROW = 191, CHECKCAST = 192, INSTANCEOF = 193, IFNONNULL = 199;
+
+    //locals of the generated method
+    private static final int THIS = 0, FRAME_LOCAL = 1, SITE = 2, FUNCTION_TEMP = 3, FRAME_TEMP = 4, ARGUMENTS = 5;
+
+    private final Lambda lambda;
+    private final boolean compact;//calls through helpers and no inlined expansions, for large bodies
+    private final String className;
+    //class data, each constant is stored in the static field "c" + index
+    private final ArrayList<Object> constants = new ArrayList<>();
+    private final ArrayList<String> constantTypes = new ArrayList<>();
+    private final IdentityHashMap<Object, Integer> constantIndex = new IdentityHashMap<>();
+    private final ArrayList<MyDataType> sites = new ArrayList<>();//calls errors are blamed on
+    private int site = -1;
+    private int inlined = 0;
+
+    //class file constant pool
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    //code of the method being generated
+    private byte[] code = new byte[256];
+    private int size = 0, depth = 0, maxStack = 0, maxLocals = ARGUMENTS;
+    private boolean reachable = true;
+
+    private JvmCompiler(Lambda lambda, boolean compact) {
+        this.lambda = lambda;
+        this.compact = compact;
+        this.className = "main/Compiled$" + lambda.name.replaceAll("[^A-Za-z0-9_$]", "_");
+    }
+
+    private static final class Label {
+        int position = -1, depth;
+        final ArrayList<Integer> jumps = new ArrayList<>();//positions of the jump instructions
+    }
+
+    private byte[] classFile() throws TooLarge, IOException {
+        //enter(Frame), the compiled body
+        Label start = new Label();
+        op(ICONST_M1, 1);
+        local(ISTORE, SITE, -1);
+        bind(start);
+        int tryStart = size;
+        compile(lambda.body, true, start);
+        int tryEnd = size;
+        if (size > MAX_SIZE)
+            throw new TooLarge();
+        //handler: blame the error on the call that was running, then rethrow it
+        reachable = true;
+        depth = 1;
+        int handler = size;
+        local(ASTORE, FUNCTION_TEMP, -1);
+        local(ALOAD, FUNCTION_TEMP, 1);
+        int sitesField = constant(sites.toArray(new MyDataType[0]), "[" + D_MDT);
+        getConstant(sitesField);
+        local(ILOAD, SITE, 1);
+        invoke(INVOKESTATIC, HELPERS, "blame", "(Ljava/lang/Throwable;[" + D_MDT + "I)V");
+        local(ALOAD, FUNCTION_TEMP, 1);
+        op(ATHROW, -1);
+        byte[] enter = codeAttribute(new int[]{tryStart, tryEnd, handler, cls("main/REPLErrors"),
+                tryStart, tryEnd, handler, cls("main/ReaderErrors")});
+
+        //<init>()
+        resetCode();
+        local(ALOAD, THIS, 1);
+        invoke(INVOKESPECIAL, ENTRY, "<init>", "()V");
+        op(RETURN, 0);
+        byte[] init = codeAttribute(new int[0]);
+
+        //<clinit>, stores the class data in the static fields
+        resetCode();
+        invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        ldc(string("_"));
+        ldc(cls("[Ljava/lang/Object;"));
+        invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+        type(CHECKCAST, "[Ljava/lang/Object;");
+        for (int i = 0; i < constants.size(); i++) {
+            op(DUP, 1);
+            push(i);
+            op(AALOAD, -1);
+            String type = constantTypes.get(i);
+            type(CHECKCAST, type.startsWith("[") ? type : type.substring(1, type.length() - 1));
+            u2(PUTSTATIC, fieldRef(className, "c" + i, type), -1);
+        }
+        op(POP, -1);
+        op(RETURN, 0);
+        byte[] clinit = codeAttribute(new int[0]);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int thisClass = cls(className), superClass = cls(ENTRY);
+        int[] fieldNames = new int[constants.size()], fieldTypes = new int[constants.size()];
+        for (int i = 0; i < fieldNames.length; i++) {
+            fieldNames[i] = utf8("c" + i);
+            fieldTypes[i] = utf8(constantTypes.get(i));
+        }
+        int[] methodNames = {utf8("enter"), utf8("<init>"), utf8("<clinit>")};
+        int[] methodTypes = {utf8("(" + D_FRAME + ")" + D_MDT), utf8("()V"), utf8("()V")};
+        int codeName = utf8("Code");
+        if (poolCount > 0xFFFF)
+            throw new TooLarge();
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);//no stack map frames needed
+        out.writeShort(poolCount);
+        poolBytes.writeTo(out);
+        out.writeShort(0x0030);//final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);//interfaces
+        out.writeShort(fieldNames.length);
+        for (int i = 0; i < fieldNames.length; i++) {
+            out.writeShort(0x001A);//private static final
+            out.writeShort(fieldNames[i]);
+            out.writeShort(fieldTypes[i]);
+            out.writeShort(0);
+        }
+        byte[][] methods = {enter, init, clinit};
+        int[] access = {0x0010, 0, 0x0008};
+        out.writeShort(methods.length);
+        for (int i = 0; i < methods.length; i++) {
+            out.writeShort(access[i]);
+            out.writeShort(methodNames[i]);
+            out.writeShort(methodTypes[i]);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(methods[i].length);
+            out.write(methods[i]);
+        }
+        out.writeShort(0);//attributes
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Emits the code of the node. In tail position the code returns the value, otherwise it leaves it on the stack.
+     *
+     * @param start start of the method, where tail calls of the function itself jump to
+     */
+    private void compile(Node node, boolean tail, Label start) throws TooLarge {
+        if (node instanceof Constant) {
+            getConstant(constant(node.form, D_MDT));
+        } else if (node instanceof LocalRef ref && !compact) {
+            local(ALOAD, FRAME_LOCAL, 1);
+            for (int i = 0; i < ref.depth; i++)
+                field(GETFIELD, FRAME, "outer", D_FRAME);
+            field(GETFIELD, FRAME, "slots", "[" + D_MDT);
+            push(ref.slot);
+            op(AALOAD, -1);
+            Label bound = new Label();
+            op(DUP, 1);
+            jump(IFNONNULL, bound);
+            //an empty slot falls back to the declaration further out, see Scope.resolve
+            op(POP, -1);
+            getConstant(constant(ref, "L" + REF + ";"));
+            local(ALOAD, FRAME_LOCAL, 1);
+            invoke(INVOKEVIRTUAL, REF, "execute", "(" + D_FRAME + ")" + D_MDT);
+            bind(bound);
+        } else if (node instanceof GlobalRef ref) {
+            getConstant(constant(ref, "L" + GLOBAL_REF + ";"));
+            invoke(INVOKESTATIC, HELPERS, "global", "(L" + GLOBAL_REF + ";)" + D_MDT);
+        } else if (node instanceof Call call) {
+            compileCall(call, tail, start);
+            return;
+        } else if (node instanceof MacroCall call) {
+            Expansion expansion = call.expansion;
+            if (compact || expansion == null || inlined >= MAX_INLINE) {
+                compileNode(node, tail);
+                return;
+            }
+            //the expansion made so far, as long as the names still hold the macros it was made with
+            Label expand = new Label(), end = new Label();
+            for (int i = 0; i < expansion.cells().length; i++) {
+                getConstant(constant(expansion.cells()[i], "L" + CELL + ";"));
+                field(GETFIELD, CELL, "value", D_MDT);
+                getConstant(constant(expansion.macros()[i], D_MDT));
+                jump(IF_ACMPNE, expand);
+            }
+            getConstant(constant(expansion, "L" + EXPANSION + ";"));
+            invoke(INVOKESTATIC, ANALYZER, "countExpansionHit", "(L" + EXPANSION + ";)V");
+            inlined++;
+            compile(expansion.node(), tail, start);
+            inlined--;
+            if (!tail)
+                jump(GOTO, end);
+            bind(expand);
+            compileNode(node, tail);
+            bind(end);
+            return;
+        } else if (node instanceof Guarded guarded && !compact) {
+            //the optimized node as long as the globals it relies on weren't redefined
+            Label original = new Label(), end = new Label();
+            for (int i = 0; i < guarded.cells.length; i++) {
+                getConstant(constant(guarded.cells[i], "L" + CELL + ";"));
+                field(GETFIELD, CELL, "value", D_MDT);
+                getConstant(constant(guarded.values[i], D_MDT));
+                jump(IF_ACMPNE, original);
+            }
+            compile(guarded.optimized, tail, start);
+            if (!tail)
+                jump(GOTO, end);
+            bind(original);
+            compileNode(guarded.original, tail);
+            bind(end);
+            return;
+        } else if (node instanceof Guarded guarded && guarded.optimized instanceof Inline) {
+            //compact code makes the call, the callee is compiled instead of walking the inlined body
+            compile(guarded.original, tail, start);
+            return;
+        } else if (node instanceof Inline inline) {
+            //the arguments are evaluated in the caller's frame, then stored in the slots of the parameters
+            for (Node argument : inline.arguments)
+                compile(argument, false, start);
+            if (inline.frameSize != 0) {
+                type(NEW, FRAME);
+                op(DUP, 1);
+                push(inline.frameSize);
+                type(ANEWARRAY, MDT);
+                local(ALOAD, FRAME_LOCAL, 1);
+                invoke(INVOKESPECIAL, FRAME, "<init>", "([" + D_MDT + D_FRAME + ")V");
+                local(ASTORE, FRAME_LOCAL, -1);
+            }
+            for (int i = inline.slots.length - 1; i >= 0; i--) {
+                local(ALOAD, FRAME_LOCAL, 1);
+                field(GETFIELD, FRAME, "slots", "[" + D_MDT);
+                op(SWAP, 0);
+                push(inline.slots[i]);
+                op(SWAP, 0);
+                op(AASTORE, -3);
+            }
+            compile(inline.body, tail, start);
+            if (tail || inline.frameSize == 0)
+                return;
+            local(ALOAD, FRAME_LOCAL, 1);
+            field(GETFIELD, FRAME, "outer", D_FRAME);
+            local(ASTORE, FRAME_LOCAL, -1);
+        } else if (node instanceof Def def) {
+            for (int i = 0; i < def.names.length; i++) {
+                if (i > 0)
+                    op(POP, -1);
+                compile(def.values[i], false, start);
+                define(def.names[i]);
+            }
+            if (def.names.length == 0)
+                getConstant(constant(Nil, D_MDT));
+        } else if (node instanceof Set set) {
+            for (int i = 0; i < set.targets.length; i++) {
+                if (i > 0)
+                    op(POP, -1);
+                int outer = enterSite(set.form);
+                int target = constant(set.targets[i], "L" + REF + ";");
+                getConstant(target);
+                local(ALOAD, FRAME_LOCAL, 1);
+                invoke(INVOKESTATIC, HELPERS, "checkBound", "(L" + REF + ";" + D_FRAME + ")V");
+                leaveSite(outer);
+                compile(set.values[i], false, start);
+                op(DUP, 1);
+                getConstant(target);
+                local(ALOAD, FRAME_LOCAL, 1);
+                invoke(INVOKESTATIC, HELPERS, "assign", "(" + D_MDT + "L" + REF + ";" + D_FRAME + ")V");
+            }
+            if (set.targets.length == 0)
+                getConstant(constant(Nil, D_MDT));
+        } else if (node instanceof Begin begin) {
+            int last = begin.body.length - 1;
+            for (int i = 0; i < last; i++) {
+                compile(begin.body[i], false, start);
+                op(POP, -1);
+            }
+            compile(begin.body[last], tail, start);
+            return;
+        } else if (node instanceof Let let) {
+            bindAll(let.slots, let.values, start);
+            compile(let.body, tail, start);
+            return;
+        } else if (node instanceof LetFrame let) {
+            type(NEW, FRAME);
+            op(DUP, 1);
+            push(let.frameSize);
+            type(ANEWARRAY, MDT);
+            local(ALOAD, FRAME_LOCAL, 1);
+            invoke(INVOKESPECIAL, FRAME, "<init>", "([" + D_MDT + D_FRAME + ")V");
+            local(ASTORE, FRAME_LOCAL, -1);
+            bindAll(let.slots, let.values, start);
+            compile(let.body, tail, start);
+            if (tail)
+                return;
+            local(ALOAD, FRAME_LOCAL, 1);
+            field(GETFIELD, FRAME, "outer", D_FRAME);
+            local(ASTORE, FRAME_LOCAL, -1);
+        } else if (node instanceof Cond cond) {
+            Label end = new Label();
+            for (int i = 0; i < cond.tests.length; i++) {
+                Label next = new Label();
+                compile(cond.tests[i], false, start);
+                invoke(INVOKESTATIC, HELPERS, "isFalse", "(" + D_MDT + ")Z");
+                jump(IFNE, next);
+                compile(cond.branches[i], tail, start);
+                if (!tail)
+                    jump(GOTO, end);
+                bind(next);
+            }
+            getConstant(constant(Nil, D_MDT));
+            bind(end);
+        } else if (node instanceof Lambda inner) {
+            closure(inner);
+        } else if (node instanceof Defun defun) {
+            closure(defun.lambda);
+            define(defun.name);
+        } else {
+            compileNode(node, tail);
+            return;
+        }
+        if (tail)
+            op(ARETURN, -1);
+    }
+
+    /**
+     * Executes the node with the tree walker.
+     */
+    private void compileNode(Node node, boolean tail) throws TooLarge {
+        String owner = node instanceof MacroCall ? MACRO_CALL : NODE;
+        getConstant(constant(node, "L" + owner + ";"));
+        local(ALOAD, FRAME_LOCAL, 1);
+        invoke(INVOKEVIRTUAL, owner, tail ? "executeTail" : "execute", "(" + D_FRAME + ")" + D_MDT);
+        if (tail)
+            op(ARETURN, -1);
+    }
+
+    private void compileCall(Call call, boolean tail, Label start) throws TooLarge {
+        int outer = enterSite(call.form);
+        Label end = new Label();
+        int argc = call.operands.length;
+        if (call.operator instanceof GlobalRef) {
+            //a global can turn out to be a macro, the call site then expands it instead of calling it
+            Label function = new Label();
+            int site = constant(call, "L" + CALL + ";");
+            getConstant(site);
+            invoke(INVOKESTATIC, HELPERS, "function", "(L" + CALL + ";)" + D_MDT);
+            op(DUP, 1);
+            jump(IFNONNULL, function);
+            op(POP, -1);
+            getConstant(site);
+            local(ALOAD, FRAME_LOCAL, 1);
+            invoke(INVOKEVIRTUAL, CALL, tail ? "executeTail" : "execute", "(" + D_FRAME + ")" + D_MDT);
+            if (tail)
+                op(ARETURN, -1);
+            else
+                jump(GOTO, end);
+            bind(function);
+        } else
+            compile(call.operator, false, start);
+        for (Node operand : call.operands)
+            compile(operand, false, start);
+
+        maxLocals = Math.max(maxLocals, ARGUMENTS + argc);
+        if (compact) {
+            if (argc > 3) {
+                for (int i = argc - 1; i >= 0; i--)
+                    local(ASTORE, ARGUMENTS + i, -1);
+                arguments(argc, tail ? "tailCall" : "call", D_MDT, D_MDT);
+            } else
+                invoke(INVOKESTATIC, HELPERS, tail ? "tailCall" : "call", "(" + D_MDT.repeat(argc + 1) + ")" + D_MDT);
+            if (tail)
+                op(ARETURN, -1);
+            else
+                bind(end);
+            leaveSite(outer);
+            return;
+        }
+        for (int i = argc - 1; i >= 0; i--)
+            local(ASTORE, ARGUMENTS + i, -1);
+        local(ASTORE, FUNCTION_TEMP, -1);
+        Label notClosure = new Label(), notFunction = new Label();
+        local(ALOAD, FUNCTION_TEMP, 1);
+        type(INSTANCEOF, CLOSURE);
+        jump(IFEQ, notClosure);
+        //closure: bind the arguments to a new frame and run the body
+        local(ALOAD, FUNCTION_TEMP, 1);
+        type(CHECKCAST, CLOSURE);
+        arguments(argc, "bind", "L" + CLOSURE + ";", D_FRAME);
+        local(ASTORE, FRAME_TEMP, -1);
+        if (tail) {
+            Label other = new Label();
+            local(ALOAD, FUNCTION_TEMP, 1);
+            type(CHECKCAST, CLOSURE);
+            field(GETFIELD, CLOSURE, "lambda", "L" + LAMBDA + ";");
+            getConstant(constant(lambda, "L" + LAMBDA + ";"));
+            jump(IF_ACMPNE, other);
+            //the function calls itself, run the body again with the new frame
+            local(ALOAD, FRAME_TEMP, 1);
+            local(ASTORE, FRAME_LOCAL, -1);
+            jump(GOTO, start);
+            bind(other);
+            type(NEW, TAIL_CALL);
+            op(DUP, 1);
+            local(ALOAD, FUNCTION_TEMP, 1);
+            type(CHECKCAST, CLOSURE);
+            local(ALOAD, FRAME_TEMP, 1);
+            invoke(INVOKESPECIAL, TAIL_CALL, "<init>", "(L" + CLOSURE + ";" + D_FRAME + ")V");
+            op(ARETURN, -1);
+        } else {
+            Label done = new Label();
+            local(ALOAD, FUNCTION_TEMP, 1);
+            type(CHECKCAST, CLOSURE);
+            field(GETFIELD, CLOSURE, "lambda", "L" + LAMBDA + ";");
+            field(GETFIELD, LAMBDA, "entry", "L" + ENTRY + ";");
+            local(ALOAD, FRAME_TEMP, 1);
+            invoke(INVOKEVIRTUAL, ENTRY, "enter", "(" + D_FRAME + ")" + D_MDT);
+            op(DUP, 1);
+            type(INSTANCEOF, TAIL_CALL);
+            jump(IFEQ, done);
+            invoke(INVOKESTATIC, HELPERS, "trampoline", "(" + D_MDT + ")" + D_MDT);
+            bind(done);
+            jump(GOTO, end);
+        }
+        //any other function is called at its entry point for the number of arguments
+        bind(notClosure);
+        local(ALOAD, FUNCTION_TEMP, 1);
+        type(INSTANCEOF, FUNCTION);
+        jump(IFEQ, notFunction);
+        local(ALOAD, FUNCTION_TEMP, 1);
+        type(CHECKCAST, FUNCTION);
+        arguments(argc, "apply", "L" + FUNCTION + ";", D_MDT);
+        if (tail)
+            op(ARETURN, -1);
+        else
+            jump(GOTO, end);
+        bind(notFunction);
+        local(ALOAD, FUNCTION_TEMP, 1);
+        invoke(INVOKESTATIC, HELPERS, "notAFunction", "(" + D_MDT + ")L" + "main/REPLErrors$ApplyError;");
+        op(ATHROW, -1);
+        if (!tail) {
+            depth++;//the value of the call, pushed by all the paths jumping to the end
+            bind(end);
+        }
+        leaveSite(outer);
+    }
+
+    /**
+     * Calls the helper with the arguments stored in the argument locals, passed one by one if there are at most
+     * three, otherwise as array.
+     *
+     * @param first descriptor of the first parameter of the helper, already on the stack, or empty
+     */
+    private void arguments(int argc, String helper, String first, String result) throws TooLarge {
+        if (argc <= 3) {
+            for (int i = 0; i < argc; i++)
+                local(ALOAD, ARGUMENTS + i, 1);
+            invoke(INVOKESTATIC, HELPERS, helper, "(" + first + D_MDT.repeat(argc) + ")" + result);
+        } else {
+            push(argc);
+            type(ANEWARRAY, MDT);
+            for (int i = 0; i < argc; i++) {
+                op(DUP, 1);
+                push(i);
+                local(ALOAD, ARGUMENTS + i, 1);
+                op(AASTORE, -3);
+            }
+            invoke(INVOKESTATIC, HELPERS, helper, "(" + first + "[" + D_MDT + ")" + result);
+        }
+    }
+
+    private void bindAll(int[] slots, Node[] values, Label start) throws TooLarge {
+        for (int i = 0; i < slots.length; i++) {
+            compile(values[i], false, start);
+            local(ALOAD, FRAME_LOCAL, 1);
+            field(GETFIELD, FRAME, "slots", "[" + D_MDT);
+            op(SWAP, 0);
+            push(slots[i]);
+            op(SWAP, 0);
+            op(AASTORE, -3);
+        }
+    }
+
+    private void closure(Lambda inner) throws TooLarge {
+        type(NEW, CLOSURE);
+        op(DUP, 1);
+        getConstant(constant(inner, "L" + LAMBDA + ";"));
+        local(ALOAD, FRAME_LOCAL, 1);
+        invoke(INVOKESPECIAL, CLOSURE, "<init>", "(L" + LAMBDA + ";" + D_FRAME + ")V");
+    }
+
+    /**
+     * Binds the global to the value on the stack, leaving the value.
+     */
+    private void define(SymbolType name) throws TooLarge {
+        op(DUP, 1);
+        getConstant(constant(name, "L" + SYMBOL + ";"));
+        invoke(INVOKESTATIC, HELPERS, "define", "(" + D_MDT + "L" + SYMBOL + ";)V");
+    }
+
+    /**
+     * Makes the form the call that errors in the following code are blamed on.
+     *
+     * @return the previous call, restored by {@link #leaveSite(int)}
+     */
+    private int enterSite(MyDataType form) throws TooLarge {
+        int outer = site;
+        sites.add(form);
+        storeSite(sites.size() - 1);
+        return outer;
+    }
+
+    private void leaveSite(int outer) throws TooLarge {
+        storeSite(outer);
+    }
+
+    private void storeSite(int index) throws TooLarge {
+        site = index;
+        if (!reachable)
+            return;
+        push(index);
+        local(ISTORE, SITE, -1);
+    }
+
+    // --- constants ---
+
+    /**
+     * @param type descriptor of the static field holding the constant
+     * @return index of the constant
+     */
+    private int constant(Object value, String type) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantTypes.add(type);
+            constantIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private void getConstant(int index) throws TooLarge {
+        u2(GETSTATIC, fieldRef(className, "c" + index, constantTypes.get(index)), 1);
+    }
+
+    // --- code ---
+
+    private void resetCode() {
+        code = new byte[64];
+        size = 0;
+        depth = 0;
+        maxStack = 0;
+        maxLocals = 1;
+        reachable = true;
+    }
+
+    private byte[] codeAttribute(int[] handlers) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(size);
+        out.write(code, 0, size);
+        out.writeShort(handlers.length / 4);
+        for (int handler : handlers)
+            out.writeShort(handler);
+        out.writeShort(0);//attributes
+        return bytes.toByteArray();
+    }
+
+    private void ensure(int bytes) throws TooLarge {
+        if (size + bytes > 0xFFFF)
+            throw new TooLarge();
+        if (size + bytes > code.length)
+            code = java.util.Arrays.copyOf(code, Math.max(code.length * 2, size + bytes));
+    }
+
+    private void stack(int delta) {
+        depth += delta;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void op(int opcode, int delta) throws TooLarge {
+        ensure(1);
+        code[size++] = (byte) opcode;
+        stack(delta);
+        if (opcode == ARETURN || opcode == ATHROW || opcode == RETURN)
+            reachable = false;
+    }
+
+    private void u2(int opcode, int operand, int delta) throws TooLarge {
+        ensure(3);
+        code[size++] = (byte) opcode;
+        code[size++] = (byte) (operand >> 8);
+        code[size++] = (byte) operand;
+        stack(delta);
+    }
+
+    private void local(int opcode, int index, int delta) throws TooLarge {
+        if (index > 0xFF)
+            throw new TooLarge();
+        ensure(2);
+        code[size++] = (byte) opcode;
+        code[size++] = (byte) index;
+        stack(delta);
+    }
+
+    private void push(int value) throws TooLarge {
+        if (value >= -1 && value <= 5)
+            op(ICONST_0 + value, 1);
+        else if (value <= Byte.MAX_VALUE) {
+            ensure(2);
+            code[size++] = BIPUSH;
+            code[size++] = (byte) value;
+            stack(1);
+        } else if (value <= Short.MAX_VALUE)
+            u2(SIPUSH, value, 1);
+        else
+            ldc(integer(value));
+    }
+
+    private void ldc(int index) throws TooLarge {
+        u2(19, index, 1);//ldc_w
+    }
+
+    private void type(int opcode, String internalName) throws TooLarge {
+        int delta = switch (opcode) {
+            case NEW -> 1;
+            default -> 0;//checkcast, instanceof and anewarray replace the top of the stack
+        };
+        u2(opcode, cls(internalName), delta);
+    }
+
+    private void field(int opcode, String owner, String name, String type) throws TooLarge {
+        u2(opcode, fieldRef(owner, name, type), opcode == GETFIELD ? 0 : opcode == GETSTATIC ? 1 : -1);
+    }
+
+    private void invoke(int opcode, String owner, String name, String type) throws TooLarge {
+        u2(opcode, methodRef(owner, name, type), invokeDelta(opcode, type));
+    }
+
+    /**
+     * @return change of the stack depth by the call, every parameter takes one slot since there are no longs or doubles
+     */
+    private static int invokeDelta(int opcode, String type) {
+        int parameters = 0;
+        for (int i = 1; type.charAt(i) != ')'; i++) {
+            char c = type.charAt(i);
+            while (c == '[')
+                c = type.charAt(++i);
+            if (c == 'L')
+                i = type.indexOf(';', i);
+            parameters++;
+        }
+        return -parameters - (opcode == INVOKESTATIC ? 0 : 1) + (type.endsWith(")V") ? 0 : 1);
+    }
+
+    private void jump(int opcode, Label label) throws TooLarge {
+        int at = size;
+        u2(opcode, 0, switch (opcode) {
+            case IFEQ, IFNE, IFNONNULL -> -1;
+            case IF_ACMPNE -> -2;
+            default -> 0;
+        });
+        label.depth = depth;
+        if (label.position >= 0)
+            patch(at, label.position);
+        else
+            label.jumps.add(at);
+        if (opcode == GOTO)
+            reachable = false;
+    }
+
+    private void bind(Label label) {
+        if (!reachable)
+            depth = label.depth;
+        reachable = true;
+        label.position = size;
+        for (int at : label.jumps)
+            patch(at, size);
+    }
+
+    private void patch(int at, int target) {
+        int offset = target - at;
+        code[at + 1] = (byte) (offset >> 8);
+        code[at + 2] = (byte) offset;
+    }
+
+    // --- constant pool ---
+
+    private int entry(String key, int tag, ConstantWriter writer) {
+        Integer index = poolIndex.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);//can't happen with a byte array
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface ConstantWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int utf8(String s) {
+        return entry("U" + s, 1, out -> out.writeUTF(s));
+    }
+
+    private int integer(int value) {
+        return entry("I" + value, 3, out -> out.writeInt(value));
+    }
+
+    private int cls(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, 7, out -> out.writeShort(name));
+    }
+
+    private int string(String s) {
+        int value = utf8(s);
+        return entry("S" + s, 8, out -> out.writeShort(value));
+    }
+
+    private int nameAndType(String name, String type) {
+        int n = utf8(name), t = utf8(type);
+        return entry("N" + name + " " + type, 12, out -> {
+            out.writeShort(n);
+            out.writeShort(t);
+        });
+    }
+
+    private int fieldRef(String owner, String name, String type) {
+        int c = cls(owner), nt = nameAndType(name, type);
+        return entry("F" + owner + "." + name + " " + type, 9, out -> {
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    private int methodRef(String owner, String name, String type) {
+        int c = cls(owner), nt = nameAndType(name, type);
+        return entry("M" + owner + "." + name + type, 10, out -> {
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    // --- helpers called by the generated code ---
+
+    static MyDataType global(GlobalRef ref) throws SyntaxError {
+        MyDataType value = ref.cell.value;
+        if (value == null)
+            throw ref.notFound();
+        return value;
+    }
+
+    /**
+     * @return the global operator of the call, null if it is a macro
+     */
+    static MyDataType function(Call call) throws SyntaxError {
+        MyDataType function = global((GlobalRef) call.operator);
+        return function instanceof MyFunction f && f.isMacro() ? null : function;
+    }
+
+    static void define(MyDataType value, SymbolType name) {
+        REPL.globalEnv.put(name, value);
+    }
+
+    static void checkBound(Ref ref, Frame frame) throws SyntaxError {
+        if (!ref.isBound(frame))
+            throw new SyntaxError("cannot use set! on unassigned variable: " + ref.name.getValue());
+    }
+
+    static void assign(MyDataType value, Ref ref, Frame frame) {
+        ref.assign(frame, value);
+    }
+
+    /**
+     * @return true for the values cond treats as false
+     */
+    static boolean isFalse(MyDataType value) {
+        return value instanceof ConstType && (value.equals(False) || value.equals(Nil));
+    }
+
+    static Frame bind(Closure closure) throws SyntaxError {
+        closure.checkArity(0);
+        return new Frame(new MyDataType[closure.lambda.frameSize], closure.frame);
+    }
+
+    static Frame bind(Closure closure, MyDataType a0) throws SyntaxError {
+        closure.checkArity(1);
+        Lambda lambda = closure.lambda;
+        MyDataType[] slots = new MyDataType[lambda.frameSize];
+        int[] params = lambda.paramSlots;
+        if (params.length > 0)
+            slots[params[0]] = a0;
+        return new Frame(slots, closure.frame);
+    }
+
+    static Frame bind(Closure closure, MyDataType a0, MyDataType a1) throws SyntaxError {
+        closure.checkArity(2);
+        Lambda lambda = closure.lambda;
+        MyDataType[] slots = new MyDataType[lambda.frameSize];
+        int[] params = lambda.paramSlots;
+        if (params.length > 0)
+            slots[params[0]] = a0;
+        if (params.length > 1)
+            slots[params[1]] = a1;
+        return new Frame(slots, closure.frame);
+    }
+
+    static Frame bind(Closure closure, MyDataType a0, MyDataType a1, MyDataType a2) throws SyntaxError {
+        closure.checkArity(3);
+        Lambda lambda = closure.lambda;
+        MyDataType[] slots = new MyDataType[lambda.frameSize];
+        int[] params = lambda.paramSlots;
+        if (params.length > 0)
+            slots[params[0]] = a0;
+        if (params.length > 1)
+            slots[params[1]] = a1;
+        if (params.length > 2)
+            slots[params[2]] = a2;
+        return new Frame(slots, closure.frame);
+    }
+
+    static Frame bind(Closure closure, MyDataType[] arguments) throws SyntaxError {
+        return closure.bind(arguments, 0, arguments.length);
+    }
+
+    static MyDataType apply(MyFunction function) throws REPLErrors, ReaderErrors {
+        return function.apply0();
+    }
+
+    static MyDataType apply(MyFunction function, MyDataType a0) throws REPLErrors, ReaderErrors {
+        return function.apply1(a0);
+    }
+
+    static MyDataType apply(MyFunction function, MyDataType a0, MyDataType a1) throws REPLErrors, ReaderErrors {
+        return function.apply2(a0, a1);
+    }
+
+    static MyDataType apply(MyFunction function, MyDataType a0, MyDataType a1, MyDataType a2)
+            throws REPLErrors, ReaderErrors {
+        return function.apply3(a0, a1, a2);
+    }
+
+    static MyDataType apply(MyFunction function, MyDataType[] arguments) throws REPLErrors, ReaderErrors {
+        return function.applyN(arguments);
+    }
+
+    /**
+     * Makes the calls returned in tail position until there is a value, like {@link Closure#run(Frame)}.
+     */
+    static MyDataType trampoline(MyDataType result) throws REPLErrors, ReaderErrors {
+        while (result instanceof TailCall call)
+            result = call.closure.lambda.entry.loop(call.frame);
+        return result;
+    }
+
+    //calls of compact code, they do what the code of a call does
+
+    static MyDataType call(MyDataType function) throws REPLErrors, ReaderErrors {
+        return call(function, new MyDataType[0]);
+    }
+
+    static MyDataType call(MyDataType function, MyDataType a0) throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return trampoline(closure.lambda.entry.enter(bind(closure, a0)));
+        return apply(function(function), a0);
+    }
+
+    static MyDataType call(MyDataType function, MyDataType a0, MyDataType a1) throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return trampoline(closure.lambda.entry.enter(bind(closure, a0, a1)));
+        return apply(function(function), a0, a1);
+    }
+
+    static MyDataType call(MyDataType function, MyDataType a0, MyDataType a1, MyDataType a2)
+            throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return trampoline(closure.lambda.entry.enter(bind(closure, a0, a1, a2)));
+        return apply(function(function), a0, a1, a2);
+    }
+
+    static MyDataType call(MyDataType function, MyDataType[] arguments) throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return trampoline(closure.lambda.entry.enter(bind(closure, arguments)));
+        return apply(function(function), arguments);
+    }
+
+    static MyDataType tailCall(MyDataType function) throws REPLErrors, ReaderErrors {
+        return tailCall(function, new MyDataType[0]);
+    }
+
+    static MyDataType tailCall(MyDataType function, MyDataType a0) throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return new TailCall(closure, bind(closure, a0));
+        return apply(function(function), a0);
+    }
+
+    static MyDataType tailCall(MyDataType function, MyDataType a0, MyDataType a1) throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return new TailCall(closure, bind(closure, a0, a1));
+        return apply(function(function), a0, a1);
+    }
+
+    static MyDataType tailCall(MyDataType function, MyDataType a0, MyDataType a1, MyDataType a2)
+            throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return new TailCall(closure, bind(closure, a0, a1, a2));
+        return apply(function(function), a0, a1, a2);
+    }
+
+    static MyDataType tailCall(MyDataType function, MyDataType[] arguments) throws REPLErrors, ReaderErrors {
+        if (function instanceof Closure closure)
+            return new TailCall(closure, bind(closure, arguments));
+        return apply(function(function), arguments);
+    }
+
+    private static MyFunction function(MyDataType function) throws ApplyError {
+        if (function instanceof MyFunction f)
+            return f;
+        throw notAFunction(function);
+    }
+
+    static ApplyError notAFunction(MyDataType value) {
+        return new ApplyError("Function call failed, could not find a function called " + value + " to apply");
+    }
+
+    static void blame(Throwable error, MyDataType[] sites, int site) {
+        if (site >= 0)
+            SourceMap.blame(error, sites[site]);//no-op unless the form was read from a file
+    }
+}
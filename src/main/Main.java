@@ -1,12 +1,24 @@
 package main;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 import static main.REPLErrors.ApplyError;
 import static main.REPLErrors.SyntaxError;
 import static main.ReaderErrors.*;
+import static main.Types.MyDataType;
 
 /**
  * A JAR file of the project can be found in \out\artifacts\LispInterpreter_jar along with
@@ -39,85 +51,155 @@ public class Main {
     static Scanner scanner = new Scanner(System.in);
 
     /**
-     * Reads input from cmd line and passes it to the REPL. Supports multi line input by appending input lines until a
-     * valid expression is found.
+     * Reads input from cmd line and passes it to the REPL. Supports multi line input by feeding the lines to an
+     * {@link InputParser} until it has complete forms, which are then evaluated in order. Returns at the end of the input.
      */
     public static void parseUserInput() {
-        String input = "", output;
-        boolean addLine = false;
+        InputParser parser = new InputParser();
         scanner.useDelimiter("\\n");
         while (true) {
-            try {
-                if (addLine) {//multiline keyboard input
-                    System.out.print("... ");
-                    input += scanner.nextLine();
-                    addLine = false;
-                } else {
-                    System.out.print("user> ");
-                    input = scanner.nextLine();
+            System.out.print(parser.isIncomplete() ? "... " : "user> ");//multiline keyboard input
+            if (!scanner.hasNextLine())
+                return;
+            InputParser.Status status = parser.feed(scanner.nextLine());
+            for (MyDataType form; (form = parser.nextForm()) != null; ) {
+                try {
+                    String output = REPL.print(REPL.eval(form, REPL.globalEnv));
+                    System.out.println("input>" + form);
+                    System.out.println("    output> " + output);
+                } catch (SyntaxError | ApplyError | ParseError customError) {
+                    System.out.println(describe(customError));
+                } catch (REPLErrors | ReaderErrors replErrors) {
+                    replErrors.printStackTrace();
                 }
-
-                output = REPL.rep(input);
-                System.out.println("input>" + input);
-                System.out.println("    output> " + output);
-            } catch (ParenMismatchError | EmptyLineError e) {
-                //missing a closing parenthesis or empty line, append the next line from reader to current input and try parsing again
-                addLine = true;
-                input = Reader.commentFreeInput;//removes comments from end of line, allowing to read multiple lines with comments ending some or all of them
-            } catch (CommentError ignored) {
-                //this way we can ignore full lines of comments
-            } catch (SyntaxError | ApplyError | ParseError customError) {
-                System.out.println(customError.getMessage());
-            } catch (REPLErrors | ReaderErrors replErrors) {
-                replErrors.printStackTrace();
             }
+            if (status == InputParser.Status.ERROR)
+                System.out.println(parser.getError());
         }
     }
 
     /**
-     * Attempts to read and evaluate the contents of the file line by line. Supports multi line input. If a line doesn't
-     * contain a valid expression then the next line is added and the resulting string is evaluated again. This repeats
-     * until a valid expression is found or EOF is reached.
+     * @return the message of the error, followed by the position of the innermost form it was raised in if that form
+     * was read from a file
+     */
+    static String describe(Throwable error) {
+        String location = SourceMap.locate(error);
+        return location == null ? error.getMessage() : error.getMessage() + " (at " + location + ")";
+    }
+
+    /**
+     * Reads and evaluates the forms in the file one after another. Forms can span multiple lines and a line can hold
+     * multiple forms. If a form can't be read or evaluated the error is printed and parsing continues with the next form.
+     * <p>
+     * The file is memory mapped and split at top level form boundaries, the chunks are read in parallel. Evaluation
+     * happens afterwards in source order. The time spent reading and evaluating is printed at the end.
+     * <p>
+     * Files that were read without errors are cached in a {@link FormCache} next to them, if the file didn't change
+     * since, the forms are loaded from the cache instead.
      *
      * @param filename path of file to read from.
      */
     public static void parseFile(String filename) {
-        String input = "", output;
-        boolean addLine = false;
-        try {
-            scanner = new Scanner(new File(filename));
-        } catch (FileNotFoundException e) {
+        List<ParsedForm> forms;
+        boolean cached = false;
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            ByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (FormCache.enabled) {
+                Path cache = FormCache.cacheFile(Path.of(filename));
+                byte[] hash = FormCache.hash(source);
+                List<MyDataType> cachedForms = FormCache.load(cache, hash, SourceMap.enabled ? SourceMap.fileId(filename) : -1);
+                cached = cachedForms != null;
+                if (cached) {
+                    forms = cachedForms.stream().map(form -> new ParsedForm(form, null)).toList();
+                } else {
+                    forms = readForms(source, filename);
+                    if (forms.stream().allMatch(parsed -> parsed.error() == null))//files with errors are read again
+                        FormCache.store(cache, hash, forms.stream().map(ParsedForm::form).toList());
+                }
+            } else
+                forms = readForms(source, filename);
+        } catch (NoSuchFileException | InvalidPathException e) {
             System.out.println("could not find the file: " + filename);
             return;
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("could not read the file: " + filename);
+            return;
         }
+        long read = System.nanoTime();
         System.out.println(">parsing file " + filename + "...");
-        scanner.useDelimiter("\\n");
-        while (scanner.hasNext()) {
-            if (addLine) {
-                input += scanner.nextLine();
-                addLine = false;
-            } else
-                input = scanner.nextLine();
+        for (ParsedForm parsed : forms) {
+            if (parsed.error() != null) {
+                System.out.println("Error reading file: " + filename);
+                System.out.println(parsed.error().getMessage());
+                continue;
+            }
             try {
-                output = REPL.rep(input);
-
-                System.out.println("input>" + Reader.commentFreeInput.stripTrailing());
+                String output = REPL.print(REPL.eval(parsed.form(), REPL.globalEnv));
+                System.out.println("input>" + parsed.form());
                 System.out.println("    output> " + output.stripTrailing());
-
-            } catch (ParenMismatchError | EmptyLineError e) {
-                //missing a closing parenthesis or empty line, append the next line from reader to current input and try parsing again
-                addLine = true;
-                input = Reader.commentFreeInput;//Remove comments from end of line, allowing to read multiple lines with comments ending some or all of them
-            } catch (CommentError ignored) {
-                //this way we can ignore full lines of comments in the code
             } catch (SyntaxError | ApplyError | ParseError myError) {
-                System.out.println("Error with input: " + input);
-                System.out.println(myError.getMessage());
+                System.out.println("Error with input: " + parsed.form());
+                System.out.println(describe(myError));
             } catch (REPLErrors | ReaderErrors replErrors) {
                 replErrors.printStackTrace();
             }
-        }//Reached EOF
+        }
+        long evaluated = System.nanoTime();
         System.out.println("Finished parsing file.");
+        System.out.printf("%s: read %d forms%s in %.1f ms, evaluated in %.1f ms%n",
+                filename, forms.size(), cached ? " from cache" : "", (read - start) / 1e6, (evaluated - read) / 1e6);
+    }
+
+    /**
+     * A form read from a file, or the error that occurred while reading it.
+     */
+    record ParsedForm(MyDataType form, Throwable error) {
+    }
+
+    /**
+     * Reads all forms from the encoded source. Large sources in an ascii compatible encoding are split into chunks
+     * that are decoded and read in parallel on the common fork-join pool.
+     *
+     * @return the forms and read errors in source order
+     */
+    static List<ParsedForm> readForms(ByteBuffer source, String filename) {
+        Charset charset = Charset.defaultCharset();
+        List<FormStream.Chunk> chunks;
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1))
+            chunks = FormStream.split(source, PARALLEL_CHUNK_SIZE);
+        else
+            chunks = List.of(new FormStream.Chunk(source, 1));
+        int fileId = SourceMap.enabled ? SourceMap.fileId(filename) : -1;
+        return chunks.parallelStream()
+                .flatMap(chunk -> {
+                    CharBuffer chars = charset.decode(chunk.bytes());
+                    return readChunk(fileId < 0 ? new FormStream(chars) : new FormStream(chars, fileId, chunk.line())).stream();
+                })
+                .toList();
+    }
+
+    /**
+     * Minimum number of bytes read by one task when reading files in parallel.
+     */
+    static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+
+    private static List<ParsedForm> readChunk(FormStream stream) {
+        List<ParsedForm> forms = new ArrayList<>();
+        while (true) {
+            try {
+                MyDataType form = stream.nextForm();
+                if (form == null) {
+                    SourceMap.addAll(stream.positions());
+                    return forms;
+                }
+                forms.add(new ParsedForm(form, null));
+            } catch (REPLErrors | ReaderErrors error) {
+                stream.skipForm();
+                forms.add(new ParsedForm(null, error));
+            }
+        }
     }
 
     /**
@@ -130,7 +212,6 @@ public class Main {
         Core.initMacros();
         if (args.length > 0)
             parseFile(args[0]);
-        scanner = new Scanner(System.in);
         parseUserInput();
     }
 }
\ No newline at end of file
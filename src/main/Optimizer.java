@@ -0,0 +1,230 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static main.Analyzer.*;
+import static main.Types.*;
+
+/**
+ * Rewrites nodes while they are analyzed, which includes the expansions of macro calls:
+ * <ul>
+ *     <li>calls of the pure core functions with constant arguments are replaced by their value</li>
+ *     <li>cond clauses after a clause whose test is always true and clauses whose test is always false are dropped,
+ *     a cond whose first remaining test is always true is replaced by its branch</li>
+ *     <li>quasiquotes without unquotes are constants, like quotes</li>
+ * </ul>
+ * Calls of small functions are replaced by their bodies by the {@link Inliner}, (optimize form) shows them as let*.
+ * The core functions can be redefined by defun, so a rewritten node that relies on them is {@link Guarded}: it runs
+ * the original node once one of the names no longer holds the core function. Calls that fail aren't folded, the error
+ * happens when the call is executed.
+ * <p>
+ * On by default, -Dlisp.optimize=false turns it off. (optimize form) shows the form the rewritten node stands for.
+ */
+public class Optimizer {
+    public static boolean enabled = !"false".equals(System.getProperty("lisp.optimize"));
+
+    private static final HashSet<SymbolType> pure = new HashSet<>(List.of(SymbolType.intern("+"),
+            SymbolType.intern("-"), SymbolType.intern("*"), SymbolType.intern("/"), SymbolType.intern("eq"),
+            SymbolType.intern("atom"), SymbolType.intern("car"), SymbolType.intern("cdr"), SymbolType.intern("cons"),
+            SymbolType.intern("list"), SymbolType.intern("concat"), SymbolType.intern("="), SymbolType.intern("<"),
+            SymbolType.intern(">"), SymbolType.intern("<="), SymbolType.intern(">="), SymbolType.intern("nth"),
+            SymbolType.intern("count")));
+    //vector, conj and assoc-nth aren't folded: each call makes a new vector, and vectors are only eq to themselves
+    private static final SymbolType QUOTE = SymbolType.intern("quote");
+
+    private Optimizer() {
+    }
+
+    /**
+     * Globals a rewritten node relies on and the functions they held during analysis.
+     */
+    private static final class Guards {
+        final ArrayList<Environment.Cell> cells = new ArrayList<>();
+        final ArrayList<MyDataType> values = new ArrayList<>();
+
+        void add(Environment.Cell cell, MyDataType value) {
+            if (!cells.contains(cell)) {
+                cells.add(cell);
+                values.add(value);
+            }
+        }
+
+        Node guard(Node optimized, Node original) {
+            if (cells.isEmpty())
+                return optimized;
+            return new Guarded(original, optimized, cells.toArray(new Environment.Cell[0]),
+                    values.toArray(new MyDataType[0]));
+        }
+    }
+
+    /**
+     * @return the value of the node if it is a constant, including constants that rely on guards, which are added to
+     * the guards, or null
+     */
+    private static MyDataType constant(Node node, Guards guards) {
+        if (node instanceof Constant)
+            return node.form;
+        if (node instanceof Guarded guarded && guarded.optimized instanceof Constant constant) {
+            for (int i = 0; i < guarded.cells.length; i++)
+                guards.add(guarded.cells[i], guarded.values[i]);
+            return constant.form;
+        }
+        return null;
+    }
+
+    /**
+     * @return constant holding the value of the call if it calls a pure core function with constant arguments
+     */
+    static Node call(Call call) {
+        if (!enabled || !(call.operator instanceof GlobalRef head) || !pure.contains(head.name))
+            return call;
+        if (!(head.cell.get() instanceof MyFunction function) || !function.isCore())
+            return call;//redefined
+        Guards guards = new Guards();
+        guards.add(head.cell, function);
+        ArrayList<MyDataType> arguments = new ArrayList<>(call.operands.length);
+        for (Node operand : call.operands) {
+            MyDataType value = constant(operand, guards);
+            if (value == null)
+                return call;
+            arguments.add(value);
+        }
+        try {
+            return guards.guard(new Constant(function.apply(new ListType(arguments))), call);
+        } catch (REPLErrors | ReaderErrors | RuntimeException e) {
+            return call;//fails when executed
+        }
+    }
+
+    /**
+     * @return the cond without the clauses that are never taken, or the branch that is always taken
+     */
+    static Node cond(Cond cond) {
+        if (!enabled)
+            return cond;
+        Guards guards = new Guards();
+        ArrayList<Node> tests = new ArrayList<>(), branches = new ArrayList<>();
+        for (int i = 0; i < cond.tests.length; i++) {
+            MyDataType value = constant(cond.tests[i], guards);
+            if (value == null) {
+                tests.add(cond.tests[i]);
+                branches.add(cond.branches[i]);
+            } else if (!(value instanceof ConstType && (value.equals(False) || value.equals(Nil)))) {
+                if (tests.isEmpty())
+                    return guards.guard(cond.branches[i], cond);
+                tests.add(new Constant(value));
+                branches.add(cond.branches[i]);
+                break;//the clauses after it are never reached
+            }
+        }
+        if (tests.size() == cond.tests.length)
+            return cond;
+        if (tests.isEmpty())
+            return guards.guard(new Constant(Nil), cond);
+        return guards.guard(new Cond((ListType) cond.form, tests.toArray(new Node[0]), branches.toArray(new Node[0])),
+                cond);
+    }
+
+    /**
+     * @return true if the quasiquote template contains no unquote or splice-unquote, its value is the template itself
+     */
+    static boolean isConstantTemplate(MyDataType template) {
+        if (!(template instanceof ListType list))
+            return true;
+        for (MyDataType element : list.getValue())
+            if (element.equals(Reader.UNQUOTE) || element.equals(Reader.SPLICE_UNQUOTE) || !isConstantTemplate(element))
+                return false;
+        return true;
+    }
+
+    /**
+     * Expands the macros in the form and applies the rewrites, see (optimize form).
+     *
+     * @return the form the optimized node stands for
+     */
+    public static MyDataType optimize(MyDataType form) throws REPLErrors, ReaderErrors {
+        return form(Analyzer.analyze(form));
+    }
+
+    private static MyDataType form(Node node) throws REPLErrors, ReaderErrors {
+        if (node instanceof Constant) {
+            MyDataType value = node.form;
+            boolean selfEvaluating = !(value instanceof SymbolType) && !(value instanceof ListType list && list.size() > 0);
+            return selfEvaluating ? value : new ListType(QUOTE, value);
+        }
+        if (node instanceof Guarded guarded)
+            return form(guarded.optimized);
+        if (node instanceof MacroCall call)
+            return form(call.expand());
+        if (node instanceof Ref ref)
+            return ref.name;
+        if (node instanceof Call call) {
+            ArrayList<MyDataType> forms = new ArrayList<>();
+            forms.add(form(call.operator));
+            for (Node operand : call.operands)
+                forms.add(form(operand));
+            return new ListType(forms);
+        }
+        if (node instanceof Inline inline) {
+            ArrayList<MyDataType> bindings = new ArrayList<>();
+            for (int i = 0; i < inline.arguments.length; i++)
+                bindings.add(new ListType(inline.params.get(i), form(inline.arguments[i])));
+            return new ListType(SymbolType.intern("let*"), new ListType(bindings), form(inline.body));
+        }
+        ListType original = (ListType) node.form;
+        if (node instanceof Def def)
+            return pairs(original.get(0), def.names, def.values);
+        if (node instanceof Set set) {
+            MyDataType[] names = new MyDataType[set.targets.length];
+            for (int i = 0; i < names.length; i++)
+                names[i] = set.targets[i].name;
+            return pairs(original.get(0), names, set.values);
+        }
+        if (node instanceof Begin begin) {
+            ArrayList<MyDataType> forms = new ArrayList<>();
+            forms.add(original.get(0));
+            for (Node body : begin.body)
+                forms.add(form(body));
+            return new ListType(forms);
+        }
+        if (node instanceof Let let)
+            return let(original, let.values, let.body);
+        if (node instanceof LetFrame let)
+            return let(original, let.values, let.body);
+        if (node instanceof Cond cond) {
+            ArrayList<MyDataType> forms = new ArrayList<>();
+            forms.add(original.get(0));
+            for (int i = 0; i < cond.tests.length; i++)
+                forms.add(new ListType(form(cond.tests[i]), form(cond.branches[i])));
+            return new ListType(forms);
+        }
+        if (node instanceof Lambda lambda)
+            return new ListType(original.get(0), lambda.params, form(lambda.body));
+        if (node instanceof Defun defun)
+            return new ListType(original.get(0), defun.name, defun.lambda.params, form(defun.lambda.body));
+        return original;//defmacro, the body is expanded when the macro is used
+    }
+
+    private static ListType pairs(MyDataType head, MyDataType[] names, Node[] values) throws REPLErrors, ReaderErrors {
+        ArrayList<MyDataType> forms = new ArrayList<>();
+        forms.add(head);
+        for (int i = 0; i < names.length; i++) {
+            forms.add(names[i]);
+            forms.add(form(values[i]));
+        }
+        return new ListType(forms);
+    }
+
+    private static ListType let(ListType original, Node[] values, Node body) throws REPLErrors, ReaderErrors {
+        ListType bindingList = (ListType) original.get(1);
+        boolean single = bindingList.size() == 2 && !(bindingList.get(0) instanceof ListType);
+        ArrayList<MyDataType> bindings = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            MyDataType name = single ? bindingList.get(0) : ((ListType) bindingList.get(i)).get(0);
+            bindings.add(new ListType(name, form(values[i])));
+        }
+        return new ListType(original.get(0), new ListType(bindings), form(body));
+    }
+}
@@ -0,0 +1,78 @@
+package main;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static main.Types.MyDataType;
+
+/**
+ * Bounded cache from input strings to the forms read from them, used by the parse builtin. When full the least
+ * recently used entry is dropped. The forms are shared between all callers that parse the same string, which is fine
+ * since evaluation never modifies the AST. Reading for the cache doesn't touch {@link Reader#commentFreeInput}.
+ */
+public class ParseCache {
+    private final int capacity;
+    private final LinkedHashMap<String, MyDataType> forms;
+    private long hits = 0, misses = 0;
+
+    /**
+     * @param capacity maximum number of cached forms, 0 disables caching
+     */
+    public ParseCache(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.forms = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MyDataType> eldest) {
+                return size() > ParseCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the form read from the input, reading it only if it isn't cached. Inputs that can't be read aren't cached
+     * and throw the reader's error every time.
+     *
+     * @param input string of an s-expression
+     * @return the form, shared with earlier calls with the same input
+     */
+    public MyDataType read(String input) throws REPLErrors, ReaderErrors {
+        synchronized (this) {
+            MyDataType form = forms.get(input);
+            if (form != null) {
+                hits++;
+                return form;
+            }
+            misses++;
+        }
+        MyDataType form = Reader.read_str(input, false);
+        synchronized (this) {
+            forms.put(input, form);
+        }
+        return form;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return forms.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Drops all cached forms and resets the counters.
+     */
+    public synchronized void clear() {
+        forms.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -2,9 +2,8 @@ package main;
 
 import main.REPLErrors.SyntaxError;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static main.ReaderErrors.*;
 import static main.Types.*;
@@ -16,19 +15,39 @@ public class Reader {
         this.tokens = tokens;
     }
 
+    /**
+     * For readers that produce their tokens on demand instead of holding a list of tokens, see {@link FormStream}.
+     */
+    Reader() {
+    }
+
     public static String commentFreeInput = "";
 
+    //symbols the reader macros expand to
+    static final SymbolType QUOTE = SymbolType.intern("quote");
+    static final SymbolType QUASIQUOTE = SymbolType.intern("quasiquote");
+    static final SymbolType UNQUOTE = SymbolType.intern("unquote");
+    static final SymbolType SPLICE_UNQUOTE = SymbolType.intern("splice-unquote");
+
     ArrayList<String> tokens;
     int position = 0;
 
     //Object functions
 
+    /**
+     * Called when the closing bracket of a list was read, lets readers that know where their tokens come from record
+     * the position of the list.
+     */
+    void listRead(ListType list) {
+    }
+
     /**
      * Peek at the token in current position and return it without changing the position
      *
      * @return returns the Token at the current position, null if there are no more tokens
+     * @throws REPLErrors if the next token is malformed, only thrown by readers tokenizing on demand
      */
-    public String peek() {
+    public String peek() throws REPLErrors {
         if (position >= tokens.size())
             return null;
         else
@@ -39,8 +58,9 @@ public class Reader {
      * Retrieves the token in current position and increments the position by 1
      *
      * @return returns the Token at the current position, null if there are no more tokens
+     * @throws REPLErrors if the next token is malformed, only thrown by readers tokenizing on demand
      */
-    public String next() {
+    public String next() throws REPLErrors {
         if (position >= tokens.size())
             return null;
         else
@@ -61,23 +81,13 @@ public class Reader {
         ArrayList<String> tokens = tokenize(input);
         if (storeInput) {
             //remove comments from input string to represent only what ends up being evaluated
-            StringBuilder sb = new StringBuilder();
-            for (String token : tokens)
-                sb.append(token).append(" ");
-
-            commentFreeInput = sb.toString();
-            commentFreeInput = commentFreeInput.replaceAll("\\( ", "(");
-            commentFreeInput = commentFreeInput.replaceAll(" \\)", ")");
-            commentFreeInput = commentFreeInput.replaceAll("' ", "'");
-            commentFreeInput = commentFreeInput.replaceAll("` ", "`");
-            commentFreeInput = commentFreeInput.replaceAll(", ", ",");
-            commentFreeInput = commentFreeInput.replaceAll(",@ ", ",@");
+            commentFreeInput = join(tokens);
         }
         if (tokens.size() == 0)
             throw new EmptyLineError("empty tokens");//empty line
         //corner case: 'a b c...-->silently ignores everything following 'a
         //input is more than 1 token and is neither quoted nor a list
-        if (tokens.size() > 1 && !tokens.get(0).equals("(") && !isQuote(tokens.get(0)))
+        if (tokens.size() > 1 && !tokens.get(0).equals("(") && !tokens.get(0).equals("[") && !isQuote(tokens.get(0)))
             throw new SyntaxError("wrong syntax, expected a list for more than 1 argument");
         if (tokens.size() < 2 && isQuote(tokens.get(0)))
             throw new SyntaxError("wrong syntax, nothing to quote");
@@ -93,7 +103,11 @@ public class Reader {
 
 
     /**
-     * Takes the input read from the user as one string and splits it into the tokens that make up the input, e.g. (+ 2 (- 1 2)) will return the tokens [+, 2, (- 1 2)]
+     * Takes the input read from the user as one string and splits it into the tokens that make up the input, e.g. (+ 2 (- 1 2)) will return the tokens [(, +, 2, (, -, 1, 2, ), )]
+     * <p>
+     * Single pass over the characters, produces the same tokens as the mal regex
+     * [\s]*(,@|[()'`,]|"(?:[\\].|[^\\"])*"?|;.*|[^\s ()'`";]*) it replaces. Special characters are added as
+     * constant strings, only symbols and strings are copied out of the input.
      *
      * @param input Some string that represents some sort of (partial) expression
      * @return List of tokens
@@ -101,41 +115,136 @@ public class Reader {
      * @throws SyntaxError  empty quotes or unclosed quotes, rejects input
      */
     public static ArrayList<String> tokenize(String input) throws REPLErrors {
-        //split the string into its tokens, regex from mal github
-        Pattern pattern = Pattern.compile("[\\s]*(,@|[()'`,]|\"(?:[\\\\].|[^\\\\\"])*\"?|;.*|[^\\s ()'`\";]*)");
-        //the first part matches any number of whitespaces and doesn't capture them -> [\\s]*
-        //the expression in round brackets is captured as group 1
-        //,@ captures the 2 special characters (splice unquote)
-        //[()'`,@] matches any 1 of the special characters
-        //"(?:[\\].|[^\\"])*"?  Starts capturing at a double-quote and stops at the next double-quote unless it was preceded by a backslash
-        // in which case it includes it until the next double-quote. It will also match unbalanced strings (no ending double-quote)
-        //;.*  matches a semicolon and anything after that
-        //[^\s ()'`";]*  matches a sequence of zero or more non-special characters i.e. anything that is allowed as normal symbols, atm @ and
-        //other brackets are allowed as part of symbol names (non-round brackets have no special meaning)
-        Matcher m = pattern.matcher(input);
-        String token;
         ArrayList<String> tokens = new ArrayList<>();
-        //loop over the string and match the regex
-        while (m.find()) {
-            token = m.group(1);
-            //potentially viable token to be added
-            if (token != null && !token.isEmpty() && !token.isBlank()) {
-                if (token.startsWith(";"))//handle comments (anything after a semicolon ';')
+        int length = input.length();
+        int i = 0;
+        while (i < length) {
+            char c = input.charAt(i);
+            switch (c) {
+                case ' ', '\t', '\n', '\u000B', '\f', '\r' -> i++;//whitespace between tokens
+                case '(' -> {
+                    tokens.add("(");
+                    i++;
+                }
+                case ')' -> {
+                    tokens.add(")");
+                    i++;
+                }
+                case '[' -> {
+                    tokens.add("[");
+                    i++;
+                }
+                case ']' -> {
+                    tokens.add("]");
+                    i++;
+                }
+                case '\'' -> {
+                    tokens.add("'");
+                    i++;
+                }
+                case '`' -> {
+                    tokens.add("`");
+                    i++;
+                }
+                case ',' -> {
+                    if (i + 1 < length && input.charAt(i + 1) == '@') {//splice unquote
+                        tokens.add(",@");
+                        i += 2;
+                    } else {
+                        tokens.add(",");
+                        i++;
+                    }
+                }
+                case ';' -> {//handle comments (anything after a semicolon ';')
                     if (tokens.size() == 0)
                         throw new CommentError("comment at start of line");//comment at start of a line, tells main loop to ignore this line completely
-                    else
-                        break;//comment not at start of the line, ignore rest of the line i.e. stop tokenizing
-                if (token.startsWith("\"") && (!token.endsWith("\"") || token.length() < 3))//doesn't allow non closed "foo or empty "" strings
-                    throw new SyntaxError("missing closing quote or empty quotes/string");
-                tokens.add(token);
+                    return tokens;//comment not at start of the line, ignore rest of the line i.e. stop tokenizing
+                }
+                case '"' -> {
+                    int end = endOfString(input, i, length);
+                    if (end - i < 3 || input.charAt(end - 1) != '"')//doesn't allow non closed "foo or empty "" strings
+                        throw new SyntaxError("missing closing quote or empty quotes/string");
+                    tokens.add(input.substring(i, end));
+                    i = end;
+                }
+                default -> {
+                    //sequence of non-special characters i.e. anything that is allowed as normal symbols, atm @ and
+                    //other brackets are allowed as part of symbol names (non-round brackets have no special meaning)
+                    int start = i;
+                    boolean blank = true;
+                    do {
+                        if (blank && !Character.isWhitespace(c))
+                            blank = false;
+                        if (++i == length)
+                            break;
+                        c = input.charAt(i);
+                    } while (!isDelimiter(c));
+                    if (!blank)
+                        tokens.add(input.substring(start, i));
+                }
             }
         }
         return tokens;
     }
 
+    /**
+     * Finds the end of the string token starting at the double-quote at position start. The string ends after the next
+     * double-quote unless it was preceded by a backslash. Unbalanced strings (no ending double-quote) end at the end of
+     * the input or at a backslash that doesn't escape anything.
+     *
+     * @return index after the last character of the string token
+     */
+    static int endOfString(CharSequence input, int start, int length) {
+        int i = start + 1;
+        while (i < length) {
+            char c = input.charAt(i);
+            if (c == '"')
+                return i + 1;
+            if (c == '\\') {
+                if (i + 1 == length || isLineTerminator(input.charAt(i + 1)))
+                    return i;//nothing to escape
+                i += 2;
+            } else
+                i++;
+        }
+        return i;
+    }
+
+    /**
+     * Characters that end a symbol token: whitespace, round and square brackets, quotes, double-quotes and comments.
+     */
+    static boolean isDelimiter(char c) {
+        return switch (c) {
+            case ' ', '\t', '\n', '\u000B', '\f', '\r', '(', ')', '[', ']', '\'', '`', '"', ';' -> true;
+            default -> false;
+        };
+    }
+
+    static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Joins the tokens back into a single line, separated by single spaces except after opening brackets and quotes
+     * and before closing brackets.
+     */
+    static String join(ArrayList<String> tokens) {
+        StringBuilder sb = new StringBuilder();
+        int size = tokens.size();
+        for (int i = 0; i < size; i++) {
+            String token = tokens.get(i);
+            sb.append(token);
+            if (!token.equals("(") && !token.equals("[") && !isQuote(token)
+                    && (i + 1 == size || !tokens.get(i + 1).equals(")") && !tokens.get(i + 1).equals("]")))
+                sb.append(' ');
+        }
+        return sb.toString();
+    }
+
     /**
      * Peek at token and depending on 1st char of that token call either:
      * -readList() if its a left parenthesis
+     * -readVector() if its a left square bracket
      * -readAtom() otherwise
      * or substitute the shorthand quote symbol ' with parenthesis quote syntax
      *
@@ -144,7 +253,7 @@ public class Reader {
      * @throws ParseError if there is some internal error and we attempt to read a null token. This happens when one of
      *                    the delegate methods (readList or readAtom) doesnt check for null values properly
      */
-    public static MyDataType readForm(Reader reader) throws ParseError, ParenMismatchError {
+    public static MyDataType readForm(Reader reader) throws REPLErrors, ParseError {
         //peek at token
         String token = reader.peek();
         if (token == null)//java code error, should be caught before it is passed to this method
@@ -152,19 +261,22 @@ public class Reader {
         if (token.startsWith("(")) {
             reader.next();
             return readList(reader);
+        } else if (token.equals("[")) {
+            reader.next();
+            return readVector(reader);
         //READER MACROS
         } else if (token.equals("'")) {//quote
             reader.next();
-            return new ListType(new SymbolType("quote"), readForm(reader));//converts 'exp into (quote exp)
+            return new ListType(QUOTE, readForm(reader));//converts 'exp into (quote exp)
         } else if (token.equals("`")) {//quasi quote
             reader.next();
-            return new ListType(new SymbolType("quasiquote"), readForm(reader));//converts `exp into (quasiquote exp)
+            return new ListType(QUASIQUOTE, readForm(reader));//converts `exp into (quasiquote exp)
         } else if (token.equals(",")) {//unquote
             reader.next();
-            return new ListType(new SymbolType("unquote"), readForm(reader));//converts ,exp into (unquote exp)
+            return new ListType(UNQUOTE, readForm(reader));//converts ,exp into (unquote exp)
         } else if (token.equals(",@")) {//splice-unquote
             reader.next();
-            return new ListType(new SymbolType("splice-unquote"), readForm(reader));//converts ,@exp into (splice-unquote exp)
+            return new ListType(SPLICE_UNQUOTE, readForm(reader));//converts ,@exp into (splice-unquote exp)
         } else {
             return readAtom(reader);
         }
@@ -179,55 +291,123 @@ public class Reader {
      * @throws ParenMismatchError
      * @throws ParseError
      */
-    public static MyDataType readList(Reader reader) throws ParenMismatchError, ParseError {
+    public static MyDataType readList(Reader reader) throws REPLErrors, ParseError {
         ArrayList<MyDataType> list = new ArrayList<>();
         String token;
         while ((token = reader.peek()) != null) {
             if (token.equals(")")) {//end of a list reached
-                reader.position++;//advance position since we only peeked at the token
-                return new ListType(list);
-            } else
+                reader.next();//advance position since we only peeked at the token
+                ListType result = new ListType(list);
+                reader.listRead(result);
+                return result;
+            } else if (token.equals("]"))
+                throw new SyntaxError("unexpected ']' in a list");
+            else
                 list.add(readForm(reader));//read next list element and add it to the parsed list
         }
         //EOF reached without encountering a closing paren
         throw new ParenMismatchError("no closing parenthesis");
     }
 
+    /**
+     * Repeatedly calls readForm until the closing square bracket is reached, like readList.
+     *
+     * @return VectorType containing everything between the opening and closing brackets
+     */
+    public static MyDataType readVector(Reader reader) throws REPLErrors, ParseError {
+        VectorType.Transient vector = VectorType.EMPTY.asTransient();
+        String token;
+        while ((token = reader.peek()) != null) {
+            if (token.equals("]")) {
+                reader.next();
+                return vector.persistent();
+            } else if (token.equals(")"))
+                throw new SyntaxError("unexpected ')' in a vector");
+            else
+                vector.conj(readForm(reader));
+        }
+        throw new ParenMismatchError("no closing square bracket");
+    }
+
     /**
      * Converts an atom from its string representation to an internal datatype. Does not treat empty list as a datatype
+     * <p>
+     * The token is classified by looking at its characters: optionally signed digits are integers (BigIntegerType if
+     * they don't fit into a long), numbers with a decimal point are rejected, nil, true and false are constants and
+     * anything without a double-quote is a symbol.
      *
      * @param reader the reader object holding the tokens
      * @return MyDataType representing the token
      * @throws ParseError if the token is null or doesn't match any datatype
      */
-    public static MyDataType readAtom(Reader reader) throws ParseError {
+    public static MyDataType readAtom(Reader reader) throws REPLErrors, ParseError {
         String token = reader.next();
         if (token == null)
             throw new ParseError("Token is null in read_Atom");//should never happen
-        if (token.startsWith("\""))
-            return new StringType(token.replaceAll("^\"|\"$", ""));
-        Pattern p3 = Pattern.compile("(^[+-]?[0-9]+$)|(^-?[0-9][0-9.]*$)|(^nil$)|(^true$)|(^false$)|^\"((?:[\\\\].|[^\\\\\"])*)\"$|^\"(.*)$|(^[^\"]*$)");//ty mal
-        Matcher matcher = p3.matcher(token);
-        if (!matcher.find()) {
+        return readAtom(token);
+    }
+
+    static MyDataType readAtom(String token) throws ParseError {
+        int length = token.length();
+        if (length == 0)
+            return SymbolType.intern(token);
+        char first = token.charAt(0);
+        if (first == '"')//strip the double-quotes
+            return new StringType(token.substring(1, length > 1 && token.charAt(length - 1) == '"' ? length - 1 : length));
+        int digits = first == '+' || first == '-' ? 1 : 0;
+        if (digits < length && isDigits(token, digits, length))
+            //up to 18 characters always fit into a long
+            return length <= 18 ? IntegerType.valueOf(Long.parseLong(token))
+                    : BigIntegerType.valueOf(new BigInteger(token));
+        if (isDecimal(token, first == '-' ? 1 : 0, length))//floating point numbers aren't supported
+            throw new ParseError("unrecognized '" + token + "'");
+        switch (token) {
+            case "nil":
+                return Nil;
+            case "true":
+                return True;
+            case "false":
+                return False;
+        }
+        if (token.indexOf('"') >= 0)
             throw new ParseError("unrecognized token '" + token + "'");
+        return SymbolType.intern(token);
+    }
+
+    private static boolean isDigits(String token, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
         }
-        if (matcher.group(1) != null) {
-            return new IntegerType(Integer.parseInt(matcher.group(1)));
-        } else if (matcher.group(3) != null) {
-            return Nil;
-        } else if (matcher.group(4) != null) {
-            return True;
-        } else if (matcher.group(5) != null) {
-            return False;
-        } else if (matcher.group(6) != null) {//normal strings, matched quotes
-            return new StringType((matcher.group(6)));
-        } else if (matcher.group(7) != null) {//unmatched quotes
-            throw new ParseError("expected '\"', got EOF");//should be caught by tokenize before ever getting here
-        } else if (matcher.group(8) != null) {
-            return new SymbolType(matcher.group(8));
-        } else {
-            throw new ParseError("unrecognized '" + matcher.group(0) + "'");
+        return true;
+    }
+
+    /**
+     * @return true if the token is a digit followed by digits and dots, starting at from
+     */
+    private static boolean isDecimal(String token, int from, int to) {
+        if (from >= to || token.charAt(from) < '0' || token.charAt(from) > '9')
+            return false;
+        for (int i = from + 1; i < to; i++) {
+            char c = token.charAt(i);
+            if ((c < '0' || c > '9') && c != '.')
+                return false;
         }
+        return true;
+    }
+
+    /**
+     * @return the symbol the reader macro expands to, e.g. quote for ', or null if the token isn't a quote
+     */
+    static SymbolType quoteSymbol(String token) {
+        return switch (token) {
+            case "'" -> QUOTE;
+            case "`" -> QUASIQUOTE;
+            case "," -> UNQUOTE;
+            case ",@" -> SPLICE_UNQUOTE;
+            default -> null;
+        };
     }
 
     public static boolean isQuote(String token) {
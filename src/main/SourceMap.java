@@ -0,0 +1,118 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static main.Types.ListType;
+import static main.Types.MyDataType;
+
+/**
+ * Side table holding the file, line and column each list was read from. Positions are packed into a single long and
+ * kept in a weak map keyed by the list object, so the AST itself carries no extra fields and entries disappear with
+ * the lists. Only lists read from files are recorded, see {@link FormStream#FormStream(java.nio.CharBuffer, int, int)}.
+ */
+public class SourceMap {
+    //16 bits file, 28 bits line, 20 bits column
+    private static final int LINE_BITS = 28, COLUMN_BITS = 20;
+    private static final long LINE_MASK = (1L << LINE_BITS) - 1, COLUMN_MASK = (1L << COLUMN_BITS) - 1;
+
+    private static final ArrayList<String> files = new ArrayList<>();
+    //ListType doesn't override equals/hashCode so lists are compared by reference
+    private static final Map<ListType, Long> positions = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<Throwable, Long> errors = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Set to false with -Dlisp.sourcePositions=false to read files without recording positions.
+     */
+    public static boolean enabled = !"false".equals(System.getProperty("lisp.sourcePositions"));
+
+    /**
+     * @return the id used for the file in packed positions
+     */
+    public static synchronized int fileId(String file) {
+        int id = files.indexOf(file);
+        if (id >= 0)
+            return id;
+        files.add(file);
+        return files.size() - 1;
+    }
+
+    public static long pack(int file, int line, int column) {
+        return ((long) file << (LINE_BITS + COLUMN_BITS)) | (Math.min(line, LINE_MASK) << COLUMN_BITS)
+                | Math.min(column, COLUMN_MASK);
+    }
+
+    public static int file(long position) {
+        return (int) (position >>> (LINE_BITS + COLUMN_BITS));
+    }
+
+    public static int line(long position) {
+        return (int) ((position >>> COLUMN_BITS) & LINE_MASK);
+    }
+
+    public static int column(long position) {
+        return (int) (position & COLUMN_MASK);
+    }
+
+    /**
+     * Adds the positions recorded while reading a part of a file.
+     */
+    public static void addAll(Map<ListType, Long> recorded) {
+        if (!recorded.isEmpty())
+            positions.putAll(recorded);
+    }
+
+    public static void put(ListType list, long position) {
+        positions.put(list, position);
+    }
+
+    /**
+     * @return the packed position the list was read from, or -1 if it wasn't read from a file
+     */
+    public static long get(MyDataType form) {
+        if (!(form instanceof ListType list))
+            return -1;
+        Long position = positions.get(list);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * @return the position of the form as file:line:column, or null if it wasn't read from a file
+     */
+    public static String describe(MyDataType form) {
+        return describe(get(form));
+    }
+
+    private static String describe(long position) {
+        if (position < 0)
+            return null;
+        String file;
+        synchronized (SourceMap.class) {
+            file = files.get(file(position));
+        }
+        return file + ":" + line(position) + ":" + column(position);
+    }
+
+    /**
+     * Attributes the error to the form if it was read from a file, unless the error was already attributed to a form
+     * further down. Called while the error propagates out of the evaluation of nested forms, so the innermost form with
+     * a known position wins.
+     */
+    public static void blame(Throwable error, MyDataType form) {
+        if (positions.isEmpty() || errors.containsKey(error))
+            return;
+        long position = get(form);
+        if (position >= 0)
+            errors.put(error, position);
+    }
+
+    /**
+     * @return the position of the innermost form the error was attributed to as file:line:column, or null
+     */
+    public static String locate(Throwable error) {
+        Long position = errors.get(error);
+        return position == null ? null : describe(position);
+    }
+}
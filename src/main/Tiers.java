@@ -0,0 +1,98 @@
+package main;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static main.Analyzer.*;
+
+/**
+ * Tiered execution of defuns. A function starts in the tree walker and counts its calls and its back edges, the calls
+ * it returns in tail position, i.e. the iterations of its loops. Once the calls reach the vm threshold its body is
+ * compiled to bytecode for the {@link VM}, once they reach the jit threshold or the back edges reach their threshold it
+ * is compiled to a JVM class by the {@link JvmCompiler}.
+ * <p>
+ * Compiling runs on a background thread, the function keeps running in its current tier until the new code is
+ * installed. A function that can't be compiled for a tier stays in the tier below. Anonymous functions stay in the
+ * tree walker, or in the VM with -Dlisp.compile=true.
+ * <p>
+ * The thresholds are set with -Dlisp.vmThreshold (default 100), -Dlisp.jitThreshold (default 1000) and
+ * -Dlisp.backEdgeThreshold (default 10000). -Dlisp.backgroundCompile=false compiles on the thread making the call.
+ */
+public class Tiers {
+    public static final int TREE = 0, BYTECODE = 1, JVM = 2;
+    private static final String[] NAMES = {"tree", "bytecode", "jvm"};
+
+    public static int vmThreshold = Integer.getInteger("lisp.vmThreshold", 100);
+    public static int jitThreshold = Integer.getInteger("lisp.jitThreshold", 1000);
+    public static int backEdgeThreshold = Integer.getInteger("lisp.backEdgeThreshold", 10000);
+    public static boolean background = !"false".equals(System.getProperty("lisp.backgroundCompile"));
+
+    private static final ExecutorService compiler = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "lisp compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Tiers() {
+    }
+
+    /**
+     * Called by the interpreter when a counter of the function reached a threshold, requests the compilation for the
+     * highest tier the counters reached unless it was requested before.
+     */
+    static void hot(Lambda lambda) {
+        if (lambda.requested == JVM || lambda.checkArity)
+            return;
+        int tier = TREE;
+        if (JvmCompiler.enabled && (lambda.calls >= jitThreshold || lambda.backEdges >= backEdgeThreshold))
+            tier = JVM;
+        else if (lambda.calls >= vmThreshold)
+            tier = BYTECODE;
+        if (tier <= lambda.requested)
+            return;
+        lambda.requested = tier;
+        lambda.compiling = true;
+        int target = tier;
+        if (background)
+            compiler.execute(() -> compile(lambda, target));
+        else
+            compile(lambda, target);
+    }
+
+    private static void compile(Lambda lambda, int tier) {
+        try {
+            if (tier == BYTECODE) {
+                if (lambda.code == null)
+                    lambda.code = BytecodeCompiler.compile(lambda);
+            } else {
+                Entry entry = JvmCompiler.generate(lambda);
+                if (entry != null)
+                    lambda.entry = entry;
+            }
+        } finally {
+            lambda.compiling = false;
+        }
+    }
+
+    /**
+     * Waits until the compilations requested so far are done.
+     */
+    public static void awaitCompilations() throws InterruptedException {
+        try {
+            compiler.submit(() -> {
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);//the task is empty
+        }
+    }
+
+    /**
+     * @return name of the tier the function runs in
+     */
+    static String tier(Closure closure) {
+        Lambda lambda = closure.lambda;
+        int tier = !(lambda.entry instanceof Interpreted) ? JVM : lambda.code != null ? BYTECODE : TREE;
+        return NAMES[tier];
+    }
+}
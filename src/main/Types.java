@@ -1,8 +1,10 @@
 package main;
 
-import java.util.ArrayList;
+import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 //Datatypes used, encapsulated to get around the troubles of static types
 public class Types {
@@ -30,17 +32,9 @@ public class Types {
         private boolean isMacro = false;
 
         public MyDataType body = null;
-        private Environment environment = null;//inner/local env
         private ListType parameters = null;
         private boolean is_core = false;
 
-        public MyFunction(String name, MyDataType body, Environment environment, ListType parameters) {
-            this.value = name;
-            this.body = body;
-            this.environment = environment;
-            this.parameters = parameters;
-        }
-
         public MyFunction(String name, MyDataType body, ListType parameters) {
             this.value = name;
             this.body = body;
@@ -52,69 +46,6 @@ public class Types {
         }
 
 
-        public void lexical(ListType args) throws REPLErrors, ReaderErrors {
-            if (!isMacro)
-                return;
-            //STEP 1: check for conflicts between args and body
-            ArrayList<String> argList = new ArrayList<>();//candidates for conflicts
-            ArrayList<String> paramList = new ArrayList<>();//strings to be removed from body before conflict checking
-            //populate argList and paramList with symbol types, ignore other datatypes
-            for (int i = 0; i < args.size(); i++) {
-                if (args.get(i) instanceof SymbolType as)
-                    argList.add(as.getValue());
-                if (parameters.get(i) instanceof SymbolType ps)
-                    paramList.add(ps.getValue());
-            }
-            if (argList.isEmpty())//no conflicts possible since none of the args are symbols
-                return;
-            String bodyWithoutParams = body.toString();//used to determine conflicts
-            String bodyReplacement = bodyWithoutParams.replaceAll("\\(", "( ");//used to resolve conflicts, passed to reader to make new body
-            bodyReplacement = bodyReplacement.replaceAll("\\)", " )");//pad brackets
-            //remove params, quotes and brackets from body
-            for (String p : paramList)
-                bodyWithoutParams = bodyWithoutParams.replaceAll(p, "");
-            bodyWithoutParams = bodyWithoutParams.replaceAll("(\\)|\\(|,|'|`|@)", "");
-            bodyWithoutParams = bodyWithoutParams.replaceAll("(\s+)", " ");
-
-            //determine if conflicts exist
-            ArrayList<String> bodySplit = new ArrayList<>(Arrays.asList(bodyWithoutParams.split("\s")));//holds all words except params
-
-            ArrayList<String> conflictList = new ArrayList<>();
-            for (String split : bodySplit) {
-                if (argList.contains(split) && !conflictList.contains(split)) {
-                    conflictList.add(split);
-                }
-            }
-            //STEP 2: resolve conflicts by renaming vars in body
-            //replace conflicting arg names in body
-            String replacement = "foo";
-            int appendix;
-            boolean hasConflict;
-            bodySplit.addAll(argList);
-            if (!conflictList.isEmpty()) {
-                for (String conflictingVar : conflictList) {
-                    //find a new name
-                    hasConflict = true;
-                    appendix = 1;
-                    while (hasConflict) {
-                        replacement = conflictingVar + "_" + appendix++;
-                        if (!bodySplit.contains(replacement)) {
-                            //name is not taken yet
-                            //add new name to bodySplit
-                            //this now keeps track of any name that can lead to conflicts
-                            bodySplit.add(replacement);
-                            hasConflict = false;
-                        }
-                    }
-                    bodyReplacement = bodyReplacement.replaceAll("\s" + conflictingVar + "\s", "\s" + replacement + "\s");
-                }
-            }
-            bodyReplacement = bodyReplacement.replaceAll("\\(\s", "(");
-            bodyReplacement = bodyReplacement.replaceAll("\s\\)", ")");
-            this.body = Reader.read_str(bodyReplacement, false);//transform string back into ast
-        }
-
-
         @Override
         public boolean equals(MyDataType other) {
             return false;
@@ -142,14 +73,6 @@ public class Types {
             this.body = body;
         }
 
-        public Environment getEnvironment() {
-            return environment;
-        }
-
-        public void setEnvironment(Environment environment) {
-            this.environment = environment;
-        }
-
         public void setMacro(boolean macro) {
             isMacro = macro;
         }
@@ -171,25 +94,111 @@ public class Types {
             this.is_core = is_core;
             return this;
         }
+
+        //entry points for calls with a fixed number of arguments, the evaluator calls them instead of building a list
+        //of the arguments. By default they build the list for apply(ListType), functions that can run without it
+        //override them
+
+        public MyDataType apply0() throws REPLErrors, ReaderErrors {
+            return apply(new ListType());
+        }
+
+        public MyDataType apply1(MyDataType a0) throws REPLErrors, ReaderErrors {
+            return apply(new ListType(a0));
+        }
+
+        public MyDataType apply2(MyDataType a0, MyDataType a1) throws REPLErrors, ReaderErrors {
+            return apply(new ListType(a0, a1));
+        }
+
+        public MyDataType apply3(MyDataType a0, MyDataType a1, MyDataType a2) throws REPLErrors, ReaderErrors {
+            return apply(new ListType(a0, a1, a2));
+        }
+
+        /**
+         * Entry point for calls with any number of arguments, used for more than three.
+         */
+        public MyDataType applyN(MyDataType... args) throws REPLErrors, ReaderErrors {
+            return apply(new ListType(args));
+        }
     }
 
-    //wrapper class for Lists
+    /**
+     * Immutable list. A list is either a cons cell, holding its first element and the list of the others, or a view
+     * of a range of an array. cons, first and rest take constant time and share the structure of the list they were
+     * made from: cons makes a cell with the list as its tail, rest returns the tail of a cell or a view of the same
+     * array starting one element later. Lists made from all their elements at once (reader, list, argument lists)
+     * are array views, so get and size take constant time on them.
+     */
     public static class ListType extends MyDataType {
-        ArrayList<MyDataType> values;
+        private static final MyDataType[] NO_ELEMENTS = new MyDataType[0];
+
+        //cons cell: first element and the list of the others, items is null
+        private final MyDataType head;
+        private final ListType tail;
+        //array view: the elements are items[offset] to items[offset + size - 1]
+        private final MyDataType[] items;
+        private final int offset;
+        private final int size;
 
         public ListType(List<MyDataType> list) {
-            values = new ArrayList<>();
-            values.addAll(list);
+            this(list.toArray(NO_ELEMENTS), 0, list.size());
         }
 
         public ListType(MyDataType... args) {
-            this.values = new ArrayList<>();
-            values.addAll(Arrays.asList(args));
+            this(args.clone(), 0, args.length);
+        }
+
+        private ListType(MyDataType[] items, int offset, int size) {
+            this.head = null;
+            this.tail = null;
+            this.items = items;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        private ListType(MyDataType head, ListType tail, int size) {
+            this.head = head;
+            this.tail = tail;
+            this.items = null;
+            this.offset = 0;
+            this.size = size;
+        }
+
+        /**
+         * @return list with the element in front of the elements of the tail, sharing the tail
+         */
+        public static ListType cons(MyDataType element, ListType tail) {
+            return new ListType(element, tail, tail.size + 1);
         }
 
+        /**
+         * @return read only view of the elements, copies them if the list is made of cons cells
+         */
         @Override
-        public ArrayList<MyDataType> getValue() {
-            return values;
+        public List<MyDataType> getValue() {
+            if (items == null)
+                return Collections.unmodifiableList(Arrays.asList(toArray()));
+            return Collections.unmodifiableList(Arrays.asList(items).subList(offset, offset + size));
+        }
+
+        /**
+         * @return new array of the elements
+         */
+        public MyDataType[] toArray() {
+            if (items != null)
+                return Arrays.copyOfRange(items, offset, offset + size);
+            MyDataType[] elements = new MyDataType[size];
+            ListType list = this;
+            for (int i = 0; i < size; i++) {
+                if (list.items != null) {
+                    System.arraycopy(list.items, list.offset, elements, i, size - i);
+                    break;
+                }
+                elements[i] = list.head;
+                list = list.tail;
+            }
+            return elements;
         }
 
         /**
@@ -213,11 +222,12 @@ public class Types {
 
         @Override
         public String toString() {
-            if (values == null || values.size() < 1)
+            if (size < 1)
                 return "()";
+            MyDataType[] values = toArray();
             StringBuilder s;
             //call toString on every element of the list other than quote and put some brackets around it
-            if (values.get(0) instanceof SymbolType a0 &&
+            if (values[0] instanceof SymbolType a0 &&
                     (a0.getValue().equals("quote") || a0.getValue().equals("quasiquote") || a0.getValue().equals("unquote")
                             || a0.getValue().equals("splice-unquote"))) {
                 //Make quotes readable again
@@ -233,30 +243,37 @@ public class Types {
                 else
                     s = new StringBuilder("quote error");
 
-                if (values.size() > 2)
-                    return "more than 1 exp in a quoted list: " + values;
+                if (values.length > 2)
+                    return "more than 1 exp in a quoted list: " + Arrays.toString(values);
                 else
-                    return s.append(values.get(1)).toString().stripTrailing();
+                    return s.append(values.length > 1 ? values[1] : null).toString().stripTrailing();
             } else {
                 s = new StringBuilder("(");
                 for (MyDataType e : values)
                     s.append(e.toString()).append(" ");
-//                s.replace(s.length() - 1, s.length(), ")");
                 return s.toString().stripTrailing() + ")";
             }
         }
 
         public int size() {
-            return values.size();
+            return size;
         }
 
         /**
-         * Returns the item at the specified position, or null if index i is out of range.
+         * Returns the item at the specified position, or null if index i is out of range. Takes time linear in i for
+         * the cons cells in front of it.
          */
         public MyDataType get(int i) {
-            if (i >= values.size())
+            if (i < 0 || i >= size)
                 return null;
-            return values.get(i);
+            ListType list = this;
+            while (list.items == null) {
+                if (i == 0)
+                    return list.head;
+                i--;
+                list = list.tail;
+            }
+            return list.items[list.offset + i];
         }
 
         /**
@@ -265,39 +282,355 @@ public class Types {
          * @return the first element of the list, null if list is empty
          */
         public MyDataType first() {
-            if (values.size() < 1)
+            if (size < 1)
                 return null;
-            else
-                return values.get(0);
+            return items == null ? head : items[offset];
         }
 
         /**
-         * Gets everything except the first element of the list. If the list is empty it returns a (new) empty list.
+         * Gets everything except the first element of the list, sharing its structure. If the list is empty it
+         * returns a (new) empty list.
          *
          * @return a list containing everything except the first element
          */
         public ListType rest() {
-            if (values.size() > 0)
-                return new ListType(values.subList(1, values.size()));
-            else
+            if (size < 1)
                 return new ListType();//empty list
+            return items == null ? tail : new ListType(items, offset + 1, size - 1);
+        }
+    }
+
+    /**
+     * Immutable vector, a tree of arrays with 32 children per node (a hash array mapped trie indexed by position) and
+     * the last up to 32 elements kept apart in a tail. get reads at most log32(n) nodes, i.e. effectively constant
+     * time. assocN and conj copy only the path to the element: one array per level, and the tail. Vectors are
+     * built in bulk through a {@link Transient}, which fills its arrays in place instead of copying them.
+     * <p>
+     * Like quoted lists, vector literals [a b c] evaluate to themselves; their elements are not evaluated.
+     */
+    public static class VectorType extends MyDataType {
+        private static final int BITS = 5, WIDTH = 1 << BITS, MASK = WIDTH - 1;
+        private static final Object[] NO_ELEMENTS = new Object[0];
+        public static final VectorType EMPTY = new VectorType(0, BITS, new Node(null, new Object[WIDTH]), NO_ELEMENTS);
+
+        /**
+         * Node of the tree: an array of child nodes, or of elements at the lowest level. Nodes made by a transient
+         * carry its edit token and may only be changed in place by that transient while it is editable.
+         */
+        private static final class Node {
+            final Object edit;
+            final Object[] array;
+
+            Node(Object edit, Object[] array) {
+                this.edit = edit;
+                this.array = array;
+            }
+        }
+
+        private final int count;
+        private final int shift;//bits of the index used below the root, BITS for a root holding leaves
+        private final Node root;
+        private final Object[] tail;
+
+        private VectorType(int count, int shift, Node root, Object[] tail) {
+            this.count = count;
+            this.shift = shift;
+            this.root = root;
+            this.tail = tail;
+        }
+
+        /**
+         * @return vector of the elements in order
+         */
+        public static VectorType of(MyDataType... elements) {
+            return of(Arrays.asList(elements));
+        }
+
+        public static VectorType of(List<MyDataType> elements) {
+            Transient vector = EMPTY.asTransient();
+            for (MyDataType element : elements)
+                vector.conj(element);
+            return vector.persistent();
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Returns the element at the specified position, or null if index i is out of range.
+         */
+        public MyDataType get(int i) {
+            if (i < 0 || i >= count)
+                return null;
+            return (MyDataType) leaf(i)[i & MASK];
+        }
+
+        /**
+         * @return vector with the element at position i replaced, or appended if i is the size of this vector
+         * @throws IndexOutOfBoundsException if i is negative or greater than the size
+         */
+        public VectorType assocN(int i, MyDataType element) {
+            if (i == count)
+                return conj(element);
+            if (i < 0 || i > count)
+                throw new IndexOutOfBoundsException(i);
+            if (i >= tailOffset()) {
+                Object[] newTail = tail.clone();
+                newTail[i & MASK] = element;
+                return new VectorType(count, shift, root, newTail);
+            }
+            return new VectorType(count, shift, assocN(shift, root, i, element), tail);
+        }
+
+        private static Node assocN(int level, Node node, int i, MyDataType element) {
+            Object[] array = node.array.clone();
+            if (level == 0)
+                array[i & MASK] = element;
+            else {
+                int child = (i >>> level) & MASK;
+                array[child] = assocN(level - BITS, (Node) node.array[child], i, element);
+            }
+            return new Node(null, array);
+        }
+
+        /**
+         * @return vector with the element appended
+         */
+        public VectorType conj(MyDataType element) {
+            if (count - tailOffset() < WIDTH) {//room in the tail
+                Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+                newTail[tail.length] = element;
+                return new VectorType(count + 1, shift, root, newTail);
+            }
+            //the full tail moves into the tree, the root grows a level if it is full
+            Node tailNode = new Node(null, tail);
+            Node newRoot;
+            int newShift = shift;
+            if ((count >>> BITS) > (1 << shift)) {
+                newRoot = new Node(null, new Object[WIDTH]);
+                newRoot.array[0] = root;
+                newRoot.array[1] = newPath(null, shift, tailNode);
+                newShift += BITS;
+            } else
+                newRoot = pushTail(null, count, shift, root, tailNode);
+            return new VectorType(count + 1, newShift, newRoot, new Object[]{element});
+        }
+
+        /**
+         * @return transient vector holding the same elements, for building a new vector from this one in bulk
+         */
+        public Transient asTransient() {
+            return new Transient(this);
+        }
+
+        private int tailOffset() {
+            return tailOffset(count);
+        }
+
+        private static int tailOffset(int count) {
+            return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+        }
+
+        private Object[] leaf(int i) {
+            if (i >= tailOffset())
+                return tail;
+            Node node = root;
+            for (int level = shift; level > 0; level -= BITS)
+                node = (Node) node.array[(i >>> level) & MASK];
+            return node.array;
+        }
+
+        /**
+         * @return copy of the parent with the path to the position of the tail node, the last element of a vector with
+         * count elements, added. Nodes owned by edit are changed in place.
+         */
+        private static Node pushTail(Object edit, int count, int level, Node parent, Node tailNode) {
+            Node node = edit != null && parent.edit == edit ? parent : new Node(edit, parent.array.clone());
+            int child = ((count - 1) >>> level) & MASK;
+            if (level == BITS)
+                node.array[child] = tailNode;
+            else {
+                Node next = (Node) parent.array[child];
+                node.array[child] = next != null ? pushTail(edit, count, level - BITS, next, tailNode)
+                        : newPath(edit, level - BITS, tailNode);
+            }
+            return node;
+        }
+
+        private static Node newPath(Object edit, int level, Node node) {
+            if (level == 0)
+                return node;
+            Node path = new Node(edit, new Object[WIDTH]);
+            path.array[0] = newPath(edit, level - BITS, node);
+            return path;
+        }
+
+        /**
+         * @return read only list of the elements
+         */
+        @Override
+        public List<MyDataType> getValue() {
+            return Collections.unmodifiableList(Arrays.asList(toArray()));
+        }
+
+        /**
+         * @return new array of the elements
+         */
+        public MyDataType[] toArray() {
+            MyDataType[] elements = new MyDataType[count];
+            for (int i = 0; i < count; i += WIDTH) {
+                Object[] leaf = leaf(i);
+                System.arraycopy(leaf, 0, elements, i, Math.min(WIDTH, count - i));
+            }
+            return elements;
+        }
+
+        /**
+         * Vectors are only eq if they are the same vector or both empty, like lists.
+         */
+        @Override
+        public boolean equals(MyDataType other) {
+            return this == other || other instanceof VectorType vector && count == 0 && vector.count == 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder("[");
+            for (MyDataType e : toArray())
+                s.append(e.toString()).append(" ");
+            return s.toString().stripTrailing() + "]";
+        }
+
+        /**
+         * Vector that is changed in place while it is built. Appending fills the tail and the nodes made by this
+         * transient without copying them, nodes shared with the vector it was made from are copied once. After
+         * {@link #persistent()} it can't be changed anymore. Not thread safe, a transient is built by one thread.
+         */
+        public static class Transient extends MyDataType {
+            private Object edit = new Object();//null once persistent
+            private int count;
+            private int shift;
+            private Node root;
+            private Object[] tail;
+
+            private Transient(VectorType vector) {
+                count = vector.count;
+                shift = vector.shift;
+                root = new Node(edit, vector.root.array.clone());
+                tail = Arrays.copyOf(vector.tail, WIDTH);
+            }
+
+            public int size() {
+                return count;
+            }
+
+            /**
+             * Appends the element in place.
+             *
+             * @return this transient
+             * @throws IllegalStateException if the vector was already made persistent
+             */
+            public Transient conj(MyDataType element) {
+                ensureEditable();
+                int i = count;
+                if (i - tailOffset(i) < WIDTH) {//room in the tail
+                    tail[i & MASK] = element;
+                    count++;
+                    return this;
+                }
+                Node tailNode = new Node(edit, tail);
+                tail = new Object[WIDTH];
+                tail[0] = element;
+                if ((count >>> BITS) > (1 << shift)) {
+                    Node newRoot = new Node(edit, new Object[WIDTH]);
+                    newRoot.array[0] = root;
+                    newRoot.array[1] = newPath(edit, shift, tailNode);
+                    root = newRoot;
+                    shift += BITS;
+                } else
+                    root = pushTail(edit, count, shift, root, tailNode);
+                count++;
+                return this;
+            }
+
+            /**
+             * Ends building, the transient can't be changed afterwards.
+             *
+             * @return vector of the elements appended so far
+             * @throws IllegalStateException if the vector was already made persistent
+             */
+            public VectorType persistent() {
+                ensureEditable();
+                edit = null;
+                return new VectorType(count, shift, root, Arrays.copyOf(tail, count - tailOffset(count)));
+            }
+
+            /**
+             * @return false once the vector was made persistent
+             */
+            public boolean isEditable() {
+                return edit != null;
+            }
+
+            private void ensureEditable() {
+                if (edit == null)
+                    throw new IllegalStateException("transient vector used after persistent!");
+            }
+
+            @Override
+            public String getValue() {
+                return toString();
+            }
+
+            @Override
+            public boolean equals(MyDataType other) {
+                return this == other;
+            }
+
+            @Override
+            public String toString() {
+                return "#<transient vector of " + count + ">";
+            }
         }
     }
 
-    //wrapper class for integers
+    //wrapper class for integers that fit into a long, larger ones are BigIntegerTypes
     public static class IntegerType extends MyDataType {
-        Integer value;
+        //canonical instances of the small values, made by valueOf
+        private static final int CACHE_LOW = -128, CACHE_HIGH = 1023;
+        private static final IntegerType[] cache = new IntegerType[CACHE_HIGH - CACHE_LOW + 1];
 
-        public IntegerType(Integer value) {
+        static {
+            for (int i = 0; i < cache.length; i++)
+                cache[i] = new IntegerType(CACHE_LOW + i);
+        }
+
+        final long value;
+
+        public IntegerType(long value) {
             this.value = value;
         }
 
+        /**
+         * @return the canonical instance for values from -128 to 1023, a new one otherwise
+         */
+        public static IntegerType valueOf(long value) {
+            if (value >= CACHE_LOW && value <= CACHE_HIGH)
+                return cache[(int) value - CACHE_LOW];
+            return new IntegerType(value);
+        }
+
         @Override
         public String toString() {
-            return Integer.toString(value);
+            return Long.toString(value);
         }
 
-        public Integer getValue() {
+        public Long getValue() {
+            return value;
+        }
+
+        public long longValue() {
             return value;
         }
 
@@ -308,19 +641,92 @@ public class Types {
          */
         @Override
         public boolean equals(MyDataType other) {
-            if (other instanceof IntegerType)
-                return this.value.equals(((IntegerType) other).getValue());
-            else
-                return false;
+            return other instanceof IntegerType integer && value == integer.value;
+        }
+    }
+
+    /**
+     * Integer that doesn't fit into a long, read from a literal or the result of arithmetic that overflowed. Every
+     * value that fits into a long is an {@link IntegerType}, so the two types never hold the same value.
+     */
+    public static class BigIntegerType extends MyDataType {
+        final BigInteger value;
+
+        private BigIntegerType(BigInteger value) {
+            this.value = value;
+        }
+
+        /**
+         * @return IntegerType if the value fits into a long, BigIntegerType otherwise
+         */
+        public static MyDataType valueOf(BigInteger value) {
+            return value.bitLength() < Long.SIZE ? IntegerType.valueOf(value.longValue()) : new BigIntegerType(value);
+        }
+
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+
+        public BigInteger getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(MyDataType other) {
+            return other instanceof BigIntegerType integer && value.equals(integer.value);
         }
     }
 
     //wrapper class for Symbols
     public static class SymbolType extends MyDataType {
-        String value;
+        //one canonical instance per symbol name, shared by all threads reading forms
+        private static final ConcurrentHashMap<String, SymbolType> symbols = new ConcurrentHashMap<>();
+
+        final String value;
+        private final int hash;
+        private final boolean interned;
 
         public SymbolType(String value) {
+            this(value, false);
+        }
+
+        private SymbolType(String value, boolean interned) {
             this.value = value;
+            this.hash = value.hashCode();
+            this.interned = interned;
+        }
+
+        /**
+         * Returns the canonical symbol for the name. Canonical symbols with the same name are the same object, so they
+         * can be compared by reference and used as keys of identity based maps.
+         *
+         * @param name name of the symbol
+         * @return the canonical symbol with that name
+         */
+        public static SymbolType intern(String name) {
+            SymbolType symbol = symbols.get(name);
+            if (symbol == null)
+                symbol = symbols.computeIfAbsent(name, n -> new SymbolType(n, true));
+            return symbol;
+        }
+
+        /**
+         * Creates the canonical symbol for a name no symbol was interned with before.
+         *
+         * @param name name of the symbol
+         * @return the new canonical symbol, null if the name was already interned
+         */
+        static SymbolType internFresh(String name) {
+            SymbolType symbol = new SymbolType(name, true);
+            return symbols.putIfAbsent(name, symbol) == null ? symbol : null;
+        }
+
+        /**
+         * @return the canonical symbol with the same name as this one, this if it already is canonical
+         */
+        public SymbolType canonical() {
+            return interned ? this : intern(value);
         }
 
         @Override
@@ -328,19 +734,27 @@ public class Types {
             return value;
         }
 
-        public void setValue(String value) {
-            this.value = value;
-        }
-
         @Override
         public boolean equals(MyDataType other) {
-            if (other instanceof SymbolType)
-                return this.value.equals(((SymbolType) other).getValue());
+            if (this == other)
+                return true;
+            if (other instanceof SymbolType symbol)
+                //two different canonical symbols never have the same name
+                return !(interned && symbol.interned) && hash == symbol.hash && value.equals(symbol.value);
             else
                 return false;
 
         }
 
+        /**
+         * Hash of the symbol name, computed once. Note that equals(Object) is not overridden, maps keyed by symbols
+         * compare them by reference and should only be used with canonical symbols.
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
         @Override
         public String toString() {
             return value;
@@ -0,0 +1,168 @@
+package main;
+
+import java.util.Arrays;
+
+import static main.Analyzer.*;
+import static main.BytecodeCompiler.*;
+import static main.REPLErrors.ApplyError;
+import static main.REPLErrors.SyntaxError;
+import static main.Types.*;
+
+/**
+ * Runs the bytecode made by the {@link BytecodeCompiler}. Every activation has an operand stack of its own, locals are
+ * stored in the {@link Frame}s shared with the tree walker. Calls of closures are made recursively, calls in tail position
+ * return a {@link TailCall} that the closure running the code makes, like in the tree walker.
+ */
+public class VM {
+
+    private VM() {
+    }
+
+    /**
+     * Runs the code in the frame.
+     *
+     * @return the value of the code or a TailCall if the code was compiled in tail position
+     */
+    static MyDataType execute(Code code, Frame frame) throws REPLErrors, ReaderErrors {
+        final char[] ops = code.ops;
+        final Object[] pool = code.pool;
+        final MyDataType[] stack = new MyDataType[code.maxStack];
+        int sp = 0, pc = 0, start = 0;
+        try {
+            while (true) {
+                start = pc;
+                switch (ops[pc]) {
+                    case CONST -> {
+                        stack[sp++] = (MyDataType) pool[ops[pc + 1]];
+                        pc += 2;
+                    }
+                    case LOAD_LOCAL -> {
+                        Frame target = frame;
+                        for (int i = ops[pc + 1]; i > 0; i--)
+                            target = target.outer;
+                        MyDataType value = target.slots[ops[pc + 2]];
+                        //an empty slot falls back to the declaration further out, see Scope.resolve
+                        stack[sp++] = value != null ? value : ((Ref) pool[ops[pc + 3]]).execute(frame);
+                        pc += 4;
+                    }
+                    case STORE_LOCAL -> {
+                        frame.slots[ops[pc + 1]] = stack[--sp];
+                        pc += 2;
+                    }
+                    case LOAD_GLOBAL -> {
+                        GlobalRef ref = (GlobalRef) pool[ops[pc + 1]];
+                        MyDataType value = ref.cell.value;
+                        if (value == null)
+                            throw ref.notFound();
+                        stack[sp++] = value;
+                        pc += 2;
+                    }
+                    case STORE_GLOBAL -> {
+                        REPL.globalEnv.put((SymbolType) pool[ops[pc + 1]], stack[sp - 1]);
+                        pc += 2;
+                    }
+                    case CHECK_BOUND -> {
+                        Ref ref = (Ref) pool[ops[pc + 1]];
+                        if (!ref.isBound(frame))
+                            throw new SyntaxError("cannot use set! on unassigned variable: " + ref.name.getValue());
+                        pc += 2;
+                    }
+                    case SET -> {
+                        ((Ref) pool[ops[pc + 1]]).assign(frame, stack[sp - 1]);
+                        pc += 2;
+                    }
+                    case LOAD_FUNCTION -> {
+                        Call call = (Call) pool[ops[pc + 1]];
+                        GlobalRef ref = (GlobalRef) call.operator;
+                        MyDataType function = ref.cell.value;
+                        if (function == null)
+                            throw ref.notFound();
+                        if (function instanceof MyFunction f && f.isMacro()) {
+                            //a macro defined after the call was analyzed, the call site expands it
+                            int target = ops[pc + 2];
+                            boolean tail = ops[target - 2] == TAIL_CALL;
+                            stack[sp++] = tail ? call.executeTail(frame) : call.execute(frame);
+                            pc = target;
+                        } else {
+                            stack[sp++] = function;
+                            pc += 3;
+                        }
+                    }
+                    case CALL, TAIL_CALL -> {
+                        int argc = ops[pc + 1];
+                        sp -= argc + 1;
+                        MyDataType function = stack[sp];
+                        MyDataType result;
+                        if (function instanceof Closure closure) {
+                            Frame arguments = closure.bind(stack, sp + 1, argc);
+                            if (ops[pc] == TAIL_CALL)
+                                return new TailCall(closure, arguments);
+                            result = closure.run(arguments);
+                        } else if (function instanceof MyFunction f) {
+                            int from = sp + 1;
+                            result = switch (argc) {
+                                case 0 -> f.apply0();
+                                case 1 -> f.apply1(stack[from]);
+                                case 2 -> f.apply2(stack[from], stack[from + 1]);
+                                case 3 -> f.apply3(stack[from], stack[from + 1], stack[from + 2]);
+                                default -> f.applyN(Arrays.copyOfRange(stack, from, from + argc));
+                            };
+                        } else
+                            throw new ApplyError("Function call failed, could not find a function called "
+                                    + function + " to apply");
+                        stack[sp++] = result;
+                        pc += 2;
+                    }
+                    case JUMP_IF_FALSE -> {
+                        MyDataType value = stack[--sp];
+                        //only the constants false and nil are false, see Cond
+                        if (value instanceof ConstType && (value.equals(False) || value.equals(Nil)))
+                            pc = ops[pc + 1];
+                        else
+                            pc += 2;
+                    }
+                    case JUMP -> pc = ops[pc + 1];
+                    case POP -> {
+                        sp--;
+                        pc++;
+                    }
+                    case CLOSURE -> {
+                        stack[sp++] = new Closure((Lambda) pool[ops[pc + 1]], frame);
+                        pc += 2;
+                    }
+                    case ENTER -> {
+                        frame = new Frame(new MyDataType[ops[pc + 1]], frame);
+                        pc += 2;
+                    }
+                    case LEAVE -> {
+                        frame = frame.outer;
+                        pc++;
+                    }
+                    case MACRO -> {
+                        stack[sp++] = ((MacroCall) pool[ops[pc + 1]]).executeCompiled(frame, false);
+                        pc += 2;
+                    }
+                    case MACRO_TAIL -> {
+                        return ((MacroCall) pool[ops[pc + 1]]).executeCompiled(frame, true);
+                    }
+                    case NODE -> {
+                        stack[sp++] = ((Node) pool[ops[pc + 1]]).execute(frame);
+                        pc += 2;
+                    }
+                    case NODE_TAIL -> {
+                        return ((Node) pool[ops[pc + 1]]).executeTail(frame);
+                    }
+                    case RETURN -> {
+                        return stack[sp - 1];
+                    }
+                    default -> throw new IllegalStateException("bad opcode " + ops[pc] + " at " + pc + " in " + code.name);
+                }
+            }
+        } catch (REPLErrors | ReaderErrors e) {
+            MyDataType site = code.site(start);
+            if (site != null)
+                SourceMap.blame(e, site);//no-op unless the form was read from a file
+            throw e;
+        }
+    }
+}